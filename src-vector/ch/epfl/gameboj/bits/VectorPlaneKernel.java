@@ -0,0 +1,127 @@
+package ch.epfl.gameboj.bits;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel of BitPlanes using the vector API of the JDK : the blocks of the vectors are combined by
+ * vectors of 4 blocks (256 bits), a line of the background (4 blocks) being combined in a single
+ * pass and a line of the lcd (3 blocks) in two.
+ *
+ * This class needs the module jdk.incubator.vector, both to be compiled and run
+ * (option --add-modules jdk.incubator.vector), and is thus kept out of the source root src.
+ * It is only loaded by BitPlanes, reflectively, when enabled.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+final class VectorPlaneKernel implements BitPlanes.Kernel {
+
+    // Masked accesses being slow when a vector extends beyond its array, the blocks are combined
+    // by groups of 4, then 2, then one by one
+    private static final VectorSpecies<Long> LARGE = LongVector.SPECIES_256;
+    private static final VectorSpecies<Long> SMALL = LongVector.SPECIES_128;
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#mapColors(long[], long[], int, long[], long[])
+     */
+    @Override
+    public void mapColors(long[] msb, long[] lsb, int palette, long[] msbDest, long[] lsbDest) {
+        int i = 0;
+        for (; i + LARGE.length() <= msb.length; i += LARGE.length()) {
+            mapColors(LARGE, i, msb, lsb, palette, msbDest, lsbDest);
+        }
+        if (i + SMALL.length() <= msb.length) {
+            mapColors(SMALL, i, msb, lsb, palette, msbDest, lsbDest);
+            i += SMALL.length();
+        }
+        for (; i < msb.length; i++) {
+            long m = msb[i], l = lsb[i];
+            long c0 = ~m & ~l, c1 = ~m & l, c2 = m & ~l, c3 = m & l;
+            msbDest[i] = (c0 & BitPlanes.paletteBit(palette, 1)) | (c1 & BitPlanes.paletteBit(palette, 3))
+                    | (c2 & BitPlanes.paletteBit(palette, 5)) | (c3 & BitPlanes.paletteBit(palette, 7));
+            lsbDest[i] = (c0 & BitPlanes.paletteBit(palette, 0)) | (c1 & BitPlanes.paletteBit(palette, 2))
+                    | (c2 & BitPlanes.paletteBit(palette, 4)) | (c3 & BitPlanes.paletteBit(palette, 6));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#multiplex(long[], long[], long[], long[])
+     */
+    @Override
+    public void multiplex(long[] high, long[] low, long[] toggle, long[] dest) {
+        int i = 0;
+        for (; i + LARGE.length() <= dest.length; i += LARGE.length()) {
+            multiplex(LARGE, i, high, low, toggle, dest);
+        }
+        if (i + SMALL.length() <= dest.length) {
+            multiplex(SMALL, i, high, low, toggle, dest);
+            i += SMALL.length();
+        }
+        for (; i < dest.length; i++) {
+            dest[i] = (high[i] & toggle[i]) | (low[i] & ~toggle[i]);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#composeSprites(long[], long[], long[], long[], long[], long[], long[])
+     */
+    @Override
+    public void composeSprites(long[] plane, long[] opacity, long[] bgPlane, long[] bgOpacity,
+            long[] fgPlane, long[] fgOpacity, long[] dest) {
+        int i = 0;
+        for (; i + LARGE.length() <= dest.length; i += LARGE.length()) {
+            composeSprites(LARGE, i, plane, opacity, bgPlane, bgOpacity, fgPlane, fgOpacity, dest);
+        }
+        if (i + SMALL.length() <= dest.length) {
+            composeSprites(SMALL, i, plane, opacity, bgPlane, bgOpacity, fgPlane, fgOpacity, dest);
+            i += SMALL.length();
+        }
+        for (; i < dest.length; i++) {
+            long lineMask = opacity[i] | ~bgOpacity[i];
+            long behind = (plane[i] & lineMask) | (bgPlane[i] & ~lineMask);
+            dest[i] = (fgPlane[i] & fgOpacity[i]) | (behind & ~fgOpacity[i]);
+        }
+    }
+
+    private static void mapColors(VectorSpecies<Long> species, int i, long[] msb, long[] lsb, int palette,
+            long[] msbDest, long[] lsbDest) {
+        LongVector m = LongVector.fromArray(species, msb, i);
+        LongVector l = LongVector.fromArray(species, lsb, i);
+        LongVector notM = m.not(), notL = l.not();
+        LongVector c0 = notM.and(notL), c1 = notM.and(l), c2 = m.and(notL), c3 = m.and(l);
+
+        // Every bit of the palette, extended to a whole block, selects the pixels of a color
+        c0.and(BitPlanes.paletteBit(palette, 1)).or(c1.and(BitPlanes.paletteBit(palette, 3)))
+                .or(c2.and(BitPlanes.paletteBit(palette, 5))).or(c3.and(BitPlanes.paletteBit(palette, 7)))
+                .intoArray(msbDest, i);
+        c0.and(BitPlanes.paletteBit(palette, 0)).or(c1.and(BitPlanes.paletteBit(palette, 2)))
+                .or(c2.and(BitPlanes.paletteBit(palette, 4))).or(c3.and(BitPlanes.paletteBit(palette, 6)))
+                .intoArray(lsbDest, i);
+    }
+
+    private static void multiplex(VectorSpecies<Long> species, int i, long[] high, long[] low, long[] toggle,
+            long[] dest) {
+        LongVector t = LongVector.fromArray(species, toggle, i);
+        LongVector h = LongVector.fromArray(species, high, i);
+        LongVector l = LongVector.fromArray(species, low, i);
+
+        h.and(t).or(l.and(t.not())).intoArray(dest, i);
+    }
+
+    private static void composeSprites(VectorSpecies<Long> species, int i, long[] plane, long[] opacity,
+            long[] bgPlane, long[] bgOpacity, long[] fgPlane, long[] fgOpacity, long[] dest) {
+        LongVector lineMask = LongVector.fromArray(species, opacity, i)
+                .or(LongVector.fromArray(species, bgOpacity, i).not());
+        LongVector behind = LongVector.fromArray(species, plane, i).and(lineMask)
+                .or(LongVector.fromArray(species, bgPlane, i).and(lineMask.not()));
+        LongVector fgMask = LongVector.fromArray(species, fgOpacity, i);
+
+        LongVector.fromArray(species, fgPlane, i).and(fgMask)
+                .or(behind.and(fgMask.not()))
+                .intoArray(dest, i);
+    }
+}
@@ -4,6 +4,8 @@ public interface AddressMap {
     int[] RESETS = new int[] { 0x00, 0x08, 0x10, 0x18, 0x20, 0x28, 0x30, 0x38 };
     int[] INTERRUPTS = new int[]{ 0x40, 0x48, 0x50, 0x58, 0x60 };
 
+    int CARTRIDGE_ROM_START = 0x0000, CARTRIDGE_ROM_END = 0x8000, CARTRIDGE_ROM_SIZE = CARTRIDGE_ROM_END - CARTRIDGE_ROM_START;
+    int CARTRIDGE_RAM_START = 0xA000, CARTRIDGE_RAM_END = 0xC000, CARTRIDGE_RAM_SIZE = CARTRIDGE_RAM_END - CARTRIDGE_RAM_START;
     int BOOT_ROM_START = 0x0000, BOOT_ROM_END = 0x0100, BOOT_ROM_SIZE = BOOT_ROM_END - BOOT_ROM_START;
     int VIDEO_RAM_START = 0x8000, VIDEO_RAM_END = 0xA000, VIDEO_RAM_SIZE = VIDEO_RAM_END - VIDEO_RAM_START;
     int WORK_RAM_START = 0xC000, WORK_RAM_END = 0xE000, WORK_RAM_SIZE = WORK_RAM_END - WORK_RAM_START;
@@ -18,6 +20,7 @@ public interface AddressMap {
     // Memory-mapped "IO" registers
     int REGS_START = 0xFF00;
     int REG_P1 = 0xFF00;
+    int REG_SB = 0xFF01;
     int REG_DIV = 0xFF04;
     int REG_TIMA = 0xFF05;
     int REG_TMA = 0xFF06;
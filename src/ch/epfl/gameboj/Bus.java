@@ -1,28 +1,91 @@
 package ch.epfl.gameboj;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 import ch.epfl.gameboj.component.Component;
 
 /**
  * Represents a bus connecting components
- * 
+ *
+ * The address space is split in 256 pages of 256 bytes, indexed by the high byte
+ * of the address. Every page holds the component handling it, so that reads and
+ * writes are dispatched with a single table lookup. Pages shared by several
+ * components (such as the IO registers page) hold a second table, indexed by the
+ * low byte of the address.
+ *
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
 public final class Bus {
-    private final ArrayList<Component> components = new ArrayList<>();
-    
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int NUMBER_OF_PAGES = 1 << (Short.SIZE - PAGE_BITS);
+    private static final int ADDRESS_SPACE_END = NUMBER_OF_PAGES * PAGE_SIZE;
+
+    private static final Component OPEN_BUS = new Component() {
+        @Override
+        public int read(int address) {
+            return Component.NO_DATA;
+        }
+
+        @Override
+        public void write(int address, int data) {
+            // Nothing is connected to this address
+        }
+    };
+
+    private final Component[] pages = new Component[NUMBER_OF_PAGES];
+
+    /**
+     * Creates a new bus, with no components attached
+     */
+    public Bus() {
+        Arrays.fill(pages, OPEN_BUS);
+    }
+
     /**
-     * Attaches a component to the bus
+     * Attaches a component to the bus, on the whole address space
      * @param component : non-null
      * @throws NullPointerException
      */
-    public void attach(Component component) {     
-        components.add(Objects.requireNonNull(component));
+    public void attach(Component component) {
+        attach(component, 0, ADDRESS_SPACE_END);
     }
-    
+
+    /**
+     * Attaches a component to the bus, only for the addresses between start (incl.) and end (excl.).
+     * The component will not be read nor written outside of this range
+     * @param component : non-null
+     * @param start : first address mapped to the component, 16 bits
+     * @param end : end of the mapped range (excl.), between start and 0x10000
+     * @throws NullPointerException if the component is null
+     * @throws IllegalArgumentException if the range is invalid
+     */
+    public void attach(Component component, int start, int end) {
+        Objects.requireNonNull(component);
+        Preconditions.checkArgument(0 <= start && start <= end && end <= ADDRESS_SPACE_END);
+
+        int address = start;
+        while (address < end) {
+            int page = address >>> PAGE_BITS;
+            int pageEnd = (page + 1) << PAGE_BITS;
+            int rangeEnd = Math.min(end, pageEnd);
+
+            if (address == page << PAGE_BITS && rangeEnd == pageEnd) {
+                pages[page] = map(pages[page], component);
+            } else {
+                SharedPage sharedPage = sharedPage(page);
+                for (int a = address; a < rangeEnd; a++) {
+                    sharedPage.map(a & (PAGE_SIZE - 1), component);
+                }
+            }
+
+            address = rangeEnd;
+        }
+    }
+
     /**
      * Reads data at specified address. If address does not exist or there is no data, returns 0xFF
      * @param address : 16-bit address
@@ -31,17 +94,11 @@ public final class Bus {
      */
     public int read(int address) {
         Preconditions.checkBits16(address);
-        
-        for (Component component : components) {
-            int data = component.read(address);
-            if (data != Component.NO_DATA) {
-                return data;
-            }
-        }
-        
-        return 0xFF;
+
+        int data = pages[address >>> PAGE_BITS].read(address);
+        return data == Component.NO_DATA ? 0xFF : data;
     }
-    
+
     /**
      * Writes data to all attached components with given address
      * @param address : 16-bit address
@@ -51,9 +108,97 @@ public final class Bus {
     public void write(int address, int data) {
         Preconditions.checkBits16(address);
         Preconditions.checkBits8(data);
-        
-        for (Component component : components) {
-            component.write(address, data);
+
+        pages[address >>> PAGE_BITS].write(address, data);
+    }
+
+    private SharedPage sharedPage(int page) {
+        if (!(pages[page] instanceof SharedPage)) {
+            pages[page] = new SharedPage(pages[page]);
+        }
+        return (SharedPage) pages[page];
+    }
+
+    /**
+     * Adds a component to the handler of an address, keeping the attachment order
+     * @param handler : the current handler of the address
+     * @param component : the component to be added
+     * @return the new handler of the address
+     */
+    private static Component map(Component handler, Component component) {
+        if (handler == OPEN_BUS) {
+            return component;
+        } else if (handler instanceof SharedPage) {
+            ((SharedPage) handler).mapAll(component);
+            return handler;
+        } else {
+            return new Chain(handler, component);
+        }
+    }
+
+    /**
+     * Page whose addresses are handled by different components
+     */
+    private static final class SharedPage implements Component {
+        private final Component[] handlers = new Component[PAGE_SIZE];
+
+        SharedPage(Component handler) {
+            Arrays.fill(handlers, handler);
+        }
+
+        void map(int index, Component component) {
+            handlers[index] = Bus.map(handlers[index], component);
+        }
+
+        void mapAll(Component component) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                map(i, component);
+            }
+        }
+
+        @Override
+        public int read(int address) {
+            return handlers[address & (PAGE_SIZE - 1)].read(address);
+        }
+
+        @Override
+        public void write(int address, int data) {
+            handlers[address & (PAGE_SIZE - 1)].write(address, data);
+        }
+    }
+
+    /**
+     * Several components attached to the same address, in attachment order
+     */
+    private static final class Chain implements Component {
+        private final Component[] components;
+
+        Chain(Component handler, Component component) {
+            if (handler instanceof Chain) {
+                Component[] previous = ((Chain) handler).components;
+                components = Arrays.copyOf(previous, previous.length + 1);
+            } else {
+                components = new Component[] { handler, null };
+            }
+            components[components.length - 1] = component;
+        }
+
+        @Override
+        public int read(int address) {
+            for (Component component : components) {
+                int data = component.read(address);
+                if (data != Component.NO_DATA) {
+                    return data;
+                }
+            }
+            return Component.NO_DATA;
+        }
+
+        @Override
+        public void write(int address, int data) {
+            for (Component component : components) {
+                component.write(address, data);
+            }
         }
     }
 }
@@ -1,5 +1,7 @@
 package ch.epfl.gameboj;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.component.Joypad;
@@ -21,10 +23,16 @@ public final class GameBoy {
 	
 	public static final long CYCLES_PER_SECOND = (long) Math.pow(2, 20);
 	public static final double CYCLES_PER_NANOSECOND = CYCLES_PER_SECOND * 1E-9;
+	
+	/**
+	 * The system property enabling the recompilation of the code of the cartridge, see Cpu.setRecompiling
+	 */
+	public static final String RECOMPILER_PROPERTY = "gameboj.recompiler";
     
     private final Bus mBus;
     private final Cpu mCpu;
     private final Timer mTimer;
+    private final Ram workRamData;
     private final RamController workRam;
     private final RamController echoRam;
     private final BootRomController bootRom;
@@ -45,9 +53,9 @@ public final class GameBoy {
         
         mTimer = new Timer(mCpu);
 
-        Ram ram = new Ram(AddressMap.WORK_RAM_SIZE);
-        workRam = new RamController(ram, AddressMap.WORK_RAM_START, AddressMap.WORK_RAM_END);
-        echoRam = new RamController(ram, AddressMap.ECHO_RAM_START, AddressMap.ECHO_RAM_END);
+        workRamData = new Ram(AddressMap.WORK_RAM_SIZE);
+        workRam = new RamController(workRamData, AddressMap.WORK_RAM_START, AddressMap.WORK_RAM_END);
+        echoRam = new RamController(workRamData, AddressMap.ECHO_RAM_START, AddressMap.ECHO_RAM_END);
         bootRom = new BootRomController(cartridge);
         
         lcd = new LcdController(mCpu);
@@ -60,6 +68,9 @@ public final class GameBoy {
         bootRom.attachTo(mBus);
         lcd.attachTo(mBus);
         joypad.attachTo(mBus);
+        
+        mCpu.setCodeMapping(bootRom::codeMapping);
+        mCpu.setRecompiling(Boolean.getBoolean(RECOMPILER_PROPERTY));
     }
     
     /**
@@ -106,6 +117,10 @@ public final class GameBoy {
     
     /**
      * Runs the gameboy up to passed cycle
+     * 
+     * Components are only cycled at the next cycle at which one of them has something to do,
+     * and at the last cycle, so that all of them have caught up when the method returns. When the
+     * cpu recompiles the code, it may run ahead up to the next event of the timer and the lcd controller
      * @param cycle : cycle up to which the processor will run
      * @throws IllegalArgumentException if the gameboy has already run up to given cycle
      */
@@ -113,10 +128,71 @@ public final class GameBoy {
         Preconditions.checkArgument(cycle >= numberOfCycles);
         
         while(cycles() < cycle) {
-            mTimer.cycle(numberOfCycles);
-            lcd.cycle(numberOfCycles);
-            mCpu.cycle(numberOfCycles);
-            numberOfCycles++;
+            long nextCycle = Math.min(nextEventCycle(), cycle - 1);
+            
+            mTimer.cycle(nextCycle);
+            lcd.cycle(nextCycle);
+            if (mCpu.isRecompiling()) {
+                mCpu.setEventHorizon(eventHorizon(nextCycle + 1, cycle));
+            }
+            mCpu.cycle(nextCycle);
+            numberOfCycles = nextCycle + 1;
         }
     }
+    
+    /**
+     * Saves the whole state of the gameboy, replacing the previous contents of the save state.
+     * Does not allocate any memory
+     * @param state : the save state, non null
+     * @throws NullPointerException if state is null
+     */
+    public void saveState(SaveState state) {
+        ByteBuffer buffer = state.beginSave();
+
+        buffer.putLong(numberOfCycles);
+        mCpu.saveState(buffer);
+        mTimer.saveState(buffer);
+        workRamData.saveState(buffer);
+        bootRom.saveState(buffer);
+        lcd.saveState(buffer);
+        joypad.saveState(buffer);
+
+        state.endSave();
+    }
+
+    /**
+     * Restores the whole state of the gameboy from a save state. If the state is invalid,
+     * the gameboy is left in an unspecified state
+     * @param state : a state saved by a gameboy with the same kind of cartridge, non null
+     * @throws NullPointerException if state is null
+     * @throws IllegalArgumentException if the state is not a valid state of the current version
+     * or does not match the cartridge of the gameboy
+     */
+    public void loadState(SaveState state) {
+        ByteBuffer buffer = state.beginLoad();
+
+        try {
+            numberOfCycles = buffer.getLong();
+            mCpu.loadState(buffer);
+            mTimer.loadState(buffer);
+            workRamData.loadState(buffer);
+            bootRom.loadState(buffer);
+            lcd.loadState(buffer);
+            joypad.loadState(buffer);
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated save state", e);
+        }
+
+        state.endLoad();
+    }
+
+    private long eventHorizon(long cycle, long end) {
+        long next = Math.min(mTimer.nextEventCycle(cycle), lcd.nextEventCycle(cycle));
+        return Math.min(next, end);
+    }
+
+    private long nextEventCycle() {
+        long next = Math.min(mTimer.nextEventCycle(numberOfCycles), lcd.nextEventCycle(numberOfCycles));
+        return Math.min(next, mCpu.nextEventCycle(numberOfCycles));
+    }
 }
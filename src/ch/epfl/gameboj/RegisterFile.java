@@ -1,5 +1,7 @@
 package ch.epfl.gameboj;
 
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 
@@ -11,7 +13,7 @@ import ch.epfl.gameboj.bits.Bits;
  *
  * @param <E> : the type of the registers
  */
-public final class RegisterFile<E extends Register> {
+public final class RegisterFile<E extends Register> implements Stateful {
 
     private final byte[] registerFile;
     
@@ -62,4 +64,20 @@ public final class RegisterFile<E extends Register> {
     public void setBit(E reg, Bit bit, boolean newValue) {
         set(reg, Bits.set(get(reg), bit.index(), newValue));
     }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put(registerFile);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        buffer.get(registerFile);
+    }
 }
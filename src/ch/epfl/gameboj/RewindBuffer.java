@@ -0,0 +1,276 @@
+package ch.epfl.gameboj;
+
+import java.util.Objects;
+
+/**
+ * Records the recent history of a gameboy, so that it can be rewound
+ *
+ * A snapshot of the gameboy is taken every given number of frames. Only the most recent
+ * snapshot is kept whole : every older one is stored as the difference (exclusive or) with
+ * the snapshot which followed it, run-length encoded, since most of the memory does not change
+ * from one frame to the next. Stepping back thus only costs decoding one difference and loading
+ * a state. The differences are stored in a ring of fixed size, the oldest ones being dropped
+ * when it is full, so that the memory used by the buffer is bounded.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class RewindBuffer {
+
+    /**
+     * The default number of bytes in which the differences are stored
+     */
+    public static final int DEFAULT_CAPACITY = 16 << 20;
+
+    /**
+     * The default maximal number of snapshots, about 60 seconds at one snapshot per frame
+     */
+    public static final int DEFAULT_MAX_SNAPSHOTS = 3600;
+
+    private static final int VARINT_SHIFT = 7;
+    private static final int VARINT_MORE = 1 << VARINT_SHIFT;
+    private static final int VARINT_MASK = VARINT_MORE - 1;
+
+    private final int interval;
+    private final int maxDeltas;
+    private final byte[] deltas;
+    private final int[] deltaOffsets;
+    private final int[] deltaLengths;
+    private int firstDelta = 0;
+    private int deltaCount = 0;
+
+    private final SaveState state = new SaveState();
+    private byte[] newest = new byte[SaveState.MAX_SIZE];
+    private byte[] current = new byte[SaveState.MAX_SIZE];
+    private int newestSize = 0;
+    private final byte[] encoded = new byte[maxEncodedSize(SaveState.MAX_SIZE)];
+    private int framesSinceSnapshot = 0;
+    private int cursor;
+
+    /**
+     * Creates a new empty buffer, taking a snapshot at every frame, with the default
+     * capacity and maximal number of snapshots
+     */
+    public RewindBuffer() {
+        this(1, DEFAULT_MAX_SNAPSHOTS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty buffer
+     * @param interval : the number of frames between two snapshots, strictly positive
+     * @param maxSnapshots : the maximal number of snapshots kept, strictly positive
+     * @param capacity : the number of bytes in which the differences between snapshots are stored, positive
+     * @throws IllegalArgumentException if one of the arguments is invalid
+     */
+    public RewindBuffer(int interval, int maxSnapshots, int capacity) {
+        Preconditions.checkArgument(interval > 0 && maxSnapshots > 0 && capacity >= 0);
+
+        this.interval = interval;
+        this.maxDeltas = maxSnapshots - 1;
+        this.deltas = new byte[capacity];
+        this.deltaOffsets = new int[maxDeltas];
+        this.deltaLengths = new int[maxDeltas];
+    }
+
+    /**
+     * @return the number of snapshots currently held by the buffer
+     */
+    public int snapshots() {
+        return newestSize == 0 ? 0 : deltaCount + 1;
+    }
+
+    /**
+     * Signals that the gameboy has run one more frame, taking a snapshot of it if it
+     * is due. The first frame recorded is always taken
+     * @param gb : the gameboy, non null
+     * @throws NullPointerException if gb is null
+     */
+    public void record(GameBoy gb) {
+        Objects.requireNonNull(gb);
+
+        framesSinceSnapshot++;
+        if (newestSize == 0 || framesSinceSnapshot >= interval) {
+            snapshot(gb);
+        }
+    }
+
+    /**
+     * Steps back in the history : restores the gameboy to the most recent snapshot, or to the one
+     * before it if no frame was recorded since it was taken. The restored snapshot becomes the most
+     * recent one, later ones being dropped. The oldest snapshot is never dropped
+     * @param gb : the gameboy, which must be the one which was recorded
+     * @return false iff the buffer is empty, in which case the gameboy is not modified
+     * @throws NullPointerException if gb is null
+     */
+    public boolean rewind(GameBoy gb) {
+        Objects.requireNonNull(gb);
+
+        if (newestSize == 0) {
+            return false;
+        }
+
+        if (framesSinceSnapshot == 0 && deltaCount > 0) {
+            int last = deltaIndex(deltaCount - 1);
+            decodeInto(deltaOffsets[last], deltaLengths[last], newest);
+            deltaCount--;
+        }
+
+        state.copyFrom(newest, newestSize);
+        gb.loadState(state);
+        framesSinceSnapshot = 0;
+        return true;
+    }
+
+    /**
+     * Drops all the snapshots
+     */
+    public void clear() {
+        newestSize = 0;
+        deltaCount = 0;
+        framesSinceSnapshot = 0;
+    }
+
+    private void snapshot(GameBoy gb) {
+        gb.saveState(state);
+        int size = state.size();
+        state.copyTo(current);
+
+        if (size != newestSize) {
+            // Nothing to compute a difference with
+            deltaCount = 0;
+        } else if (maxDeltas > 0) {
+            storeDelta(encode(newest, current, size));
+        }
+
+        byte[] previous = newest;
+        newest = current;
+        current = previous;
+        newestSize = size;
+        framesSinceSnapshot = 0;
+    }
+
+    /**
+     * Appends the encoded difference after the most recent one, dropping the oldest ones
+     * which are in the way
+     */
+    private void storeDelta(int length) {
+        if (length > deltas.length) {
+            deltaCount = 0;
+            return;
+        }
+
+        int offset = 0;
+        if (deltaCount > 0) {
+            int last = deltaIndex(deltaCount - 1);
+            offset = deltaOffsets[last] + deltaLengths[last];
+            if (offset + length > deltas.length) {
+                // Wraps around, the differences at the end of the ring being the oldest ones
+                while (deltaCount > 0 && deltaOffsets[firstDelta] >= offset) {
+                    dropFirstDelta();
+                }
+                offset = 0;
+            }
+        }
+
+        while (deltaCount == maxDeltas || (deltaCount > 0 && overlapsFirst(offset, length))) {
+            dropFirstDelta();
+        }
+
+        System.arraycopy(encoded, 0, deltas, offset, length);
+        int index = deltaIndex(deltaCount);
+        deltaOffsets[index] = offset;
+        deltaLengths[index] = length;
+        deltaCount++;
+    }
+
+    private void dropFirstDelta() {
+        firstDelta = (firstDelta + 1) % maxDeltas;
+        deltaCount--;
+    }
+
+    private boolean overlapsFirst(int offset, int length) {
+        int start = deltaOffsets[firstDelta];
+        return start < offset + length && offset < start + deltaLengths[firstDelta];
+    }
+
+    private int deltaIndex(int i) {
+        return (firstDelta + i) % maxDeltas;
+    }
+
+    /* Difference encoding */
+
+    /**
+     * Encodes the exclusive or of two arrays in the encoded array, as a sequence of runs : the number
+     * of equal bytes, the number of different bytes, then the exclusive or of the different bytes
+     * @return the length of the encoding
+     */
+    private int encode(byte[] a, byte[] b, int length) {
+        cursor = 0;
+
+        int i = 0;
+        while (i < length) {
+            int equalStart = i;
+            while (i < length && a[i] == b[i]) {
+                i++;
+            }
+
+            int differentStart = i;
+            while (i < length && a[i] != b[i]) {
+                i++;
+            }
+
+            putVarint(differentStart - equalStart);
+            putVarint(i - differentStart);
+            for (int k = differentStart; k < i; k++) {
+                encoded[cursor++] = (byte) (a[k] ^ b[k]);
+            }
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Applies an encoded difference to an array, in place
+     */
+    private void decodeInto(int offset, int length, byte[] target) {
+        cursor = offset;
+        int end = offset + length;
+
+        int i = 0;
+        while (cursor < end) {
+            i += getVarint();
+            int different = getVarint();
+            for (int k = 0; k < different; k++) {
+                target[i++] ^= deltas[cursor++];
+            }
+        }
+    }
+
+    private void putVarint(int value) {
+        while (value >= VARINT_MORE) {
+            encoded[cursor++] = (byte) ((value & VARINT_MASK) | VARINT_MORE);
+            value >>>= VARINT_SHIFT;
+        }
+        encoded[cursor++] = (byte) value;
+    }
+
+    private int getVarint() {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = deltas[cursor++];
+            value |= (b & VARINT_MASK) << shift;
+            shift += VARINT_SHIFT;
+        } while ((b & VARINT_MORE) != 0);
+        return value;
+    }
+
+    /**
+     * @return the maximal length of the encoding of a difference between two arrays of given length,
+     * reached when every other byte differs
+     */
+    private static int maxEncodedSize(int length) {
+        return 2 * length + 2 * Integer.BYTES;
+    }
+}
@@ -0,0 +1,68 @@
+package ch.epfl.gameboj;
+
+import java.util.Objects;
+
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
+
+/**
+ * Shows the images of a gameboy a given number of frames in advance, to hide the latency
+ * between an input and the frame which reflects it
+ *
+ * The gameboy is saved, run the given number of frames with its current inputs, then restored,
+ * so that the speculative frames never affect the emulation. Every shown frame thus costs the
+ * emulation of the extra frames, plus a save and a load of the state.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class RunAhead {
+
+    /**
+     * The system property giving the number of frames the gui runs ahead, 0 (disabled) by default
+     */
+    public static final String FRAMES_PROPERTY = "gameboj.runAhead";
+
+    private final int frames;
+    private final SaveState state = new SaveState();
+
+    /**
+     * Creates a new run-ahead
+     * @param frames : the number of frames to run ahead, positive (0 shows the current frame)
+     * @throws IllegalArgumentException if frames is negative
+     */
+    public RunAhead(int frames) {
+        Preconditions.checkArgument(frames >= 0);
+        this.frames = frames;
+    }
+
+    /**
+     * @return the number of frames run ahead
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * Copies the image the gameboy will show after running the given number of frames with its
+     * current inputs. The gameboy is left in the state it was when the method was called
+     * @param gb : the gameboy, non null
+     * @param frame : the frame buffer in which the image is copied, of the size of the lcd
+     * @throws NullPointerException if gb or frame is null
+     * @throws IllegalArgumentException if frame does not have the size of the lcd
+     */
+    public void showAhead(GameBoy gb, LcdFrameBuffer frame) {
+        Objects.requireNonNull(gb);
+        Objects.requireNonNull(frame);
+
+        if (frames == 0) {
+            frame.copyFrom(gb.lcdController().currentFrame());
+            return;
+        }
+
+        gb.saveState(state);
+        gb.runUntil(gb.cycles() + (long) frames * LcdController.CYCLES_PER_FRAME);
+        frame.copyFrom(gb.lcdController().currentFrame());
+        gb.loadState(state);
+    }
+}
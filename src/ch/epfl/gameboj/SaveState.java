@@ -0,0 +1,129 @@
+package ch.epfl.gameboj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a snapshot of the whole state of a gameboy, in a compact binary format
+ *
+ * A state starts with a magic number and the version of the format, followed by the
+ * states of the components of the gameboy, in a fixed order. The buffer holding the state
+ * is allocated once, so that a state can be saved and loaded repeatedly without allocating.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class SaveState {
+
+    /**
+     * The version of the format, to be incremented every time the saved state of an element changes
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The maximal size of a state, in bytes
+     */
+    public static final int MAX_SIZE = 1 << 17;
+
+    private static final int MAGIC = 0x47424A53; // "GBJS"
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+    private int size = 0;
+
+    /**
+     * @return the size of the state in bytes, 0 if nothing has been saved in it yet
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the bytes of the state into an array
+     * @param dst : an array of at least size() bytes
+     * @throws IllegalArgumentException if the array is too small
+     */
+    public void copyTo(byte[] dst) {
+        Preconditions.checkArgument(dst.length >= size);
+        System.arraycopy(buffer.array(), 0, dst, 0, size);
+    }
+
+    /**
+     * Replaces the bytes of the state by given ones. They are only checked when the
+     * state is loaded
+     * @param src : the bytes of a state
+     * @param length : the number of bytes to copy
+     * @throws IllegalArgumentException if length is negative, greater than MAX_SIZE or than the length of src
+     */
+    public void copyFrom(byte[] src, int length) {
+        Preconditions.checkArgument(0 <= length && length <= MAX_SIZE && length <= src.length);
+        System.arraycopy(src, 0, buffer.array(), 0, length);
+        size = length;
+    }
+
+    /**
+     * Writes the state to a stream
+     * @param out : the stream
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.array(), 0, size);
+    }
+
+    /**
+     * Replaces the state by the contents of a stream, up to its end
+     * @param in : the stream
+     * @throws IOException if reading fails
+     * @throws IllegalArgumentException if the stream contains more than MAX_SIZE bytes
+     */
+    public void readFrom(InputStream in) throws IOException {
+        int length = in.readNBytes(buffer.array(), 0, MAX_SIZE);
+        Preconditions.checkArgument(in.read() == -1);
+        size = length;
+    }
+
+    /**
+     * Starts saving a state, by writing its header
+     * @return the buffer in which the elements must be saved
+     */
+    ByteBuffer beginSave() {
+        size = 0;
+        buffer.clear();
+        return buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /**
+     * Ends saving a state, the saved bytes becoming the state
+     */
+    void endSave() {
+        size = buffer.position();
+    }
+
+    /**
+     * Starts loading the state, by checking its header
+     * @return the buffer from which the elements must be loaded
+     * @throws IllegalArgumentException if the state is not a valid state of the current version
+     */
+    ByteBuffer beginLoad() {
+        buffer.clear().limit(size);
+        if (size < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a save state");
+        }
+        if (buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("Unsupported save state version");
+        }
+        return buffer;
+    }
+
+    /**
+     * Ends loading the state
+     * @throws IllegalArgumentException if the state is larger than what was loaded
+     */
+    void endLoad() {
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Save state of another cartridge");
+        }
+    }
+}
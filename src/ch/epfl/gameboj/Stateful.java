@@ -0,0 +1,28 @@
+package ch.epfl.gameboj;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface representing an element of the gameboy whose state can be saved and restored
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public interface Stateful {
+
+    /**
+     * Writes the whole state of the element at the position of the buffer
+     * @param buffer : the buffer in which the state is written
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    void saveState(ByteBuffer buffer);
+
+    /**
+     * Restores the state of the element from the position of the buffer, which must contain
+     * a state written by saveState on an element built the same way
+     * @param buffer : the buffer from which the state is read
+     * @throws java.nio.BufferUnderflowException if the buffer is too small
+     * @throws IllegalArgumentException if the state is invalid
+     */
+    void loadState(ByteBuffer buffer);
+}
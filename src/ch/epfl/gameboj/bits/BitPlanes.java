@@ -0,0 +1,223 @@
+package ch.epfl.gameboj.bits;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * Operations combining several vectors of bits in a single pass, used to color and compose the
+ * lines of the lcd, whose pixels are stored in planes : the vectors of the most and least
+ * significant bits of their 2-bit colors, and the vector of their opacity
+ *
+ * The operations are run by a scalar kernel, or by a kernel using the vector API of the JDK if the
+ * system property SIMD_PROPERTY is true when this class is loaded, and the module
+ * jdk.incubator.vector is available. That kernel, VectorPlaneKernel, lives in the separate source
+ * root src-vector so that src compiles without the module. Both kernels give the same results.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class BitPlanes {
+
+    /**
+     * The system property enabling the kernel using the vector API
+     */
+    public static final String SIMD_PROPERTY = "gameboj.simd";
+
+    private static final String VECTOR_KERNEL = "ch.epfl.gameboj.bits.VectorPlaneKernel";
+    private static final int NUMBER_OF_COLORS = 4;
+
+    /**
+     * The operations of a kernel, on the blocks of vectors of the same size
+     */
+    interface Kernel {
+        /**
+         * Maps the colors of pixels through a palette
+         * @param msb : the most significant bits of the colors
+         * @param lsb : the least significant bits of the colors
+         * @param palette : the new color of every color, on 2 bits, starting from the lsb
+         * @param msbDest : receives the most significant bits of the new colors
+         * @param lsbDest : receives the least significant bits of the new colors
+         */
+        void mapColors(long[] msb, long[] lsb, int palette, long[] msbDest, long[] lsbDest);
+
+        /**
+         * Selects the bits of a vector where a toggle is set, and those of another elsewhere
+         * @param high : the bits selected where the toggle is set
+         * @param low : the bits selected elsewhere
+         * @param toggle : the toggle
+         * @param dest : receives the selected bits
+         */
+        void multiplex(long[] high, long[] low, long[] toggle, long[] dest);
+
+        /**
+         * Composes a plane of a line with the planes of the sprites behind and in front of it
+         * @param plane : the plane of the line
+         * @param opacity : the opacity of the line
+         * @param bgPlane : the plane of the sprites behind the line
+         * @param bgOpacity : the opacity of the sprites behind the line
+         * @param fgPlane : the plane of the sprites in front of the line
+         * @param fgOpacity : the opacity of the sprites in front of the line
+         * @param dest : receives the composed plane
+         */
+        void composeSprites(long[] plane, long[] opacity, long[] bgPlane, long[] bgOpacity,
+                long[] fgPlane, long[] fgOpacity, long[] dest);
+    }
+
+    private static final Kernel KERNEL = loadKernel();
+
+    private BitPlanes() {}
+
+    /**
+     * @return true if the operations are run by the kernel using the vector API
+     */
+    public static boolean isVectorized() {
+        return !(KERNEL instanceof ScalarKernel);
+    }
+
+    /**
+     * Maps the colors of pixels through a palette
+     * @param msb : the most significant bits of the colors
+     * @param lsb : the least significant bits of the colors
+     * @param palette : 8-bit integer, the new color of every color on 2 bits, starting from the lsb
+     * @param msbDest : receives the most significant bits of the new colors
+     * @param lsbDest : receives the least significant bits of the new colors
+     * @throws IllegalArgumentException if the palette is not 8 bits or the vectors have different sizes
+     */
+    public static void mapColorsInto(BitVector msb, BitVector lsb, int palette,
+            MutableBitVector msbDest, MutableBitVector lsbDest) {
+        Preconditions.checkBits8(palette);
+        checkSizes(msb.size(), lsb.size(), msbDest.size(), lsbDest.size());
+
+        KERNEL.mapColors(msb.blocks(), lsb.blocks(), palette, msbDest.blocks(), lsbDest.blocks());
+        BitVector.clearExtraBits(msbDest.blocks(), msbDest.size());
+        BitVector.clearExtraBits(lsbDest.blocks(), lsbDest.size());
+    }
+
+    /**
+     * Selects the bits of a vector where a toggle is set, and those of another elsewhere
+     * @param high : the bits selected where the toggle is set
+     * @param low : the bits selected elsewhere
+     * @param toggle : the toggle
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return a new vector, equal to high.and(toggle).or(low.and(toggle.not()))
+     */
+    public static BitVector multiplex(BitVector high, BitVector low, BitVector toggle) {
+        checkSizes(high.size(), low.size(), toggle.size());
+
+        long[] dest = new long[high.blocks().length];
+        KERNEL.multiplex(high.blocks(), low.blocks(), toggle.blocks(), dest);
+        return new BitVector(dest, high.size());
+    }
+
+    /**
+     * Composes a plane of a line with the planes of two lines of sprites : the sprites behind the line
+     * are visible where it is transparent, and the sprites in front of it wherever they are opaque
+     * @param plane : the plane of the line
+     * @param opacity : the opacity of the line
+     * @param bgPlane : the plane of the sprites behind the line
+     * @param bgOpacity : the opacity of the sprites behind the line
+     * @param fgPlane : the plane of the sprites in front of the line
+     * @param fgOpacity : the opacity of the sprites in front of the line
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return a new vector, the composed plane
+     */
+    public static BitVector composeSprites(BitVector plane, BitVector opacity, BitVector bgPlane,
+            BitVector bgOpacity, BitVector fgPlane, BitVector fgOpacity) {
+        checkSizes(plane.size(), opacity.size(), bgPlane.size(), bgOpacity.size(), fgPlane.size(), fgOpacity.size());
+
+        long[] dest = new long[plane.blocks().length];
+        KERNEL.composeSprites(plane.blocks(), opacity.blocks(), bgPlane.blocks(), bgOpacity.blocks(),
+                fgPlane.blocks(), fgOpacity.blocks(), dest);
+        BitVector.clearExtraBits(dest, plane.size());
+        return new BitVector(dest, plane.size());
+    }
+
+    /**
+     * Returns the kernel using the vector API, if it was compiled and its module is available
+     * @return the kernel, null if it can't be loaded
+     */
+    static Kernel vectorKernel() {
+        try {
+            return (Kernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // The kernel of src-vector is not on the class path, or the module
+            // jdk.incubator.vector has not been added to the virtual machine
+            return null;
+        }
+    }
+
+    private static Kernel loadKernel() {
+        Kernel vectorKernel = Boolean.getBoolean(SIMD_PROPERTY) ? vectorKernel() : null;
+        return vectorKernel != null ? vectorKernel : new ScalarKernel();
+    }
+
+    /**
+     * Returns a block whose bits are all equal to a bit of a palette
+     * @param palette : the palette
+     * @param index : the index of the bit
+     * @return all ones if the bit is set, 0 otherwise
+     */
+    static long paletteBit(int palette, int index) {
+        return -(palette >>> index & 1);
+    }
+
+    private static void checkSizes(int size, int... others) {
+        for (int other : others) {
+            Preconditions.checkArgument(other == size);
+        }
+    }
+
+    /**
+     * The kernel combining the vectors block by block
+     */
+    static final class ScalarKernel implements Kernel {
+
+        /*
+         * (non-Javadoc)
+         * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#mapColors(long[], long[], int, long[], long[])
+         */
+        @Override
+        public void mapColors(long[] msb, long[] lsb, int palette, long[] msbDest, long[] lsbDest) {
+            for (int i = 0; i < msb.length; i++) {
+                long newMsb = 0, newLsb = 0;
+
+                for (int color = 0; color < NUMBER_OF_COLORS; color++) {
+                    long colorMask = (Bits.test(color, 1) ? msb[i] : ~msb[i]) & (Bits.test(color, 0) ? lsb[i] : ~lsb[i]);
+                    if (Bits.test(palette, 2 * color + 1)) {
+                        newMsb |= colorMask;
+                    }
+                    if (Bits.test(palette, 2 * color)) {
+                        newLsb |= colorMask;
+                    }
+                }
+
+                msbDest[i] = newMsb;
+                lsbDest[i] = newLsb;
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#multiplex(long[], long[], long[], long[])
+         */
+        @Override
+        public void multiplex(long[] high, long[] low, long[] toggle, long[] dest) {
+            for (int i = 0; i < dest.length; i++) {
+                dest[i] = (high[i] & toggle[i]) | (low[i] & ~toggle[i]);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see ch.epfl.gameboj.bits.BitPlanes.Kernel#composeSprites(long[], long[], long[], long[], long[], long[], long[])
+         */
+        @Override
+        public void composeSprites(long[] plane, long[] opacity, long[] bgPlane, long[] bgOpacity,
+                long[] fgPlane, long[] fgOpacity, long[] dest) {
+            for (int i = 0; i < dest.length; i++) {
+                long lineMask = opacity[i] | ~bgOpacity[i];
+                long behind = (plane[i] & lineMask) | (bgPlane[i] & ~lineMask);
+                dest[i] = (fgPlane[i] & fgOpacity[i]) | (behind & ~fgOpacity[i]);
+            }
+        }
+    }
+}
@@ -6,7 +6,11 @@ import java.util.Objects;
 import ch.epfl.gameboj.Preconditions;
 
 /**
- * Represents an immutable vector of bits, in groups of 32
+ * Represents an immutable vector of bits, whose size is a multiple of 32
+ *
+ * The bits are stored in groups of 64, the bits of the last group beyond the size of the vector
+ * being always 0. The results of the operations can also be written to a MutableBitVector, to
+ * avoid allocating a new vector for every intermediate result.
  * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
@@ -14,20 +18,17 @@ import ch.epfl.gameboj.Preconditions;
 public final class BitVector {
 
     private static final int BLOCK_SIZE = 32;
-    private final int[] blocks;
+    static final int LONG_BLOCK_SIZE = Long.SIZE;
+    private static final int LONG_BLOCK_BITS = 6;
+
+    private final long[] blocks;
     private final int numberOfBits;
     
-    private enum Extraction {
-        ZERO, WRAP;
-    }
-    
     /**
      * Mutable Builder for BitVector
      */
     public static final class Builder {
         
-        private static final int BYTES_PER_BLOCK = 4;
-        
         private final int[] bytes;
         private final int fullSize;
         private boolean enabled = true;
@@ -75,24 +76,14 @@ public final class BitVector {
                 throw new IllegalStateException("This builder has already constructed a vector");
             }
             
-            int[] vector = new int[fullSize / BLOCK_SIZE];
+            long[] vector = new long[numberOfBlocks(fullSize)];
             
-            for(int i = 0; i < vector.length; i++) {
-                vector[i] = combineFourBytes(BYTES_PER_BLOCK * i);
+            for (int i = 0; i < bytes.length; i++) {
+                vector[i / Long.BYTES] |= (long) bytes[i] << (i % Long.BYTES) * Byte.SIZE;
             }
             
             enabled = false;
-            return new BitVector(vector);
-        }
-        
-        private int combineFourBytes(int index) {
-            int value = 0;
-            
-            for (int i = 0; i < BYTES_PER_BLOCK; i++) {
-                value = value | (bytes[index + i] << i * Byte.SIZE);
-            }
-            
-            return value;
+            return new BitVector(vector, fullSize);
         }
     }
     
@@ -115,16 +106,18 @@ public final class BitVector {
      * @throws IllegalArgumentException if size is negative or not a multiple of 32
      */
     public BitVector(int size, boolean initialValue) {
-        Preconditions.checkArgument(size % BLOCK_SIZE == 0 && size > 0);
+        checkSize(size);
         
         this.numberOfBits = size;
-        this.blocks = new int[size / BLOCK_SIZE];
-        int initBlock = initialValue ? ~0 : 0;
-        Arrays.fill(blocks, initBlock);     
+        this.blocks = new long[numberOfBlocks(size)];
+        if (initialValue) {
+            Arrays.fill(blocks, ~0L);
+            clearExtraBits(blocks, size);
+        }
     }
     
-    private BitVector(int[] blocks) {
-        this.numberOfBits = BLOCK_SIZE * blocks.length;
+    BitVector(long[] blocks, int numberOfBits) {
+        this.numberOfBits = numberOfBits;
         this.blocks = blocks;
     }
     
@@ -145,20 +138,14 @@ public final class BitVector {
      * @return the value of the bit
      */
     public boolean testBit(int index) {
-        return Bits.test(blocks[index / BLOCK_SIZE], index % BLOCK_SIZE);
+        return testBit(blocks, numberOfBits, index);
     }
     
     /**
      * @return the complement of the vector
      */
     public BitVector not() {
-        int[] blocksCopy = Arrays.copyOf(blocks, blocks.length);
-        
-        for (int i = 0; i < blocksCopy.length; i++) {
-            blocksCopy[i] = ~blocksCopy[i];
-        }
-        
-        return new BitVector(blocksCopy);
+        return new BitVector(notInto(new MutableBitVector(numberOfBits)).blocks(), numberOfBits);
     }
     
     /**
@@ -168,15 +155,7 @@ public final class BitVector {
      * @return a new BitVector, the result of the operation
      */
     public BitVector and(BitVector bv) {
-        Preconditions.checkArgument(numberOfBits == bv.size());
-        
-        int[] blocksCopy = Arrays.copyOf(blocks, blocks.length);
-
-        for(int i = 0; i < blocksCopy.length; i++) {
-            blocksCopy[i] = blocksCopy[i] & bv.blocks[i];
-        }
-        
-        return new BitVector(blocksCopy);
+        return new BitVector(andInto(bv, new MutableBitVector(numberOfBits)).blocks(), numberOfBits);
     }
     
     /**
@@ -186,15 +165,7 @@ public final class BitVector {
      * @return a new BitVector, the result of the operation
      */
     public BitVector or(BitVector bv) {
-        Preconditions.checkArgument(numberOfBits == bv.size());
-        
-        int[] blocksCopy = Arrays.copyOf(blocks, blocks.length);
-
-        for(int i = 0; i < blocksCopy.length; i++) {
-            blocksCopy[i] = blocksCopy[i] | bv.blocks[i];
-        }
-        
-        return new BitVector(blocksCopy);
+        return new BitVector(orInto(bv, new MutableBitVector(numberOfBits)).blocks(), numberOfBits);
     }
     
     /**
@@ -205,7 +176,8 @@ public final class BitVector {
      * @return a new BitVector of the extracted bits
      */
     public BitVector extractZeroExtended(int start, int numberOfBits) {
-        return new BitVector(extract(start, numberOfBits, Extraction.ZERO));
+        checkSize(numberOfBits);
+        return new BitVector(extractZeroExtendedInto(start, new MutableBitVector(numberOfBits)).blocks(), numberOfBits);
     }
     
     /**
@@ -216,7 +188,8 @@ public final class BitVector {
      * @return a new BitVector of the extracted bits
      */
     public BitVector extractWrapped(int start, int numberOfBits) {
-        return new BitVector(extract(start, numberOfBits, Extraction.WRAP));
+        checkSize(numberOfBits);
+        return new BitVector(extractWrappedInto(start, new MutableBitVector(numberOfBits)).blocks(), numberOfBits);
     }
     
     /**
@@ -227,6 +200,122 @@ public final class BitVector {
     public BitVector shift(int distance) {         
         return extractZeroExtended(-distance, numberOfBits);
     }
+
+
+    /* Operations written to a mutable vector */
+
+    /**
+     * Writes the complement of the vector to another one
+     * @param dest : the vector receiving the result, of the same size
+     * @throws IllegalArgumentException if dest has a different size
+     * @return dest
+     */
+    public MutableBitVector notInto(MutableBitVector dest) {
+        long[] d = destBlocks(dest);
+        for (int i = 0; i < d.length; i++) {
+            d[i] = ~blocks[i];
+        }
+        clearExtraBits(d, numberOfBits);
+        return dest;
+    }
+
+    /**
+     * Writes the bitwise AND of this vector and another to a third one
+     * @param bv : second vector
+     * @param dest : the vector receiving the result, of the same size
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return dest
+     */
+    public MutableBitVector andInto(BitVector bv, MutableBitVector dest) {
+        Preconditions.checkArgument(numberOfBits == bv.numberOfBits);
+        long[] d = destBlocks(dest);
+        for (int i = 0; i < d.length; i++) {
+            d[i] = blocks[i] & bv.blocks[i];
+        }
+        return dest;
+    }
+
+    /**
+     * Writes the bitwise OR of this vector and another to a third one
+     * @param bv : second vector
+     * @param dest : the vector receiving the result, of the same size
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return dest
+     */
+    public MutableBitVector orInto(BitVector bv, MutableBitVector dest) {
+        Preconditions.checkArgument(numberOfBits == bv.numberOfBits);
+        long[] d = destBlocks(dest);
+        for (int i = 0; i < d.length; i++) {
+            d[i] = blocks[i] | bv.blocks[i];
+        }
+        return dest;
+    }
+
+    /**
+     * Writes the bits extracted at given index, with a zero extension, to another vector
+     * @param start : start of the extraction
+     * @param dest : the vector receiving the extracted bits, whose size is the number of bits extracted
+     * @return dest
+     */
+    public MutableBitVector extractZeroExtendedInto(int start, MutableBitVector dest) {
+        long[] d = dest.blocks();
+        int blockIndex = start >> LONG_BLOCK_BITS;
+        int distance = start & (LONG_BLOCK_SIZE - 1);
+
+        long lsbBlock = block(blockIndex);
+        for (int i = 0; i < d.length; i++) {
+            long msbBlock = block(blockIndex + i + 1);
+            d[i] = combine(lsbBlock, msbBlock, distance);
+            lsbBlock = msbBlock;
+        }
+
+        clearExtraBits(d, dest.size());
+        return dest;
+    }
+
+    /**
+     * Writes the bits extracted at given index, with a wrapped extension, to another vector
+     * @param start : start of the extraction
+     * @param dest : the vector receiving the extracted bits, whose size is the number of bits extracted
+     * @return dest
+     */
+    public MutableBitVector extractWrappedInto(int start, MutableBitVector dest) {
+        long[] d = dest.blocks();
+        int first = Math.floorMod(start, numberOfBits);
+
+        if (numberOfBits % LONG_BLOCK_SIZE == 0) {
+            // The vector wraps at a block boundary : every word combines two blocks
+            int blockIndex = first >>> LONG_BLOCK_BITS;
+            int distance = first & (LONG_BLOCK_SIZE - 1);
+
+            long lsbBlock = blocks[blockIndex];
+            for (int i = 0; i < d.length; i++) {
+                blockIndex = blockIndex + 1 == blocks.length ? 0 : blockIndex + 1;
+                long msbBlock = blocks[blockIndex];
+                d[i] = combine(lsbBlock, msbBlock, distance);
+                lsbBlock = msbBlock;
+            }
+        } else {
+            for (int i = 0; i < d.length; i++) {
+                d[i] = wrappedWord((int) ((first + (long) i * LONG_BLOCK_SIZE) % numberOfBits));
+            }
+        }
+
+        clearExtraBits(d, dest.size());
+        return dest;
+    }
+
+    /**
+     * Writes the vector shifted by a given distance to another one
+     * @param distance : distance of shift
+     * @param dest : the vector receiving the result, of the same size
+     * @throws IllegalArgumentException if dest has a different size
+     * @return dest
+     */
+    public MutableBitVector shiftInto(int distance, MutableBitVector dest) {
+        destBlocks(dest);
+        return extractZeroExtendedInto(-distance, dest);
+    }
     
     @Override
     public boolean equals(Object that) {
@@ -244,68 +333,95 @@ public final class BitVector {
     
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        
-        for(int i : blocks) {
-            sb.insert(0, String.format("%32s", Integer.toBinaryString(i)).replace(' ', '0'));
-        }
-        
-        return sb.toString();
+        return toString(blocks, numberOfBits);
     }
     
     
-    /* Private methods */
-    
-    private int[] extract(int start, int numberOfBits, Extraction e) {
-        Preconditions.checkArgument(numberOfBits >= 0 && numberOfBits % BLOCK_SIZE == 0);
-        
-        if (Math.floorMod(start, BLOCK_SIZE) == 0) {
-            return extractFullBlocks(start, numberOfBits, e);
-        } else {
-            return extractCombinedBlocks(start, numberOfBits, e);    		
-        }
+    /* Package-private utilities, shared with MutableBitVector */
+
+    long[] blocks() {
+        return blocks;
     }
-    
-    private int[] extractFullBlocks(int startIndex, int numberOfBits, Extraction e) {
-        int startBlock = Math.floorDiv(startIndex, BLOCK_SIZE);
-        int[] blocks = new int[Math.floorDiv(numberOfBits, BLOCK_SIZE)];
-        
-        for (int i = 0; i < blocks.length; i++) {
-            blocks[i] = extractBlock(i + startBlock, e);
+
+    static void checkSize(int size) {
+        Preconditions.checkArgument(size % BLOCK_SIZE == 0 && size > 0);
+    }
+
+    static int numberOfBlocks(int size) {
+        return (size + LONG_BLOCK_SIZE - 1) / LONG_BLOCK_SIZE;
+    }
+
+    /**
+     * Sets to 0 the bits of the last block beyond the size of the vector
+     */
+    static void clearExtraBits(long[] blocks, int size) {
+        if (size % LONG_BLOCK_SIZE != 0) {
+            blocks[blocks.length - 1] &= -1L >>> (LONG_BLOCK_SIZE - size % LONG_BLOCK_SIZE);
         }
-        
-        return blocks;
     }
-    
-    private int[] extractCombinedBlocks(int startIndex, int numberOfBits, Extraction e) {
-        int[] blocks = new int[Math.floorDiv(numberOfBits, BLOCK_SIZE)];
-        
-        for (int i = 0; i < blocks.length; i++) {
-            blocks[i] = extractCombinedBlock(BLOCK_SIZE*i + startIndex, e);
+
+    static boolean testBit(long[] blocks, int size, int index) {
+        Objects.checkIndex(index, size);
+        return (blocks[index >>> LONG_BLOCK_BITS] & (1L << index)) != 0;
+    }
+
+    static String toString(long[] blocks, int size) {
+        StringBuilder sb = new StringBuilder(size);
+
+        for (int i = size - 1; i >= 0; i--) {
+            sb.append(testBit(blocks, size, i) ? '1' : '0');
         }
-        
-        return blocks;
+
+        return sb.toString();
     }
     
-    private int extractBlock(int blockIndex, Extraction e) {
-        	if (0 <= blockIndex && blockIndex < blocks.length) {
-        		return blocks[blockIndex];
-        	} else if (e == Extraction.WRAP) {
-        		return blocks[Math.floorMod(blockIndex, blocks.length)];
-        	} else {
-        		return 0;
-        	}
-    }
     
-    private int extractCombinedBlock(int startIndex, Extraction e) {
-        	int blockIndex = Math.floorDiv(startIndex, BLOCK_SIZE);
-        	int lsbBlock = extractBlock(blockIndex, e);
-        	int msbBlock = extractBlock(blockIndex + 1, e);
-        	
-        	int subIndex = Math.floorMod(startIndex, BLOCK_SIZE);
-        	int lsb = Bits.extract(lsbBlock, subIndex, BLOCK_SIZE - subIndex);
-        	int msb = Bits.extract(msbBlock, 0, subIndex);
-        	
-        	return (msb << (BLOCK_SIZE - subIndex)) | lsb;
+    /* Private methods */
+
+    private long[] destBlocks(MutableBitVector dest) {
+        Preconditions.checkArgument(dest.size() == numberOfBits);
+        return dest.blocks();
+    }
+
+    /**
+     * Returns the 64 bits starting at given index, with a zero extension
+     */
+    private long word(int index) {
+        int blockIndex = index >> LONG_BLOCK_BITS;
+        int distance = index & (LONG_BLOCK_SIZE - 1);
+        return combine(block(blockIndex), block(blockIndex + 1), distance);
+    }
+
+    private long block(int blockIndex) {
+        return 0 <= blockIndex && blockIndex < blocks.length ? blocks[blockIndex] : 0;
+    }
+
+    /**
+     * Returns the 64 bits starting at given index, wrapping around the end of the vector
+     * (possibly several times, if the vector has less than 64 bits)
+     */
+    private long wrappedWord(int index) {
+        long word = 0;
+        int filled = 0;
+
+        while (filled < LONG_BLOCK_SIZE) {
+            // The bits beyond the end of the vector are 0
+            word |= word(index) << filled;
+            filled += numberOfBits - index;
+            index = 0;
+        }
+
+        return word;
+    }
+
+    /**
+     * Returns the 64 bits starting at given distance in the 128 bits formed by two blocks
+     * @param lsbBlock : the block of the least significant bits
+     * @param msbBlock : the block of the most significant bits
+     * @param distance : the index of the first bit, between 0 and 63
+     */
+    private static long combine(long lsbBlock, long msbBlock, int distance) {
+        long lsbMask = -1L >>> distance;
+        return (Long.rotateRight(lsbBlock, distance) & lsbMask) | (Long.rotateRight(msbBlock, distance) & ~lsbMask);
     }
 }
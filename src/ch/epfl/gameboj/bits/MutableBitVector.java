@@ -0,0 +1,146 @@
+package ch.epfl.gameboj.bits;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * Represents a mutable vector of bits, whose size is a multiple of 32, modified in place by its
+ * operations. Used to compute combinations of BitVectors without allocating every intermediate
+ * result
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class MutableBitVector {
+
+    private final long[] blocks;
+    private final int numberOfBits;
+
+    /**
+     * Creates a new vector of given size, with all of its bits set to 0
+     * @param size : size of the new vector
+     * @throws IllegalArgumentException if size is negative or not a multiple of 32
+     */
+    public MutableBitVector(int size) {
+        BitVector.checkSize(size);
+
+        this.numberOfBits = size;
+        this.blocks = new long[BitVector.numberOfBlocks(size)];
+    }
+
+    /**
+     * @return the size of the vector in bits
+     */
+    public int size() {
+        return numberOfBits;
+    }
+
+    /**
+     * Gives the value of the bits at specified index
+     * @param index : index of the bit to be tested
+     * @throws IndexOutOfBoundsException if the index is not in range
+     * @return the value of the bit
+     */
+    public boolean testBit(int index) {
+        return BitVector.testBit(blocks, numberOfBits, index);
+    }
+
+    /**
+     * Replaces the bits of the vector by those of another one
+     * @param bv : the vector to copy
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return this
+     */
+    public MutableBitVector set(BitVector bv) {
+        Preconditions.checkArgument(numberOfBits == bv.size());
+        System.arraycopy(bv.blocks(), 0, blocks, 0, blocks.length);
+        return this;
+    }
+
+    /**
+     * Complements the vector
+     * @return this
+     */
+    public MutableBitVector notInPlace() {
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = ~blocks[i];
+        }
+        BitVector.clearExtraBits(blocks, numberOfBits);
+        return this;
+    }
+
+    /**
+     * Replaces the vector by its bitwise AND with another one
+     * @param bv : second vector
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return this
+     */
+    public MutableBitVector andInPlace(BitVector bv) {
+        Preconditions.checkArgument(numberOfBits == bv.size());
+        return andInPlace(bv.blocks());
+    }
+
+    /**
+     * Replaces the vector by its bitwise AND with another one
+     * @param bv : second vector
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return this
+     */
+    public MutableBitVector andInPlace(MutableBitVector bv) {
+        Preconditions.checkArgument(numberOfBits == bv.numberOfBits);
+        return andInPlace(bv.blocks);
+    }
+
+    /**
+     * Replaces the vector by its bitwise OR with another one
+     * @param bv : second vector
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return this
+     */
+    public MutableBitVector orInPlace(BitVector bv) {
+        Preconditions.checkArgument(numberOfBits == bv.size());
+        return orInPlace(bv.blocks());
+    }
+
+    /**
+     * Replaces the vector by its bitwise OR with another one
+     * @param bv : second vector
+     * @throws IllegalArgumentException if the vectors have different sizes
+     * @return this
+     */
+    public MutableBitVector orInPlace(MutableBitVector bv) {
+        Preconditions.checkArgument(numberOfBits == bv.numberOfBits);
+        return orInPlace(bv.blocks);
+    }
+
+    /**
+     * @return a new immutable vector with the current bits of this one
+     */
+    public BitVector toBitVector() {
+        return new BitVector(Arrays.copyOf(blocks, blocks.length), numberOfBits);
+    }
+
+    @Override
+    public String toString() {
+        return BitVector.toString(blocks, numberOfBits);
+    }
+
+    long[] blocks() {
+        return blocks;
+    }
+
+    private MutableBitVector andInPlace(long[] other) {
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] &= other[i];
+        }
+        return this;
+    }
+
+    private MutableBitVector orInPlace(long[] other) {
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] |= other[i];
+        }
+        return this;
+    }
+}
@@ -3,15 +3,31 @@ package ch.epfl.gameboj.component;
 
 /**
  * Represents a component controlled by system clock
- * 
+ *
+ * A component does not need to be cycled at every cycle : it only has to be cycled at the
+ * cycles given by nextEventCycle, and catches up on the cycles it was not cycled at
+ * when it is cycled again.
+ *
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
 public interface Clocked {
-    
+
     /**
-     * Evolves state of component
-     * @param cycle : the number of cycles since start of clock
+     * Evolves state of component up to the given cycle (incl.), as if it had been cycled
+     * at every cycle since the last call
+     * @param cycle : the number of cycles since start of clock, greater than at the previous call
      */
     void cycle(long cycle);
+
+    /**
+     * Returns the first cycle, not before the given one, at which the component must be cycled.
+     * The result is only valid until the state of the component is changed by something else
+     * than its own cycles (for example a write on the bus)
+     * @param cycle : the first cycle which has not been run yet
+     * @return the next cycle at which the component has something to do, Long.MAX_VALUE if none
+     */
+    default long nextEventCycle(long cycle) {
+        return cycle;
+    }
 }
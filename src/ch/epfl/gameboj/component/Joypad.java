@@ -1,14 +1,17 @@
 package ch.epfl.gameboj.component;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 
-public final class Joypad implements Component {
+public final class Joypad implements Component, Stateful {
 
     private enum P1 implements Bit {
         COL_0, COL_1, COL_2, COL_3, SELECT_ROW_0, SELECT_ROW_1;
@@ -47,6 +50,14 @@ public final class Joypad implements Component {
         this.cpu = Objects.requireNonNull(cpu);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#attachTo(ch.epfl.gameboj.Bus)
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attach(this, AddressMap.REG_P1, AddressMap.REG_P1 + 1);
+    }
+
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Component#read(int)
      */
@@ -91,6 +102,24 @@ public final class Joypad implements Component {
         changeKeyState(k, false);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) p1).put((byte) firstRow).put((byte) secondRow);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        p1 = Byte.toUnsignedInt(buffer.get());
+        firstRow = Byte.toUnsignedInt(buffer.get());
+        secondRow = Byte.toUnsignedInt(buffer.get());
+    }
+
     private void changeKeyState(Key k, boolean value) {
         if (k.firstRow()) {
             firstRow = Bits.set(firstRow, k.column(), value);
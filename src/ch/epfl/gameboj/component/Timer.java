@@ -1,32 +1,46 @@
 package ch.epfl.gameboj.component;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 
 /**
 * The Gameboy's timer component
 *
+* The main counter (DIV) is not incremented at every cycle : it is computed from the
+* number of cycles elapsed since it was last reset. TIMA is only brought up to date when
+* it is read or when a register is written, and the cycle at which it next overflows
+* is computed in advance, so that the timer only needs to be cycled at that cycle.
+*
 * @author Sylvain Kuchen (282380)
 * @author Luca Bataillard (282152)
 */
-public final class Timer implements Component, Clocked {
-    
+public final class Timer implements Component, Clocked, Stateful {
+
     private final Cpu cpu;
     private final RegisterFile<RegTimer> rf;
-    
-    private static final int TIMA_MAX_VALUE = 0xFF;
+
+    private static final int TIMA_OVERFLOW = 0x100;
     private static final int DIV_INC = 4;
-    
+    private static final long COUNTER_MASK = 0xFFFF;
+
+    private long lastCycle = -1;
+    private long counterOrigin = -1;
+    private long syncedCycle = -1;
+    private long overflowCycle = Long.MAX_VALUE;
+
     private static enum RegTimer implements Register {
-        DIV_MSB, DIV_LSB, TIMA, TMA, TAC
+        TIMA, TMA, TAC
     }
-    
+
     /**
      * Creates a new Timer
      * @param cpu : non null
@@ -36,16 +50,39 @@ public final class Timer implements Component, Clocked {
         this.cpu = Objects.requireNonNull(cpu);
         this.rf = new RegisterFile<>(RegTimer.values());
     }
-    
+
     /**
-     * Evolves the timer
+     * Attaches the timer to the bus, on its registers
+     * @param bus
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attach(this, AddressMap.REG_DIV, AddressMap.REG_TAC + 1);
+    }
+
+    /**
+     * Evolves the timer up to given cycle. TIMA is only updated if it overflows
      * @param cycle : number of elapsed cycles since start
+     * @throws IllegalArgumentException if the timer has already been cycled up to given cycle
      */
     @Override
     public void cycle(long cycle) {
-        boolean s0 = state();
-        writeDiv(Bits.clip(16, readDiv() + DIV_INC));
-        incIfChange(s0);
+        Preconditions.checkArgument(cycle > lastCycle);
+
+        lastCycle = cycle;
+        if (cycle >= overflowCycle) {
+            syncTima();
+        }
+    }
+
+    /**
+     * Returns the cycle at which TIMA next overflows, if the timer is enabled
+     * @param cycle : the first cycle which has not been run yet
+     * @return the next cycle at which the timer must be cycled
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        return Math.max(cycle, overflowCycle);
     }
 
     /**
@@ -57,13 +94,16 @@ public final class Timer implements Component, Clocked {
     @Override
     public int read(int address) {
         Preconditions.checkBits16(address);
-        
+
         switch (address) {
-            case AddressMap.REG_DIV:  return rf.get(RegTimer.DIV_MSB);
-            case AddressMap.REG_TIMA: return rf.get(RegTimer.TIMA);
+            case AddressMap.REG_DIV:
+                return Bits.extract(counter(), 8, 8);
+            case AddressMap.REG_TIMA:
+                syncTima();
+                return rf.get(RegTimer.TIMA);
             case AddressMap.REG_TMA:  return rf.get(RegTimer.TMA);
             case AddressMap.REG_TAC:  return rf.get(RegTimer.TAC);
-        
+
             default: return Component.NO_DATA;
         }
     }
@@ -79,63 +119,145 @@ public final class Timer implements Component, Clocked {
     public void write(int address, int data) {
         Preconditions.checkBits16(address);
         Preconditions.checkBits8(data);
-        
+
+        syncTima();
         boolean s0 = state();
-        
+
         switch (address) {
             case AddressMap.REG_DIV:
-                writeDiv(0);
+                counterOrigin = lastCycle;
                 incIfChange(s0);
                 break;
-            case AddressMap.REG_TIMA: 
+            case AddressMap.REG_TIMA:
                 rf.set(RegTimer.TIMA, data);
                 break;
-            case AddressMap.REG_TMA:  
-                rf.set(RegTimer.TMA, data);                
-                break;                
+            case AddressMap.REG_TMA:
+                rf.set(RegTimer.TMA, data);
+                break;
             case AddressMap.REG_TAC:
                 rf.set(RegTimer.TAC, data);
                 incIfChange(s0);
                 break;
         }
+
+        overflowCycle = computeOverflowCycle();
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        rf.saveState(buffer);
+        buffer.putLong(lastCycle).putLong(counterOrigin).putLong(syncedCycle).putLong(overflowCycle);
     }
-    
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        rf.loadState(buffer);
+        lastCycle = buffer.getLong();
+        counterOrigin = buffer.getLong();
+        syncedCycle = buffer.getLong();
+        overflowCycle = buffer.getLong();
+    }
+
     private void incIfChange(boolean previousState) {
         if (previousState && !state()) {
-            if (rf.get(RegTimer.TIMA) == TIMA_MAX_VALUE) {
-                cpu.requestInterrupt(Cpu.Interrupt.TIMER);
-                rf.set(RegTimer.TIMA, rf.get(RegTimer.TMA));
-            } else {
-                rf.set(RegTimer.TIMA, Bits.clip(8, rf.get(RegTimer.TIMA) + 1));
-            }
+            incrementTima(1);
+        }
+    }
+
+    /**
+     * Increments TIMA for every falling edge of the state since it was last brought up to date
+     */
+    private void syncTima() {
+        if (enabled()) {
+            int period = timerPeriod();
+            incrementTima(unwrappedCounter(lastCycle) / period - unwrappedCounter(syncedCycle) / period);
         }
+
+        syncedCycle = lastCycle;
+        overflowCycle = computeOverflowCycle();
+    }
+
+    /**
+     * Increments TIMA a given number of times, reloading it with TMA and raising an interrupt
+     * every time it overflows
+     * @param increments : the number of increments
+     */
+    private void incrementTima(long increments) {
+        long tima = rf.get(RegTimer.TIMA) + increments;
+
+        while (tima >= TIMA_OVERFLOW) {
+            cpu.requestInterrupt(Cpu.Interrupt.TIMER);
+            tima = rf.get(RegTimer.TMA) + tima - TIMA_OVERFLOW;
+        }
+
+        rf.set(RegTimer.TIMA, (int) tima);
+    }
+
+    /**
+     * Computes the cycle at which TIMA will overflow if no register is written until then.
+     * TIMA must be up to date
+     * @return the cycle of the next overflow, Long.MAX_VALUE if the timer is disabled
+     */
+    private long computeOverflowCycle() {
+        if (!enabled()) {
+            return Long.MAX_VALUE;
+        }
+
+        int period = timerPeriod();
+        long edges = TIMA_OVERFLOW - rf.get(RegTimer.TIMA);
+        long overflowCounter = (unwrappedCounter(syncedCycle) / period + edges) * period;
+
+        return counterOrigin + overflowCounter / DIV_INC;
     }
-    
+
     private boolean state() {
-        return Bits.test(rf.get(RegTimer.TAC), 2) && Bits.test(readDiv(), extractTimerIndex());
+        return enabled() && Bits.test(counter(), extractTimerIndex());
+    }
+
+    private boolean enabled() {
+        return Bits.test(rf.get(RegTimer.TAC), 2);
     }
-    
+
+    /**
+     * @return the number of main counter values between two falling edges of the state
+     */
+    private int timerPeriod() {
+        return 1 << (extractTimerIndex() + 1);
+    }
+
     private int extractTimerIndex() {
         int bit = Bits.clip(2, rf.get(RegTimer.TAC));
-        
+
         switch(bit) {
             case 0b00: return 9;
             case 0b01: return 3;
             case 0b10: return 5;
             case 0b11: return 7;
-            
+
             default: throw new IllegalArgumentException();
         }
     }
-    
-    private void writeDiv(int data) {
-        Preconditions.checkBits16(data);
-        
-        rf.set(RegTimer.DIV_MSB, Bits.extract(data, 8, 8));
-        rf.set(RegTimer.DIV_LSB, Bits.clip(8, data));
-    }
-    
-    private int readDiv() {
-        return Bits.make16(rf.get(RegTimer.DIV_MSB), rf.get(RegTimer.DIV_LSB));
-    }    
+
+    /**
+     * @return the 16-bit main counter, after the last cycle
+     */
+    private int counter() {
+        return (int) (unwrappedCounter(lastCycle) & COUNTER_MASK);
+    }
+
+    /**
+     * Returns the value the main counter would have after given cycle if it never wrapped around.
+     * Since its size is a multiple of the period of the state, falling edges can be counted on it
+     * @param cycle : a cycle not before the last reset of the counter
+     * @return the unwrapped counter
+     */
+    private long unwrappedCounter(long cycle) {
+        return DIV_INC * (cycle - counterOrigin);
+    }
 }
@@ -0,0 +1,139 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * Writes the ram of a cartridge to its save file in the background, at most once per interval
+ * and only if the game wrote to the ram in the meantime
+ *
+ * The pages of the ram written by the game are marked as dirty by the memory bank. A flush
+ * copies them, under a lock only held for the copy, into an image of the whole ram, which is
+ * then written to a temporary file renamed over the save file. The emulation thus never waits
+ * for the disk, and a crash leaves either the previous save or the new one, never a mix of both.
+ * The temporary file takes the permissions of the save file it replaces.
+ *
+ * A flush happening while the emulation runs speculatively, between the save and the load of
+ * a state (as done by RunAhead or when rewinding), may write ram that the load then discards.
+ * The load marks the pages it restores as dirty, so the next flush writes them back and the
+ * save file only holds speculative ram for at most one interval.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class BatterySaver implements AutoCloseable {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Cartridge cartridge;
+    private final Path file;
+    private final byte[] image;
+    private final ScheduledExecutorService executor;
+
+    // Whether the last write failed, the image then still having to be written
+    private boolean failed = false;
+
+    /**
+     * Creates a new saver and starts flushing the ram periodically. The ram is supposed to
+     * contain the save file already, its current contents are thus not written
+     * @param cartridge : the cartridge, which can be saved
+     * @param file : the save file, non null
+     * @param intervalMillis : the minimal time between two flushes, in milliseconds, strictly positive
+     * @throws NullPointerException if cartridge or file is null
+     * @throws IllegalArgumentException if the cartridge can't be saved or the interval is not positive
+     */
+    public BatterySaver(Cartridge cartridge, Path file, long intervalMillis) {
+        Preconditions.checkArgument(cartridge.canBeSaved() && intervalMillis > 0);
+
+        this.cartridge = cartridge;
+        this.file = Objects.requireNonNull(file);
+        this.image = cartridge.readWholeRam();
+        cartridge.copyDirtyRam(image);
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "battery saver " + file.getFileName());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the ram to the save file on the calling thread, if it was written since the last flush.
+     * Write errors are reported on the error output, the next flush retrying the write
+     */
+    public synchronized void flush() {
+        boolean written = cartridge.copyDirtyRam(image);
+        if (!written && !failed) {
+            return;
+        }
+
+        try {
+            write();
+            failed = false;
+        } catch (IOException e) {
+            System.err.println("Error happened during save : " + e);
+            failed = true;
+        }
+    }
+
+    /**
+     * Stops the periodic flushes, waiting for the current one to finish, then flushes the ram
+     * a last time on the calling thread
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void write() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), TEMP_SUFFIX);
+
+        try {
+            // The temporary file is created readable by its owner only
+            if (Files.exists(file)
+                    && Files.getFileAttributeView(file, PosixFileAttributeView.class) != null) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+            }
+
+            try (FileChannel channel = FileChannel.open(temp, WRITE, TRUNCATE_EXISTING)) {
+                ByteBuffer data = ByteBuffer.wrap(image);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
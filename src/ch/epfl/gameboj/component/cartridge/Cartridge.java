@@ -1,16 +1,19 @@
 package ch.epfl.gameboj.component.cartridge;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Arrays;
 
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
+import ch.epfl.gameboj.component.memory.RomCache;
 
 /**
  * Represents a cartridge that can be inserted in the gameboy
@@ -18,7 +21,7 @@ import ch.epfl.gameboj.component.memory.Rom;
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
-public final class Cartridge implements Component {
+public final class Cartridge implements Component, Stateful {
     
     private final MBC memoryBank;
     public static final int MB_TYPE_ADDRESS = 0x147;
@@ -33,28 +36,57 @@ public final class Cartridge implements Component {
     }
     
     /**
-     * Creates a new cartridge from a rom file
+     * Creates a new cartridge from a rom file. The file is read once and its rom
+     * is shared by all the cartridges of the file, see RomCache
      * @param romFile : the path to the file
-     * @throws IOException if size of read bytes is not the size of the bytes
-     * @throws IllegalArgumentException if MB_TYPE_ADDRESS is not 0 (not an MBC0 rom file)
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the type of the memory bank is not supported
      * @throws IllegalArgumentException if the number of bytes is not MBC0.ROM_SIZE
      * @return a cartridge with the data of the rom file
      */
     public static Cartridge ofFile(File romFile) throws IOException {
-                
-        byte[] data = readFile(romFile);
+        return ofRom(RomCache.of(romFile.toPath()));
+    }
+    
+    /**
+     * Creates a new cartridge from a rom file, whose ram is stored directly in a save file
+     * mapped in memory : every write of the game goes to the file, without any explicit save.
+     * The save file is created if it doesn't exist, and not used if the cartridge has no ram
+     * @param romFile : the path to the rom file
+     * @param saveFile : the path to the save file
+     * @throws IOException if a file can't be read, or the save file can't be mapped
+     * @throws IllegalArgumentException if the type of the memory bank is not supported
+     * @return a cartridge with the data of the rom file and the ram of the save file
+     */
+    public static Cartridge ofFile(File romFile, File saveFile) throws IOException {
+        Rom rom = RomCache.of(romFile.toPath());
         
-        Rom rom = new Rom(data);
+        if (!isType1(rom) || !hasRam(rom)) {
+            return ofRom(rom);
+        }
+        Ram ram = Ram.ofFile(saveFile.toPath(), RAM_SIZES[rom.read(RAM_SIZE_ADDRESS)]);
+        return new Cartridge(new MBC1(rom, ram));
+    }
+    
+    /**
+     * Creates a new cartridge from the contents of a rom. Since a rom can't be modified,
+     * it can be shared by several cartridges
+     * @param rom : the rom, non null
+     * @throws NullPointerException if rom is null
+     * @throws IllegalArgumentException if the type of the memory bank is not supported
+     * @return a cartridge with the data of the rom
+     */
+    public static Cartridge ofRom(Rom rom) {
+        int type = rom.read(MB_TYPE_ADDRESS);
         
-        if(data[MB_TYPE_ADDRESS] == MB_TYPE_0) {
+        if(type == MB_TYPE_0) {
             return new Cartridge(new MBC0(rom));
-        } else if (isType1(data)) {
-            int ramSize = RAM_SIZES[data[RAM_SIZE_ADDRESS]];
+        } else if (isType1(rom)) {
+            int ramSize = RAM_SIZES[rom.read(RAM_SIZE_ADDRESS)];
             return new Cartridge(new MBC1(rom, ramSize));
         } else {
-            throw new IllegalArgumentException("Cartridge type is not supported : type " + data[MB_TYPE_ADDRESS]);
+            throw new IllegalArgumentException("Cartridge type is not supported : type " + type);
         }
-        
     }
     
     /**
@@ -80,6 +112,46 @@ public final class Cartridge implements Component {
         MBC1 mbc1 = (MBC1) memoryBank;
         writeFile(save, mbc1.readWholeRam());
     }
+    
+    /**
+     * Writes the ram to the storage device if it is stored in a save file (see ofFile(File, File)),
+     * does nothing otherwise
+     */
+    public void flush() {
+        if (canBeSaved()) {
+            ((MBC1) memoryBank).forceRam();
+        }
+    }
+    
+    /**
+     * @return a copy of the contents of the ram
+     * @throws IllegalArgumentException if the cartridge can't be saved
+     */
+    byte[] readWholeRam() {
+        Preconditions.checkArgument(canBeSaved());
+        
+        return ((MBC1) memoryBank).readWholeRam();
+    }
+    
+    /**
+     * Copies the pages of the ram written since the last call into an image of the whole ram
+     * @param image : the image of the ram, of the size of the ram
+     * @throws IllegalArgumentException if the cartridge can't be saved or image has not the size of the ram
+     * @return whether a page was copied
+     */
+    boolean copyDirtyRam(byte[] image) {
+        Preconditions.checkArgument(canBeSaved());
+        
+        return ((MBC1) memoryBank).copyDirtyRam(image);
+    }
+
+    /**
+     * @param half : 0 for the first half of the rom area, 1 for the second one
+     * @return the index of the rom bank mapped in the given half of the rom area
+     */
+    public int romBank(int half) {
+        return memoryBank.romBank(half);
+    }
 
     /**
      * Reads at given address
@@ -108,6 +180,23 @@ public final class Cartridge implements Component {
         memoryBank.write(address, data);
     }
     
+    /**
+     * Saves the state of the memory bank : its registers and its ram, if any
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        memoryBank.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        memoryBank.loadState(buffer);
+    }
+
     /**
      * Determines if the cartridge created with this file can be saved
      * @param rom : file of cartridge's rom
@@ -115,7 +204,7 @@ public final class Cartridge implements Component {
      * @throws IOException if an error happened during file reading
      */
     public static boolean fileCanBeSaved(File rom) throws IOException {
-        byte[] data = readFile(rom);
+        Rom data = RomCache.of(rom.toPath());
         
         return isType1(data) && hasRam(data);
     }
@@ -128,26 +217,16 @@ public final class Cartridge implements Component {
         return memoryBank.ramSize() != 0;
     }
     
-    private static boolean isType1(byte[] data) {
-        return Arrays.binarySearch(MB_TYPE_1, data[MB_TYPE_ADDRESS]) >= 0;
+    private static boolean isType1(Rom data) {
+        return Arrays.binarySearch(MB_TYPE_1, data.read(MB_TYPE_ADDRESS)) >= 0;
     }
     
-    private static boolean hasRam(byte[] data) {
-        return RAM_SIZES[data[RAM_SIZE_ADDRESS]] != 0;
+    private static boolean hasRam(Rom data) {
+        return RAM_SIZES[data.read(RAM_SIZE_ADDRESS)] != 0;
     }
     
     private static byte[] readFile(File file) throws IOException {
-        try(InputStream stream = new FileInputStream(file)) {
-            byte[] data = new byte[(int) file.length()];
-            
-            int streamSize = stream.read(data);
-            
-            if (streamSize != data.length) {
-                throw new IOException();
-            }
-            
-            return data;
-        }
+        return Files.readAllBytes(file.toPath());
     }
     
     private static void writeFile(File file, byte[] data) throws IOException {
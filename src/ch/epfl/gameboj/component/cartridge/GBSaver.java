@@ -3,60 +3,108 @@ package ch.epfl.gameboj.component.cartridge;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Manages the save files for saveable cartridges
  * 
+ * While a game runs, its ram is written to its save file in the background, at most once
+ * every SAVE_INTERVAL_MILLIS (see BatterySaver), so that a crash loses little progress.
+ * Alternatively, the ram can be stored directly in the save file mapped in memory, the
+ * operating system then writing it, and a save only forcing the write to the device.
+ * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
 public final class GBSaver {
     
-    private Cartridge cartridge;
-    private Optional<File> save;
+    /**
+     * The minimal time between two writes of the save file, in milliseconds
+     */
+    public static final long SAVE_INTERVAL_MILLIS = 5000;
+    
+    private final boolean mapped;
+    private Optional<BatterySaver> saver;
+    private Optional<Cartridge> mappedCartridge;
     
     /**
-     * Creates a new GBSaver, initially with an empty save file
+     * Creates a new GBSaver, initially with an empty save file, saving in the background
      */
     public GBSaver() {
-        save = Optional.empty();
+        this(false);
     }
     
     /**
-     * Saves the current state of the cartridge ram to file
+     * Creates a new GBSaver, initially with an empty save file
+     * @param mapped : whether the ram of the cartridges created by load(File, Optional) is stored
+     * in the save file mapped in memory, instead of being saved in the background
+     */
+    public GBSaver(boolean mapped) {
+        this.mapped = mapped;
+        saver = Optional.empty();
+        mappedCartridge = Optional.empty();
+    }
+    
+    /**
+     * Saves the current state of the cartridge ram to file, if it changed since the last save
      */
     public void save() {
-        try {
-            if(save.isPresent()) {
-                cartridge.save(save.get());                
-            }
-        } catch (IOException e) {
-            System.err.println("Error happened during save");
-            e.printStackTrace();
+        saver.ifPresent(BatterySaver::flush);
+        mappedCartridge.ifPresent(Cartridge::flush);
+    }
+    
+    /**
+     * Creates the cartridge of a rom file and loads its save, see load(Cartridge, Optional).
+     * The previous cartridge is saved a last time
+     * @param rom : the rom file
+     * @param save : optional save, if empty, the ram of the cartridge is not saved
+     * @throws IOException if a file can't be read, or the save file can't be mapped
+     * @return the cartridge
+     */
+    public Cartridge load(File rom, Optional<File> save) throws IOException {
+        if (mapped && save.isPresent()) {
+            close();
+            Cartridge cartridge = Cartridge.ofFile(rom, save.get());
+            mappedCartridge = Optional.of(cartridge);
+            return cartridge;
+        } else {
+            Cartridge cartridge = Cartridge.ofFile(rom);
+            load(cartridge, save);
+            return cartridge;
         }
     }
     
     /**
-     * Loads save onto cartridge. If empty optional or file not found, does nothing.
+     * Loads save onto cartridge, and starts saving it periodically. The previous cartridge
+     * is saved a last time. If empty optional, does nothing, if file not found, only starts saving.
      * Crashes if IOException occurs
      * @param cartridge : the gameboy cartridge
      * @param save : optional save, if empty, does nothing
      */
     public void load(Cartridge cartridge, Optional<File> save) {
-        this.cartridge = Objects.requireNonNull(cartridge);
-        this.save = save;
+        Objects.requireNonNull(cartridge);
+        
+        close();
             
         if (save.isPresent()) {
             try {
                 cartridge.load(save.get());
-            } catch (FileNotFoundException e) {
-                return;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // Nothing saved yet : the file is created by the first save
             } catch (IOException e) {
                 System.err.println("Error during loading of save");
                 System.exit(1);
             }
+            saver = Optional.of(new BatterySaver(cartridge, save.get().toPath(), SAVE_INTERVAL_MILLIS));
         }
     }
+    
+    private void close() {
+        saver.ifPresent(BatterySaver::close);
+        mappedCartridge.ifPresent(Cartridge::flush);
+        saver = Optional.empty();
+        mappedCartridge = Optional.empty();
+    }
 }
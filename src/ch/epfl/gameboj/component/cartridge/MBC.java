@@ -1,5 +1,6 @@
 package ch.epfl.gameboj.component.cartridge;
 
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
 
 /**
@@ -8,7 +9,7 @@ import ch.epfl.gameboj.component.Component;
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
-public abstract class MBC implements Component {
+public abstract class MBC implements Component, Stateful {
     
     private final int ramSize;
     
@@ -39,4 +40,12 @@ public abstract class MBC implements Component {
     public int ramSize() {
         return ramSize;
     }
+    
+    /**
+     * @param half : 0 for the first half of the rom area, 1 for the second one
+     * @return the index of the rom bank mapped in the given half of the rom area
+     */
+    public int romBank(int half) {
+        return half;
+    }
 }
@@ -1,5 +1,6 @@
 package ch.epfl.gameboj.component.cartridge;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.Preconditions;
@@ -59,4 +60,18 @@ public final class MBC0 extends MBC {
         // Does nothing, ROM can't be written to
     }
 
+    /**
+     * Does nothing, a memory bank of type 0 has no state
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+    }
+
+    /**
+     * Does nothing, a memory bank of type 0 has no state
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+    }
+
 }
@@ -3,6 +3,9 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.memory.Ram;
@@ -10,6 +13,7 @@ import ch.epfl.gameboj.component.memory.Rom;
 
 public final class MBC1 extends MBC {
     private static final int RAM_ENABLE = 0xA;
+    private static final int DIRTY_PAGE_BITS = 8;
 
     private enum Mode { MODE_0, MODE_1 };
 
@@ -20,6 +24,9 @@ public final class MBC1 extends MBC {
     private Mode mode;
     private int romLsb5, ramRom2;
     private final int romMask, ramMask;
+    
+    // One bit per page of the ram written since the last copy, also locking the ram against copies
+    private final long[] dirtyPages;
 
     /**
      * 
@@ -27,9 +34,19 @@ public final class MBC1 extends MBC {
      * @param ramSize
      */
     public MBC1(Rom rom, int ramSize) {
-        super(ramSize);
+        this(rom, new Ram(ramSize));
+    }
+
+    /**
+     * Creates a memory bank using a given ram, for example one stored in the save file
+     * @param rom : the rom of the cartridge
+     * @param ram : the ram of the cartridge, whose size is a power of two or 0
+     */
+    public MBC1(Rom rom, Ram ram) {
+        super(ram.size());
         this.rom = rom;
-        this.ram = new Ram(ramSize);
+        this.ram = ram;
+        int ramSize = ram.size();
 
         this.ramEnabled = false;
         this.mode = Mode.MODE_0;
@@ -38,6 +55,9 @@ public final class MBC1 extends MBC {
 
         this.romMask = rom.size() - 1;
         this.ramMask = ramSize - 1;        
+        
+        int pages = (ramSize + (1 << DIRTY_PAGE_BITS) - 1) >>> DIRTY_PAGE_BITS;
+        this.dirtyPages = new long[(pages + Long.SIZE - 1) / Long.SIZE];
     }
     
     /* (non-Javadoc)
@@ -77,8 +97,13 @@ public final class MBC1 extends MBC {
             mode = Bits.test(data, 0) ? Mode.MODE_1 : Mode.MODE_0;
             break;
         case 5:
-            if (ramEnabled)
-                ram.write(ramAddress(address), data);
+            if (ramEnabled) {
+                int ramAddress = ramAddress(address);
+                synchronized (dirtyPages) {
+                    ram.write(ramAddress, data);
+                    markDirty(ramAddress >>> DIRTY_PAGE_BITS);
+                }
+            }
             break;
         }
     }
@@ -89,25 +114,115 @@ public final class MBC1 extends MBC {
     public byte[] readWholeRam() {
         byte[] ramData = new byte[ram.size()];
         
-        for (int i = 0; i < ram.size(); i++) {
-            ramData[i] = (byte) ram.read(i);
+        synchronized (dirtyPages) {
+            ram.copyTo(0, ramData, 0, ramData.length);
         }
         
         return ramData;
     }
     
     /**
-     * Writes given byte array to whole ram
+     * Writes given byte array to whole ram. The written pages are not marked as dirty,
+     * the array being supposed to come from the save file
      * @param data
      * @throws IllegalArgumentException if array size is strictly larger than ram size
      */
     public void writeWholeRam(byte[] data) {
         Preconditions.checkArgument(data.length <= ram.size());
         
-        for (int i = 0; i < data.length; i++) {
-            ram.write(i, Byte.toUnsignedInt(data[i]));
+        synchronized (dirtyPages) {
+            ram.copyFrom(data, 0, 0, data.length);
         }
     }
+    
+    /**
+     * Writes the ram to its save file, if it is stored in one, see Ram#force()
+     */
+    public void forceRam() {
+        ram.force();
+    }
+    
+    /**
+     * Copies the pages of the ram written since the last call into an image of the whole ram,
+     * then marks them as clean. Can be called from any thread
+     * @param image : the image of the ram, of the size of the ram
+     * @throws IllegalArgumentException if image does not have the size of the ram
+     * @return whether a page was copied
+     */
+    public boolean copyDirtyRam(byte[] image) {
+        Preconditions.checkArgument(image.length == ram.size());
+        
+        boolean copied = false;
+        synchronized (dirtyPages) {
+            for (int i = 0; i < dirtyPages.length; i++) {
+                long dirty = dirtyPages[i];
+                dirtyPages[i] = 0;
+                
+                while (dirty != 0) {
+                    int page = i * Long.SIZE + Long.numberOfTrailingZeros(dirty);
+                    int start = page << DIRTY_PAGE_BITS;
+                    ram.copyTo(start, image, start, Math.min(1 << DIRTY_PAGE_BITS, image.length - start));
+                    dirty &= dirty - 1;
+                    copied = true;
+                }
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Saves the bank registers, then the contents of the ram
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (ramEnabled ? 1 : 0))
+            .put((byte) mode.ordinal())
+            .put((byte) romLsb5)
+            .put((byte) ramRom2);
+        ram.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        ramEnabled = buffer.get() != 0;
+        mode = Mode.values()[buffer.get()];
+        romLsb5 = buffer.get();
+        ramRom2 = buffer.get();
+        if (buffer.remaining() < ram.size()) {
+            throw new BufferUnderflowException();
+        }
+        
+        // Only the pages whose bytes change are marked dirty, so that loading a state does not
+        // force the whole ram to be saved again
+        int position = buffer.position();
+        synchronized (dirtyPages) {
+            for (int page = 0; page << DIRTY_PAGE_BITS < ram.size(); page++) {
+                int start = page << DIRTY_PAGE_BITS;
+                int length = Math.min(1 << DIRTY_PAGE_BITS, ram.size() - start);
+                if (ram.copyFromIfDifferent(buffer, position + start, start, length)) {
+                    markDirty(page);
+                }
+            }
+        }
+        buffer.position(position + ram.size());
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.cartridge.MBC#romBank(int)
+     */
+    @Override
+    public int romBank(int half) {
+        int address = half == 0 ? romAddress(msb2(), 0, 0) : romAddress(ramRom2, romLsb5, 0);
+        return address >>> 14;
+    }
+    
+    private void markDirty(int page) {
+        dirtyPages[page / Long.SIZE] |= 1L << page;
+    }
 
     private int msb2() {
         switch (mode) {
@@ -0,0 +1,516 @@
+package ch.epfl.gameboj.component.cpu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.epfl.gameboj.bits.Bits;
+
+/**
+ * Writes the class files of the blocks compiled by the recompiler
+ *
+ * The class of a block implements Recompiler.Block, and is a nestmate of Cpu. Its run method
+ * compiles the hottest instructions to bytecode working directly on the registers of the cpu and
+ * its alu and memory methods : the loads between registers, constants and (HL), the 8-bit
+ * operations of the alu with a register, a constant or (HL), the increments and decrements of
+ * registers, and the direct jumps, whose condition is tested and target computed in the block.
+ * The other instructions call Cpu.execute, with their opcode and operand as constants, but the
+ * last one, run by Cpu.endBlock.
+ * A block is left through Cpu.leaveBlock, which updates the program counter, the cycles and the
+ * number of instructions of the instructions run. Every instruction is preceded by checks that it
+ * starts before the event horizon and, if it accesses the memory, that its accesses are safe, the
+ * block being left before the instruction otherwise.
+ *
+ * The class files have version 49, whose methods don't need stack map frames.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+final class BlockClassWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int IALOAD = 0x2E;
+    private static final int ASTORE_2 = 0x4D;
+    private static final int IASTORE = 0x4F;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9A;
+    private static final int RETURN = 0xB1;
+    private static final int GETSTATIC = 0xB2;
+    private static final int GETFIELD = 0xB4;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    private static final int MAX_STACK = 6;
+    private static final int MAX_LOCALS = 3;
+    private static final int BRANCH_LENGTH = 3;
+
+    private static final String CPU = internalName(Cpu.class);
+    private static final String OPCODE = internalName(Opcode.class);
+    private static final String OPCODE_DESCRIPTOR = "L" + OPCODE + ";";
+    private static final String CLASS_NAME = CPU.substring(0, CPU.lastIndexOf('/') + 1) + "CompiledBlock";
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolSize = 1;
+
+    private BlockClassWriter() {}
+
+    /**
+     * Writes the class file of a block
+     * @param opcodes : the opcodes of the instructions of the block
+     * @param operands : their operands
+     * @param addresses : their addresses
+     * @param length : the number of instructions of the block, strictly positive
+     * @return the class file
+     */
+    static byte[] write(Opcode[] opcodes, int[] operands, int[] addresses, int length) {
+        try {
+            return new BlockClassWriter().classFile(opcodes, operands, addresses, length);
+        } catch (IOException e) {
+            // Writing to an array never fails
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] classFile(Opcode[] opcodes, int[] operands, int[] addresses, int length) throws IOException {
+        int thisClass = classConstant(CLASS_NAME);
+        int superClass = classConstant(internalName(Object.class));
+        int blockInterface = classConstant(internalName(Recompiler.Block.class));
+        byte[] constructor = method(ACC_PUBLIC, "<init>", "()V", constructorCode());
+        byte[] run = method(ACC_PUBLIC, "run", "(L" + CPU + ";)V", runCode(opcodes, operands, addresses, length));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(MAJOR_VERSION);
+        out.writeShort(poolSize);
+        poolBytes.writeTo(out);
+        out.writeShort(ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(blockInterface);
+        out.writeShort(0);
+        out.writeShort(2);
+        out.write(constructor);
+        out.write(run);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private byte[] constructorCode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        code.writeByte(ALOAD_0);
+        invoke(code, INVOKESPECIAL, internalName(Object.class), "<init>", "()V");
+        code.writeByte(RETURN);
+        return bytes.toByteArray();
+    }
+
+    private byte[] runCode(Opcode[] opcodes, int[] operands, int[] addresses, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+
+        // The registers are kept in local 2
+        code.writeByte(ALOAD_1);
+        code.writeByte(GETFIELD);
+        code.writeShort(memberConstant(CONSTANT_FIELDREF, CPU, "regs", "[I"));
+        code.writeByte(ASTORE_2);
+
+        int cycles = 0;
+        for (int i = 0; i < length; ++i) {
+            // The first instruction starts at the current cycle, before the horizon
+            if (i > 0) {
+                code.writeByte(ALOAD_1);
+                pushInt(code, cycles);
+                invoke(code, INVOKEVIRTUAL, CPU, "startsBeforeHorizon", "(I)Z");
+                exitUnless(code, addresses[i], cycles, i);
+            }
+            if (Cpu.accessesMemory(opcodes[i])) {
+                code.writeByte(ALOAD_1);
+                String hlCheck = hlAccessCheck(opcodes[i]);
+                if (hlCheck != null) {
+                    invoke(code, INVOKEVIRTUAL, CPU, hlCheck, "()Z");
+                } else {
+                    pushOpcode(code, opcodes[i]);
+                    pushInt(code, operands[i]);
+                    invoke(code, INVOKEVIRTUAL, CPU, "accessIsSafe", "(" + OPCODE_DESCRIPTOR + "I)Z");
+                }
+                exitUnless(code, addresses[i], cycles, i);
+            }
+
+            Opcode opcode = opcodes[i];
+            int next = addresses[i] + opcode.totalBytes;
+            boolean last = i == length - 1;
+            if (inline(code, opcode, operands[i])) {
+                if (last) {
+                    exit(code, next, cycles + opcode.cycles, i + 1);
+                }
+            } else if (last && isDirectJump(opcode)) {
+                jump(code, opcode, operands[i], next, cycles, i);
+            } else {
+                code.writeByte(ALOAD_1);
+                pushOpcode(code, opcode);
+                pushInt(code, operands[i]);
+                if (!last) {
+                    invoke(code, INVOKEVIRTUAL, CPU, "execute", "(" + OPCODE_DESCRIPTOR + "I)V");
+                } else {
+                    pushInt(code, addresses[i]);
+                    pushInt(code, cycles);
+                    pushInt(code, i);
+                    invoke(code, INVOKEVIRTUAL, CPU, "endBlock", "(" + OPCODE_DESCRIPTOR + "IIII)V");
+                    code.writeByte(RETURN);
+                }
+            }
+            cycles += opcode.cycles;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the code of an instruction, if it is one of those compiled to bytecode
+     * @return whether the code was written, nothing being written otherwise
+     */
+    private boolean inline(DataOutputStream code, Opcode opcode, int operand) throws IOException {
+        switch (opcode.family) {
+            case NOP:
+                return true;
+
+            case LD_R8_R8:
+                code.writeByte(ALOAD_2);
+                pushInt(code, Cpu.highRegIndex(opcode));
+                pushReg(code, Cpu.lowRegIndex(opcode));
+                code.writeByte(IASTORE);
+                return true;
+            case LD_R8_N8:
+                code.writeByte(ALOAD_2);
+                pushInt(code, Cpu.highRegIndex(opcode));
+                pushInt(code, operand);
+                code.writeByte(IASTORE);
+                return true;
+            case LD_R8_HLR:
+                code.writeByte(ALOAD_2);
+                pushInt(code, Cpu.highRegIndex(opcode));
+                pushReadAtHl(code);
+                code.writeByte(IASTORE);
+                return true;
+            case LD_HLR_R8:
+                code.writeByte(ALOAD_1);
+                pushReg(code, Cpu.lowRegIndex(opcode));
+                invoke(code, INVOKEVIRTUAL, CPU, "write8AtHl", "(I)V");
+                return true;
+            case LD_HLR_N8:
+                code.writeByte(ALOAD_1);
+                pushInt(code, operand);
+                invoke(code, INVOKEVIRTUAL, CPU, "write8AtHl", "(I)V");
+                return true;
+
+            case INC_R8: case DEC_R8:
+                code.writeByte(ALOAD_2);
+                pushInt(code, Cpu.highRegIndex(opcode));
+                code.writeByte(ALOAD_1);
+                pushReg(code, Cpu.highRegIndex(opcode));
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(I)I");
+                code.writeByte(IASTORE);
+                return true;
+
+            case ADD_A_R8: case SUB_A_R8:
+                code.writeByte(ALOAD_1);
+                pushReg(code, Cpu.lowRegIndex(opcode));
+                pushInitialCarry(code, opcode);
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(IZ)V");
+                return true;
+            case ADD_A_N8: case SUB_A_N8:
+                code.writeByte(ALOAD_1);
+                pushInt(code, operand);
+                pushInitialCarry(code, opcode);
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(IZ)V");
+                return true;
+            case ADD_A_HLR: case SUB_A_HLR:
+                code.writeByte(ALOAD_1);
+                pushReadAtHl(code);
+                pushInitialCarry(code, opcode);
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(IZ)V");
+                return true;
+
+            case AND_A_R8: case OR_A_R8: case XOR_A_R8: case CP_A_R8:
+                code.writeByte(ALOAD_1);
+                pushReg(code, Cpu.lowRegIndex(opcode));
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(I)V");
+                return true;
+            case AND_A_N8: case OR_A_N8: case XOR_A_N8: case CP_A_N8:
+                code.writeByte(ALOAD_1);
+                pushInt(code, operand);
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(I)V");
+                return true;
+            case AND_A_HLR: case OR_A_HLR: case XOR_A_HLR: case CP_A_HLR:
+                code.writeByte(ALOAD_1);
+                pushReadAtHl(code);
+                invoke(code, INVOKEVIRTUAL, CPU, aluMethod(opcode.family), "(I)V");
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the method of the cpu applying the 8-bit operation of the alu of the given family
+     */
+    private static String aluMethod(Opcode.Family family) {
+        switch (family) {
+            case INC_R8: return "increment";
+            case DEC_R8: return "decrement";
+            case ADD_A_R8: case ADD_A_N8: case ADD_A_HLR: return "addToA";
+            case SUB_A_R8: case SUB_A_N8: case SUB_A_HLR: return "subtractFromA";
+            case AND_A_R8: case AND_A_N8: case AND_A_HLR: return "andWithA";
+            case OR_A_R8: case OR_A_N8: case OR_A_HLR: return "orWithA";
+            case XOR_A_R8: case XOR_A_N8: case XOR_A_HLR: return "xorWithA";
+            case CP_A_R8: case CP_A_N8: case CP_A_HLR: return "compareWithA";
+
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * @return the method of the cpu checking the access of an instruction to (HL), as
+     * Cpu.accessIsSafe does, null if the instruction accesses another address
+     */
+    private static String hlAccessCheck(Opcode opcode) {
+        switch (opcode.family) {
+            case LD_R8_HLR: case LD_A_HLRU: case ADD_A_HLR: case SUB_A_HLR: case CP_A_HLR:
+            case AND_A_HLR: case OR_A_HLR: case XOR_A_HLR: case BIT_U3_HLR:
+                return "readAtHlIsSafe";
+            case LD_HLR_R8: case LD_HLRU_A: case LD_HLR_N8: case INC_HLR: case DEC_HLR:
+            case ROTC_HLR: case ROT_HLR: case SWAP_HLR: case SLA_HLR: case SRA_HLR: case SRL_HLR:
+            case CHG_U3_HLR:
+                return "writeAtHlIsSafe";
+
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isDirectJump(Opcode opcode) {
+        switch (opcode.family) {
+            case JP_N16: case JP_CC_N16: case JR_E8: case JR_CC_E8:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes the code of a direct jump ending the block, leaving the block at its target or, if
+     * its condition doesn't hold, at the following instruction
+     * @param next : the address of the following instruction
+     * @param cycles : the cycles of the instructions of the block run before it
+     * @param instructions : the number of instructions of the block run before it
+     */
+    private void jump(DataOutputStream code, Opcode opcode, int operand, int next, int cycles, int instructions)
+            throws IOException {
+        boolean relative = opcode.family == Opcode.Family.JR_E8 || opcode.family == Opcode.Family.JR_CC_E8;
+        int target = relative ? Bits.clip(16, next + Bits.signExtend8(operand)) : operand;
+
+        if (opcode.family == Opcode.Family.JP_CC_N16 || opcode.family == Opcode.Family.JR_CC_E8) {
+            code.writeByte(ALOAD_1);
+            invoke(code, INVOKEVIRTUAL, CPU, Cpu.testsZero(opcode) ? "zero" : "carry", "()Z");
+            exitUnless(code, Cpu.testsNotSet(opcode) ? IFNE : IFEQ, target,
+                    cycles + opcode.cycles + opcode.additionalCycles, instructions + 1);
+            exit(code, next, cycles + opcode.cycles, instructions + 1);
+        } else {
+            exit(code, target, cycles + opcode.cycles, instructions + 1);
+        }
+    }
+
+    private void pushReg(DataOutputStream code, int index) throws IOException {
+        code.writeByte(ALOAD_2);
+        pushInt(code, index);
+        code.writeByte(IALOAD);
+    }
+
+    private void pushReadAtHl(DataOutputStream code) throws IOException {
+        code.writeByte(ALOAD_1);
+        invoke(code, INVOKEVIRTUAL, CPU, "read8AtHl", "()I");
+    }
+
+    private void pushInitialCarry(DataOutputStream code, Opcode opcode) throws IOException {
+        // The instructions with carry (ADC, SBC) have their bit 3 set
+        if (Bits.test(opcode.encoding, 3)) {
+            code.writeByte(ALOAD_1);
+            invoke(code, INVOKEVIRTUAL, CPU, "carry", "()Z");
+        } else {
+            pushInt(code, 0);
+        }
+    }
+
+    /**
+     * Writes the code leaving the block before an instruction if the boolean on the stack is false
+     */
+    private void exitUnless(DataOutputStream code, int address, int cycles, int instructions) throws IOException {
+        exitUnless(code, IFNE, address, cycles, instructions);
+    }
+
+    /**
+     * Writes the code leaving the block unless the given branch, testing the value on the stack, is taken
+     */
+    private void exitUnless(DataOutputStream code, int branch, int address, int cycles, int instructions)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        exit(new DataOutputStream(bytes), address, cycles, instructions);
+
+        code.writeByte(branch);
+        code.writeShort(BRANCH_LENGTH + bytes.size());
+        bytes.writeTo(code);
+    }
+
+    /**
+     * Writes the code leaving the block at given address
+     */
+    private void exit(DataOutputStream code, int address, int cycles, int instructions) throws IOException {
+        code.writeByte(ALOAD_1);
+        pushInt(code, address);
+        pushInt(code, cycles);
+        pushInt(code, instructions);
+        invoke(code, INVOKEVIRTUAL, CPU, "leaveBlock", "(III)V");
+        code.writeByte(RETURN);
+    }
+
+    private byte[] method(int access, String name, String descriptor, byte[] code) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(utf8Constant(name));
+        out.writeShort(utf8Constant(descriptor));
+        out.writeShort(1);
+
+        // Code attribute, without exception table nor attributes
+        out.writeShort(utf8Constant("Code"));
+        out.writeInt(12 + code.length);
+        out.writeShort(MAX_STACK);
+        out.writeShort(MAX_LOCALS);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private void pushInt(DataOutputStream code, int value) throws IOException {
+        if (0 <= value && value <= 5) {
+            code.writeByte(ICONST_0 + value);
+        } else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+            code.writeByte(BIPUSH);
+            code.writeByte(value);
+        } else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+            code.writeByte(SIPUSH);
+            code.writeShort(value);
+        } else {
+            code.writeByte(LDC_W);
+            code.writeShort(integerConstant(value));
+        }
+    }
+
+    private void pushOpcode(DataOutputStream code, Opcode opcode) throws IOException {
+        code.writeByte(GETSTATIC);
+        code.writeShort(memberConstant(CONSTANT_FIELDREF, OPCODE, opcode.name(), OPCODE_DESCRIPTOR));
+    }
+
+    private void invoke(DataOutputStream code, int instruction, String owner, String name, String descriptor)
+            throws IOException {
+        code.writeByte(instruction);
+        code.writeShort(memberConstant(CONSTANT_METHODREF, owner, name, descriptor));
+    }
+
+
+    /* Constant pool */
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = poolIndices.get("U" + value);
+        if (index == null) {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+            index = addConstant("U" + value);
+        }
+        return index;
+    }
+
+    private int integerConstant(int value) throws IOException {
+        Integer index = poolIndices.get("I" + value);
+        if (index == null) {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+            index = addConstant("I" + value);
+        }
+        return index;
+    }
+
+    private int classConstant(String name) throws IOException {
+        Integer index = poolIndices.get("C" + name);
+        if (index == null) {
+            int nameIndex = utf8Constant(name);
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(nameIndex);
+            index = addConstant("C" + name);
+        }
+        return index;
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) throws IOException {
+        String key = "M" + tag + owner + "." + name + descriptor;
+        Integer index = poolIndices.get(key);
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+
+            pool.writeByte(CONSTANT_NAME_AND_TYPE);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+            int nameAndType = addConstant("N" + name + descriptor + "#" + poolSize);
+
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+            index = addConstant(key);
+        }
+        return index;
+    }
+
+    private int addConstant(String key) {
+        int index = poolSize++;
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+}
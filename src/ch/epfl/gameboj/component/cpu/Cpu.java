@@ -1,13 +1,14 @@
 package ch.epfl.gameboj.component.cpu;
 
-
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
-import ch.epfl.gameboj.Register;
-import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
@@ -20,35 +21,92 @@ import ch.epfl.gameboj.component.memory.Ram;
 /**
  * The CPU of the Gameboy
  * 
+ * Decoded instructions are cached by address : their opcode and operand are only read once
+ * from the bus, as long as the memory containing them doesn't change. Only the instructions
+ * fully contained in the rom area, the work ram or the high ram are cached. Those of the rom
+ * area are invalidated by every write to it, which selects the rom banks, and by the disabling
+ * of the boot rom, those of the rams by the writes to their bytes. Apart from the high ram,
+ * the cpu is supposed to be the only component writing to these areas.
+ * 
+ * When recompiling, the code of the rom area is run by blocks compiled to JVM classes (see
+ * Recompiler). A single cycle may then run several blocks, as long as they start before the
+ * event horizon and their instructions don't access the I/O registers or write to the rom area.
+ * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
-public final class Cpu implements Component, Clocked {
+public final class Cpu implements Component, Clocked, Stateful {
     
 	private static final int RAM_HALFPOINT = 0xFF00;
     private static final int INTERRUPT_CYCLE = 5;
+    private static final int NUMBER_OF_OPCODES = 256;
     private static final Opcode[] DIRECT_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.DIRECT); 
     private static final Opcode[] PREFIXED_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.PREFIXED);
     private static final int OPCODE_PREFIX = 0xCB;
+    private static final int ADDRESS_SPACE_SIZE = 0x10000;
+    private static final int MAX_INSTRUCTION_BYTES = 3;
+    private static final int ROM_AREA_END = 0x8000;
+    private static final int ROM_HALF_BITS = 14;
+    private static final int CARRY_BIT = 0x100;
     
     private final Ram highRam = new Ram(AddressMap.HIGH_RAM_SIZE);
     private Bus bus;
     
     private long nextNonIdleCycle = 0;
+    private long executedInstructions = 0;
     
     private int PC = 0;
     private int SP = 0;
 
-    private final RegisterFile<Reg> rf = new RegisterFile<>(Reg.values());
+    // The 8-bit registers, indexed by ordinal. Only the instructions write them, always with 8-bit
+    // values, so they are accessed without any check
+    private final int[] regs = new int[Reg.values().length];
 
     private boolean regIME = false;
     private int regIE = 0;
     private int regIF = 0;
     
-    private static enum Reg implements Register {
+    // The instruction decoded at every address, valid iff its generation is the current one
+    private final Opcode[] decodedOpcodes = new Opcode[ADDRESS_SPACE_SIZE];
+    private final int[] decodedOperands = new int[ADDRESS_SPACE_SIZE];
+    private final int[] decodedGenerations = new int[ADDRESS_SPACE_SIZE];
+    private int generation = 1;
+    
+    // The program counter of the next instruction and its additional cycles, set by the instruction being executed
+    private int nextPC = 0;
+    private int additionalCycles = 0;
+    
+    private Recompiler recompiler = null;
+    private long eventHorizon = 0;
+    // The mappings of the two halves of the rom area, with which its instructions were decoded. Stale
+    // after a load, the components being loaded after the cpu, until they are recomputed
+    private IntUnaryOperator codeMappingFunction = null;
+    private final int[] codeMappings = new int[2];
+    private boolean codeMappingsStale = true;
+    
+    // The flags of the last 8-bit operation of the alu, computed when they are read. Until then, F holds
+    // the flags set before it, and the operation is stored with its operands, its initial carry and its
+    // result, whose bit 8 is the carry it sets (or keeps, for INC and DEC)
+    private boolean lazyFlags = true;
+    private FlagOp flagOp = FlagOp.NONE;
+    private int flagLeft = 0;
+    private int flagRight = 0;
+    private boolean flagCarry = false;
+    private int flagResult = 0;
+    
+    private static enum Reg {
         A, F, B, C, D, E, H, L
     }
     
+    // The registers encoded in every opcode, indexed by ordinal, null if the opcode has none
+    private static final Reg[] LOW_REGS = buildRegTable(0);
+    private static final Reg[] HIGH_REGS = buildRegTable(3);
+    private static final Reg16[] REGS16 = buildReg16Table();
+    
+    // The condition and the bit index encoded in every opcode, indexed by ordinal
+    private static final Condition[] CONDITIONS = buildConditionTable();
+    private static final int[] BIT_INDICES = buildBitIndexTable();
+    
     private static enum Reg16 {
         AF(Reg.A, Reg.F), 
         BC(Reg.B, Reg.C), 
@@ -75,6 +133,10 @@ public final class Cpu implements Component, Clocked {
         V0, V1, ALU, CPU
     }
     
+    private static enum FlagOp {
+        NONE, ADD, SUB, AND, OR, XOR, INC, DEC
+    }
+    
     private static enum Condition {
         NZ(Alu.Flag.Z, true), Z(Alu.Flag.Z, false), NC(Alu.Flag.C, true), C(Alu.Flag.C, false);
         
@@ -91,13 +153,14 @@ public final class Cpu implements Component, Clocked {
     /* Methods for Component interface */
     
     /**
-     * Stores bus as attribute then attaches Cpu to bus 
+     * Stores bus as attribute then attaches Cpu to bus, on high ram and interrupt registers
      * @param bus
      */
     @Override
     public void attachTo(Bus bus) {
         this.bus = bus;
-        Component.super.attachTo(bus);
+        bus.attach(this, AddressMap.HIGH_RAM_START, AddressMap.REG_IE + 1);
+        bus.attach(this, AddressMap.REG_IF, AddressMap.REG_IF + 1);
     }
     
     /**
@@ -134,6 +197,7 @@ public final class Cpu implements Component, Clocked {
         
         if (AddressMap.HIGH_RAM_START <= address && address < AddressMap.HIGH_RAM_END) {
             highRam.write(address - AddressMap.HIGH_RAM_START, data);
+            invalidateDecoded(address);
         } else if (address == AddressMap.REG_IE) {
             regIE = data;
         } else if (address == AddressMap.REG_IF) {
@@ -167,6 +231,21 @@ public final class Cpu implements Component, Clocked {
         }
     }
     
+    /**
+     * Returns the next cycle at which the cpu executes an instruction. When halted, it is the given
+     * cycle if an interrupt is pending, and Long.MAX_VALUE otherwise
+     * @param cycle : the first cycle which has not been run yet
+     * @return the next cycle at which the cpu must be cycled
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return atLeastOneInterrupt() ? cycle : Long.MAX_VALUE;
+        }
+        
+        return nextNonIdleCycle;
+    }
+    
     private void reallyCycle() {
         if (regIME && atLeastOneInterrupt()) {
             regIME = false;
@@ -178,8 +257,390 @@ public final class Cpu implements Component, Clocked {
             push16(PC);
             PC = interruptAddress;
             nextNonIdleCycle += INTERRUPT_CYCLE; 
+        } else if (recompiler != null && PC < ROM_AREA_END) {
+            runCompiled();
         } else {
-            dispatch(read8(PC));
+            interpret();
+        }
+    }
+    
+    private void interpret() {
+        int pc = Preconditions.checkBits16(PC);
+        if (decodedGenerations[pc] != generation) {
+            decode(pc);
+        }
+        dispatch(decodedOpcodes[pc], decodedOperands[pc]);
+    }
+    
+    
+    /* Recompilation */
+    
+    /**
+     * Enables or disables the recompilation of the code of the rom area. The compiled blocks only
+     * run more than one instruction per cycle once an event horizon has been given
+     * @param recompiling : whether the code of the rom area must be recompiled
+     */
+    public void setRecompiling(boolean recompiling) {
+        if (!recompiling) {
+            recompiler = null;
+        } else if (recompiler == null) {
+            recompiler = new Recompiler();
+        }
+    }
+    
+    /**
+     * Recompiles the code of the rom area with the given recompiler
+     * @param recompiler : the recompiler, null to interpret all the code
+     */
+    void setRecompiler(Recompiler recompiler) {
+        this.recompiler = recompiler;
+    }
+    
+    /**
+     * @return whether the code of the rom area is recompiled
+     */
+    public boolean isRecompiling() {
+        return recompiler != null;
+    }
+    
+    /**
+     * Sets the first cycle at which another component may have something to do. Until then, when
+     * recompiling, the cpu runs the instructions of the compiled blocks as soon as it is cycled
+     * instead of at their own cycle, except those accessing the I/O registers or writing to the
+     * rom area. The caller must thus guarantee that no component reads or writes the memory, nor
+     * requests an interrupt, before the given cycle, unless the cpu accesses its registers
+     * @param cycle : the first cycle at which another component may change the state of the gameboy
+     */
+    public void setEventHorizon(long cycle) {
+        eventHorizon = cycle;
+    }
+    
+    /**
+     * Sets the function identifying the contents of the two halves of the rom area, with which the
+     * compiled blocks are reused whenever the same contents are mapped again. It is called after the
+     * writes to the rom area or to the register disabling the boot rom, with 0 for the first half and
+     * 1 for the second one, and must return the same value for a half if and only if it contains the
+     * same bytes. The decoded instructions and compiled blocks are then only dropped by the writes
+     * changing a mapping. Without it, they are dropped after every such write
+     * @param mapping : the function, null to drop the instructions and blocks after every write
+     */
+    public void setCodeMapping(IntUnaryOperator mapping) {
+        codeMappingFunction = mapping;
+        codeMappingsStale = true;
+        if (mapping != null) {
+            updateCodeMappings();
+        }
+        invalidateAllDecoded();
+        if (recompiler != null) {
+            recompiler.clear();
+        }
+    }
+    
+    private int codeMapping(int pc) {
+        if (codeMappingFunction == null) {
+            return generation;
+        }
+        if (codeMappingsStale) {
+            updateCodeMappings();
+        }
+        return codeMappings[pc >>> ROM_HALF_BITS];
+    }
+    
+    /**
+     * Recomputes the mappings of the two halves of the rom area with the mapping function
+     * @return true iff one of them changed, or they were stale
+     */
+    private boolean updateCodeMappings() {
+        boolean changed = codeMappingsStale;
+        codeMappingsStale = false;
+        for (int half = 0; half < codeMappings.length; ++half) {
+            int mapping = codeMappingFunction.applyAsInt(half);
+            changed |= mapping != codeMappings[half];
+            codeMappings[half] = mapping;
+        }
+        return changed;
+    }
+    
+    /**
+     * Runs the block starting at the program counter, or interprets its first instruction if it can't,
+     * then the following blocks as long as they start before the event horizon and no interrupt is pending
+     */
+    private void runCompiled() {
+        if (!runBlock()) {
+            interpret();
+        }
+        
+        while (nextNonIdleCycle < eventHorizon && PC < ROM_AREA_END && !(regIME && atLeastOneInterrupt())) {
+            if (!runBlock()) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * @return whether at least one instruction of the block starting at the program counter was run
+     */
+    private boolean runBlock() {
+        Recompiler.Block block = recompiler.blockAt(this, PC, codeMapping(PC));
+        if (block == null) {
+            return false;
+        }
+        
+        long executed = executedInstructions;
+        block.run(this);
+        return executedInstructions != executed;
+    }
+    
+    /**
+     * Returns the opcode of the instruction at given address, decoding it if needed
+     * @param pc : an address of the rom area
+     * @throws IllegalStateException if the opcode is not valid
+     * @return the opcode
+     */
+    Opcode decodedOpcode(int pc) {
+        if (decodedGenerations[pc] != generation) {
+            decode(pc);
+        }
+        return decodedOpcodes[pc];
+    }
+    
+    /**
+     * @param pc : the address of an instruction of the rom area, decoded by decodedOpcode
+     * @return the operand of the instruction
+     */
+    int decodedOperand(int pc) {
+        return decodedOperands[pc];
+    }
+    
+    /**
+     * @return a lookup with the private access of the cpu, with which the classes of the compiled
+     * blocks are defined as its nestmates, to use its registers and its alu methods directly
+     */
+    static MethodHandles.Lookup lookup() {
+        return MethodHandles.lookup();
+    }
+    
+    /**
+     * @param opcode : an opcode encoding an 8-bit register other than (HL) in its bits 0 to 2
+     * @return the index of the register in regs
+     */
+    static int lowRegIndex(Opcode opcode) {
+        return LOW_REGS[opcode.ordinal()].ordinal();
+    }
+    
+    /**
+     * @param opcode : an opcode encoding an 8-bit register other than (HL) in its bits 3 to 5
+     * @return the index of the register in regs
+     */
+    static int highRegIndex(Opcode opcode) {
+        return HIGH_REGS[opcode.ordinal()].ordinal();
+    }
+    
+    /**
+     * @param opcode : a conditional opcode
+     * @return whether its condition tests the zero flag, rather than the carry flag
+     */
+    static boolean testsZero(Opcode opcode) {
+        return CONDITIONS[opcode.ordinal()].flag == Flag.Z;
+    }
+    
+    /**
+     * @param opcode : a conditional opcode
+     * @return whether its condition holds when its flag is not set
+     */
+    static boolean testsNotSet(Opcode opcode) {
+        return CONDITIONS[opcode.ordinal()].negative;
+    }
+    
+    /**
+     * Called by a compiled block before each of its instructions but the first
+     * @param cycles : the cycles of the instructions of the block run before it
+     * @return whether the instruction starts before the event horizon
+     */
+    boolean startsBeforeHorizon(int cycles) {
+        return nextNonIdleCycle + cycles < eventHorizon;
+    }
+    
+    /**
+     * Called by a compiled block before an instruction which accesses the memory
+     * @param opcode : the opcode of the instruction
+     * @param operand : its operand
+     * @return whether the instruction neither accesses the I/O registers nor writes to the rom area
+     */
+    boolean accessIsSafe(Opcode opcode, int operand) {
+        switch (opcode.family) {
+            case LD_R8_HLR: case LD_A_HLRU: case ADD_A_HLR: case SUB_A_HLR: case CP_A_HLR:
+            case AND_A_HLR: case OR_A_HLR: case XOR_A_HLR: case BIT_U3_HLR:
+                return isSafeRead(reg16(Reg16.HL));
+            case LD_HLR_R8: case LD_HLRU_A: case LD_HLR_N8: case INC_HLR: case DEC_HLR:
+            case ROTC_HLR: case ROT_HLR: case SWAP_HLR: case SLA_HLR: case SRA_HLR: case SRL_HLR: case CHG_U3_HLR:
+                return isSafeWrite(reg16(Reg16.HL));
+            case LD_A_N8R:
+                return isSafeRead(AddressMap.REGS_START + operand);
+            case LD_A_CR:
+                return isSafeRead(AddressMap.REGS_START + reg(Reg.C));
+            case LD_A_N16R:
+                return isSafeRead(operand);
+            case LD_A_BCR:
+                return isSafeRead(reg16(Reg16.BC));
+            case LD_A_DER:
+                return isSafeRead(reg16(Reg16.DE));
+            case LD_N8R_A:
+                return isSafeWrite(RAM_HALFPOINT + operand);
+            case LD_CR_A:
+                return isSafeWrite(RAM_HALFPOINT + reg(Reg.C));
+            case LD_N16R_A:
+                return isSafeWrite(operand);
+            case LD_BCR_A:
+                return isSafeWrite(reg16(Reg16.BC));
+            case LD_DER_A:
+                return isSafeWrite(reg16(Reg16.DE));
+            case LD_N16R_SP:
+                return isSafeWrite(operand) && isSafeWrite(Bits.clip(16, operand + 1));
+            case POP_R16: case RET: case RET_CC: case RETI:
+                return isSafeRead(SP) && isSafeRead(Bits.clip(16, SP + 1));
+            case PUSH_R16: case CALL_N16: case CALL_CC_N16: case RST_U3:
+                return isSafeWrite(Bits.clip(16, SP - 1)) && isSafeWrite(Bits.clip(16, SP - 2));
+            
+            default:
+                return true;
+        }
+    }
+    
+    /**
+     * @param opcode : an opcode
+     * @return whether the instructions with this opcode may read or write the memory, in which
+     * case their accesses must be checked by accessIsSafe
+     */
+    static boolean accessesMemory(Opcode opcode) {
+        switch (opcode.family) {
+            case NOP: case LD_R8_N8: case LD_R16SP_N16: case LD_R8_R8: case LD_SP_HL:
+            case ADD_A_R8: case ADD_A_N8: case INC_R8: case INC_R16SP: case ADD_HL_R16SP: case LD_HLSP_S8:
+            case SUB_A_R8: case SUB_A_N8: case DEC_R8: case CP_A_R8: case CP_A_N8: case DEC_R16SP:
+            case AND_A_N8: case AND_A_R8: case OR_A_N8: case OR_A_R8: case XOR_A_N8: case XOR_A_R8: case CPL:
+            case ROTCA: case ROTA: case ROTC_R8: case ROT_R8: case SWAP_R8: case SLA_R8: case SRA_R8: case SRL_R8:
+            case BIT_U3_R8: case CHG_U3_R8: case DAA: case SCCF:
+            case JP_HL: case JP_N16: case JP_CC_N16: case JR_E8: case JR_CC_E8: case EDI: case HALT: case STOP:
+                return false;
+                
+            default:
+                return true;
+        }
+    }
+    
+    private static boolean isSafeRead(int address) {
+        return address < AddressMap.REGS_START
+                || (AddressMap.HIGH_RAM_START <= address && address < AddressMap.HIGH_RAM_END);
+    }
+    
+    private static boolean isSafeWrite(int address) {
+        return address >= ROM_AREA_END && isSafeRead(address);
+    }
+    
+    /**
+     * Called by a compiled block before an instruction reading at the address in HL, instead of accessIsSafe
+     * @return whether the read is safe
+     */
+    private boolean readAtHlIsSafe() {
+        return isSafeRead(reg16(Reg16.HL));
+    }
+    
+    /**
+     * Called by a compiled block before an instruction writing at the address in HL, instead of accessIsSafe
+     * @return whether the write is safe
+     */
+    private boolean writeAtHlIsSafe() {
+        return isSafeWrite(reg16(Reg16.HL));
+    }
+    
+    /**
+     * Called by a compiled block when an access of one of its instructions is not safe : the
+     * instruction and the following ones are left to the interpreter
+     * @param pc : the address of the instruction
+     * @param cycles : the cycles of the instructions of the block run before it
+     * @param instructions : the number of instructions of the block run before it
+     */
+    void leaveBlock(int pc, int cycles, int instructions) {
+        PC = pc;
+        nextNonIdleCycle += cycles;
+        executedInstructions += instructions;
+    }
+    
+    /**
+     * Called at the end of a compiled block, to run its last instruction
+     * @param opcode : the opcode of the last instruction
+     * @param operand : its operand
+     * @param pc : its address
+     * @param cycles : the cycles of the instructions of the block run before it
+     * @param instructions : the number of instructions of the block run before it
+     */
+    void endBlock(Opcode opcode, int operand, int pc, int cycles, int instructions) {
+        leaveBlock(pc, cycles, instructions);
+        dispatch(opcode, operand);
+    }
+    
+    
+    /* Decode cache */
+    
+    /**
+     * Reads the instruction at given address, and caches it if the memory containing it can be tracked
+     * @param pc : the address of the instruction
+     * @throws IllegalStateException if the opcode is not valid
+     */
+    private void decode(int pc) {
+        int encoding = read8(pc);
+        
+        Opcode opcode;
+        if (encoding == OPCODE_PREFIX) {
+            opcode = searchOpcodeTable(read8(pc + 1), PREFIXED_OPCODE_TABLE);
+        } else {
+            opcode = searchOpcodeTable(encoding, DIRECT_OPCODE_TABLE);
+        }
+        
+        int operand = 0;
+        if (opcode.kind == Kind.DIRECT && opcode.totalBytes == 2) {
+            operand = read8(pc + 1);
+        } else if (opcode.kind == Kind.DIRECT && opcode.totalBytes == 3) {
+            operand = read16(pc + 1);
+        }
+        
+        decodedOpcodes[pc] = opcode;
+        decodedOperands[pc] = operand;
+        decodedGenerations[pc] = isTracked(pc, pc + opcode.totalBytes) ? generation : 0;
+    }
+    
+    /**
+     * @param start : the first address of an instruction
+     * @param end : the address following its last byte
+     * @return whether the writes to all the bytes of the instruction invalidate it
+     */
+    private static boolean isTracked(int start, int end) {
+        return end <= ROM_AREA_END
+                || (AddressMap.WORK_RAM_START <= start && end <= AddressMap.WORK_RAM_END)
+                || (AddressMap.HIGH_RAM_START <= start && end <= AddressMap.HIGH_RAM_END);
+    }
+    
+    /**
+     * Invalidates the decoded instructions which contain the byte at given address
+     * @param address : the address of a written byte, outside of the rom area
+     */
+    private void invalidateDecoded(int address) {
+        if (AddressMap.ECHO_RAM_START <= address && address < AddressMap.ECHO_RAM_END) {
+            address -= AddressMap.ECHO_RAM_START - AddressMap.WORK_RAM_START;
+        }
+        for (int a = address - (MAX_INSTRUCTION_BYTES - 1); a <= address; a++) {
+            decodedGenerations[a] = 0;
+        }
+    }
+    
+    private void invalidateAllDecoded() {
+        generation++;
+        if (generation == 0) {
+            Arrays.fill(decodedGenerations, 0);
+            generation = 1;
+            if (recompiler != null) {
+                recompiler.clear();
+            }
         }
     }
     
@@ -201,12 +662,58 @@ public final class Cpu implements Component, Clocked {
     }
     
     
+    /**
+     * @return the number of instructions executed since the creation of the cpu
+     */
+    public long executedInstructions() {
+        return executedInstructions;
+    }
+    
+    /**
+     * Saves the registers of the cpu, its interrupt registers and its high ram
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        materializeFlags();
+        buffer.putShort((short) PC).putShort((short) SP);
+        for (int r : regs) {
+            buffer.put((byte) r);
+        }
+        buffer.put((byte) (regIME ? 1 : 0)).put((byte) regIE).put((byte) regIF);
+        highRam.saveState(buffer);
+        buffer.putLong(nextNonIdleCycle).putLong(executedInstructions);
+    }
+    
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        PC = Short.toUnsignedInt(buffer.getShort());
+        SP = Short.toUnsignedInt(buffer.getShort());
+        for (int i = 0; i < regs.length; i++) {
+            regs[i] = Byte.toUnsignedInt(buffer.get());
+        }
+        flagOp = FlagOp.NONE;
+        regIME = buffer.get() != 0;
+        regIE = Byte.toUnsignedInt(buffer.get());
+        regIF = Byte.toUnsignedInt(buffer.get());
+        highRam.loadState(buffer);
+        nextNonIdleCycle = buffer.getLong();
+        executedInstructions = buffer.getLong();
+        codeMappingsStale = true;
+        invalidateAllDecoded();
+    }
+    
+    
     /* Test helper */
     
     /**
      * @return an array of all the values stored in the cpu registers
      */
     public int[] _testGetPcSpAFBCDEHL() {
+        materializeFlags();
         int[] registersValues = new int[10];
         
         registersValues[0] = PC;
@@ -214,7 +721,7 @@ public final class Cpu implements Component, Clocked {
         
         int index = 2;
         for (Reg reg : Reg.values()) {
-            registersValues[index] = rf.get(reg);
+            registersValues[index] = reg(reg);
             index++;
         }
         
@@ -244,14 +751,6 @@ public final class Cpu implements Component, Clocked {
         return read8(reg16(Reg16.HL));
     }
     
-    /**
-     * Reads an 8-bit value at the address following the opcode's address 
-     * @return the read value
-     */
-    private int read8AfterOpcode() {
-        return read8(PC + 1);
-    }
-    
     /**
      * Reads a 16-bit value on the bus at specified address
      * @param address : the address to be read, 16 bits
@@ -267,14 +766,6 @@ public final class Cpu implements Component, Clocked {
         return Bits.make16(msb, lsb);
     }
     
-    /**
-     * Reads a 16-bit value at the address following the opcode's address
-     * @return the read value
-     */
-    private int read16AfterOpcode() {
-        return read16(PC + 1);
-    }
-    
     /**
      * Writes the given 8-bit value to the bus at the specified address
      * @param address : the address were the value will be written
@@ -285,7 +776,17 @@ public final class Cpu implements Component, Clocked {
         Preconditions.checkBits16(address);
         Preconditions.checkBits8(v);
         
-        bus.write(address, v);
+        if (address < ROM_AREA_END || address == AddressMap.REG_BOOT_ROM_DISABLE) {
+            // The rom itself can't be written : its decoded instructions stay valid as long as the
+            // same banks are mapped
+            bus.write(address, v);
+            if (codeMappingFunction == null || updateCodeMappings()) {
+                invalidateAllDecoded();
+            }
+        } else {
+            invalidateDecoded(address);
+            bus.write(address, v);
+        }
     }
     
     /**
@@ -333,7 +834,15 @@ public final class Cpu implements Component, Clocked {
     }
     
     
-    /* Getters and setters for 16-bit registers */
+    /* Getters and setters for registers */
+    
+    private int reg(Reg r) {
+        return regs[r.ordinal()];
+    }
+    
+    private void setReg(Reg r, int newV) {
+        regs[r.ordinal()] = newV;
+    }
     
     /**
      * Reads a value stored in a 16-bit register
@@ -341,29 +850,28 @@ public final class Cpu implements Component, Clocked {
      * @return the value
      */
     private int reg16(Reg16 r) {
-        int msb = rf.get(r.r1);
-        int lsb = rf.get(r.r2);
+        int msb = regs[r.r1.ordinal()];
+        int lsb = r == Reg16.AF ? flags() : regs[r.r2.ordinal()];
         
-        return Bits.make16(msb, lsb);
+        return msb << 8 | lsb;
     }
     
     /**
      * Stores a given 16-bit value in the specified 16-bit register
      * @param r : the register where the value will be stored
-     * @param newV : the value to store
-     * @throws IllegalArgumentException if the value is not a 16-bit integer
+     * @param newV : the value to store, whose bits beyond the 16 lsb are ignored
      */
     private void setReg16(Reg16 r, int newV) {
-        
-        int lsb = Bits.clip(8, newV);
-        int msb = Bits.extract(newV, 8, 8);
+        int lsb = newV & 0xFF;
+        int msb = newV >>> 8 & 0xFF;
         
         if (r == Reg16.AF) {
-            lsb = Bits.extract(lsb, 4, 4) << 4;
+            lsb &= 0xF0;
+            flagOp = FlagOp.NONE;
         }
         
-        rf.set(r.r1, msb);
-        rf.set(r.r2, lsb);
+        regs[r.r1.ordinal()] = msb;
+        regs[r.r2.ordinal()] = lsb;
     }
     
     /**
@@ -382,7 +890,7 @@ public final class Cpu implements Component, Clocked {
 
     /* Bit extraction */
     
-    private Reg extractReg(Opcode opcode, int startBit) {
+    private static Reg extractReg(Opcode opcode, int startBit) {
         int registerCode = Bits.extract(opcode.encoding, startBit, 3);
         
         switch(registerCode) {
@@ -398,7 +906,7 @@ public final class Cpu implements Component, Clocked {
         }
     }
     
-    private Reg16 extractReg16(Opcode opcode) {
+    private static Reg16 extractReg16(Opcode opcode) {
         int registerCode = Bits.extract(opcode.encoding, 4, 2);
         
         switch(registerCode) {
@@ -419,16 +927,12 @@ public final class Cpu implements Component, Clocked {
         return Bits.test(opcode.encoding, 3) ? RotDir.RIGHT : RotDir.LEFT;
     }
     
-    private int extractBitIndex(Opcode opcode) {
-        return Bits.extract(opcode.encoding, 3, 3);
-    }
-    
     private boolean extractNewBitValue(Opcode opcode) {
         return Bits.test(opcode.encoding, 6);
     }
     
     private boolean extractInitalCarry(Opcode opcode) {
-        return Bits.test(opcode.encoding, 3) && getFlagFromF(Flag.C);
+        return Bits.test(opcode.encoding, 3) && carry();
     }
     
     private boolean extractIMEState(Opcode opcode) {
@@ -439,52 +943,111 @@ public final class Cpu implements Component, Clocked {
     /* Opcode table methods */
     
     /**
-     * Creates a table of opcodes, filtering out non-direct ones
+     * Creates a table of the 8-bit registers encoded in the opcodes at a given bit, indexed by ordinal.
+     * The opcodes which don't encode a register there are left null
+     * @param startBit : the index of the first of the three bits encoding the register
+     * @return the table of registers
+     */
+    private static Reg[] buildRegTable(int startBit) {
+        Reg[] table = new Reg[Opcode.values().length];
+        
+        for (Opcode o : Opcode.values()) {
+            if (Bits.extract(o.encoding, startBit, 3) != 0b110) {
+                table[o.ordinal()] = extractReg(o, startBit);
+            }
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Creates a table of the 16-bit registers encoded in the opcodes, indexed by ordinal
+     * @return the table of registers
+     */
+    private static Reg16[] buildReg16Table() {
+        Reg16[] table = new Reg16[Opcode.values().length];
+        
+        for (Opcode o : Opcode.values()) {
+            table[o.ordinal()] = extractReg16(o);
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Creates a table of the conditions encoded in the opcodes, indexed by ordinal
+     * @return the table of conditions
+     */
+    private static Condition[] buildConditionTable() {
+        Condition[] table = new Condition[Opcode.values().length];
+        
+        for (Opcode o : Opcode.values()) {
+            table[o.ordinal()] = extractCondition(o);
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Creates a table of the bit indices encoded in the opcodes, indexed by ordinal
+     * @return the table of bit indices
+     */
+    private static int[] buildBitIndexTable() {
+        int[] table = new int[Opcode.values().length];
+        
+        for (Opcode o : Opcode.values()) {
+            table[o.ordinal()] = Bits.extract(o.encoding, 3, 3);
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Creates a table of opcodes of the given kind, indexed by their encoding.
+     * Encodings which do not correspond to any opcode are left null
      * @param kind : the kind of opcodes the table will contain
      * @return the table of opcodes
      */
     private static Opcode[] buildOpcodeTable(Kind kind) {
-        ArrayList<Opcode> table = new ArrayList<>();
-        
-        // TODO Disputer que tableau plus beau que arraylist
-        //Opcode[] table = new Opcode[NUMBER_OF_OPCODES];
+        Opcode[] table = new Opcode[NUMBER_OF_OPCODES];
         
         for (Opcode o : Opcode.values()) {
             if (o.kind == kind) {
-                table.add(o);
+                table[o.encoding] = o;
             }
         }
         
-        return table.toArray(new Opcode[table.size()]);
+        return table;
     }
     
     /**
      * Searches an opcode by its encoding in an opcode table
      * @param opcodeEncoding : the encoding of the opcode
-     * @throws NullPointerException if the register encoding is not 8 bits long
+     * @param opcodeTable : the table, indexed by encoding
+     * @throws IllegalArgumentException if the encoding is not 8 bits long
+     * @throws IllegalStateException if no opcode has the given encoding
      * @return the opcode
      */
     private Opcode searchOpcodeTable(int opcodeEncoding, Opcode[] opcodeTable) {
-        Preconditions.checkBits8(opcodeEncoding);
+        Opcode opcode = opcodeTable[Preconditions.checkBits8(opcodeEncoding)];
         
-        for (Opcode o : opcodeTable) {
-            if (o.encoding == opcodeEncoding) {
-                return o;
-            }
+        if (opcode == null) {
+            throw new IllegalStateException(String.format("Illegal opcode 0x%02X at address 0x%04X", opcodeEncoding, PC));
         }
         
-        throw new NullPointerException("Opcode encoding does not exist");
+        return opcode;
     }
     
     
     /* Flag Manipulation */
     
     private void setRegFromAlu(Reg r, int vf) {
-        rf.set(r, Alu.unpackValue(vf));
+        setReg(r, Alu.unpackValue(vf));
     }
     
     private void setFlags(int valueFlags) {
-        rf.set(Reg.F, Alu.unpackFlags(valueFlags));
+        setReg(Reg.F, Alu.unpackFlags(valueFlags));
+        flagOp = FlagOp.NONE;
     }
     
     private void setRegFlags(Reg r, int vf) {
@@ -512,12 +1075,194 @@ public final class Cpu implements Component, Clocked {
     }
     
     private boolean getFlagFromF(Flag f) {
-        return rf.testBit(Reg.F, f);
+        return Bits.test(flags(), f);
+    }
+    
+    /* Lazy flags : the 8-bit operations of the alu setting all the flags, or all but the carry (INC and DEC),
+     * compute their result directly and store their operands, their flags being computed when read */
+    
+    private void addToA(int r, boolean c0) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            int result = a + r + (c0 ? 1 : 0);
+            deferFlags(FlagOp.ADD, a, r, c0, result);
+            setReg(Reg.A, result & 0xFF);
+        } else {
+            setReg(Reg.A, applyAluEagerly(FlagOp.ADD, a, r, c0));
+        }
+    }
+    
+    private void subtractFromA(int r, boolean c0) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            int result = a - r - (c0 ? 1 : 0);
+            deferFlags(FlagOp.SUB, a, r, c0, result);
+            setReg(Reg.A, result & 0xFF);
+        } else {
+            setReg(Reg.A, applyAluEagerly(FlagOp.SUB, a, r, c0));
+        }
+    }
+    
+    private void compareWithA(int r) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            deferFlags(FlagOp.SUB, a, r, false, a - r);
+        } else {
+            applyAluEagerly(FlagOp.SUB, a, r, false);
+        }
+    }
+    
+    private void andWithA(int r) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            deferFlags(FlagOp.AND, a, r, false, a & r);
+            setReg(Reg.A, a & r);
+        } else {
+            setReg(Reg.A, applyAluEagerly(FlagOp.AND, a, r, false));
+        }
+    }
+    
+    private void orWithA(int r) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            deferFlags(FlagOp.OR, a, r, false, a | r);
+            setReg(Reg.A, a | r);
+        } else {
+            setReg(Reg.A, applyAluEagerly(FlagOp.OR, a, r, false));
+        }
+    }
+    
+    private void xorWithA(int r) {
+        int a = reg(Reg.A);
+        if (lazyFlags) {
+            deferFlags(FlagOp.XOR, a, r, false, a ^ r);
+            setReg(Reg.A, a ^ r);
+        } else {
+            setReg(Reg.A, applyAluEagerly(FlagOp.XOR, a, r, false));
+        }
+    }
+    
+    private int increment(int v) {
+        if (!lazyFlags) {
+            return applyAluEagerly(FlagOp.INC, v, 1, false);
+        }
+        int result = (v + 1) & 0xFF;
+        deferFlags(FlagOp.INC, v, 1, false, result | (carry() ? CARRY_BIT : 0));
+        return result;
+    }
+    
+    private int decrement(int v) {
+        if (!lazyFlags) {
+            return applyAluEagerly(FlagOp.DEC, v, 1, false);
+        }
+        int result = (v - 1) & 0xFF;
+        deferFlags(FlagOp.DEC, v, 1, false, result | (carry() ? CARRY_BIT : 0));
+        return result;
+    }
+    
+    /**
+     * Stores an operation of the alu, whose flags are computed when read
+     * @param op : the operation
+     * @param l : the first operand
+     * @param r : the second operand
+     * @param c0 : the initial carry
+     * @param result : the result, whose bit 8 is the carry set by the operation
+     */
+    private void deferFlags(FlagOp op, int l, int r, boolean c0, int result) {
+        flagOp = op;
+        flagLeft = l;
+        flagRight = r;
+        flagCarry = c0;
+        flagResult = result;
+    }
+    
+    /**
+     * Applies an 8-bit operation of the alu and sets the flags to its flags, as when lazy flags are disabled
+     * @param op : the operation
+     * @param l : the first operand
+     * @param r : the second operand, ignored by INC and DEC
+     * @param c0 : the initial carry, ignored by INC and DEC
+     * @return the result of the operation
+     */
+    private int applyAluEagerly(FlagOp op, int l, int r, boolean c0) {
+        int vf = aluValueFlags(op, l, r, c0);
+        if (op == FlagOp.INC) {
+            combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
+        } else if (op == FlagOp.DEC) {
+            combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
+        } else {
+            setFlags(vf);
+        }
+        return Alu.unpackValue(vf);
+    }
+    
+    /**
+     * Applies an 8-bit operation of the alu as the eager path does, computing its result and its flags
+     * @param op : the operation
+     * @param l : the first operand
+     * @param r : the second operand, ignored by INC and DEC
+     * @param c0 : the initial carry, ignored by INC and DEC
+     * @return the packed result and flags, the carry of INC and DEC being the carry of their addition
+     */
+    private static int aluValueFlags(FlagOp op, int l, int r, boolean c0) {
+        switch (op) {
+            case ADD: return Alu.add(l, r, c0);
+            case SUB: return Alu.sub(l, r, c0);
+            case AND: return Alu.and(l, r);
+            case OR: return Alu.or(l, r);
+            case XOR: return Alu.xor(l, r);
+            case INC: return Alu.add(l, 1);
+            case DEC: return Alu.sub(l, 1);
+            default: throw new IllegalArgumentException();
+        }
+    }
+    
+    /**
+     * Computes the flags of the last operation of the alu if they have not been yet
+     * @return the value of F
+     */
+    private int flags() {
+        materializeFlags();
+        return reg(Reg.F);
+    }
+    
+    private void materializeFlags() {
+        if (flagOp != FlagOp.NONE) {
+            int f = Alu.unpackFlags(aluValueFlags(flagOp, flagLeft, flagRight, flagCarry));
+            setReg(Reg.F, Bits.set(f, Flag.C.index(), carry()));
+            flagOp = FlagOp.NONE;
+        }
+    }
+    
+    /**
+     * Computes the carry flag alone, without computing the other flags of the last operation of the alu
+     * @return the value of the carry flag
+     */
+    private boolean carry() {
+        return flagOp == FlagOp.NONE ? Bits.test(reg(Reg.F), Flag.C) : (flagResult & CARRY_BIT) != 0;
+    }
+    
+    /**
+     * Computes the zero flag alone, which every lazy operation sets when its result is 0
+     * @return the value of the zero flag
+     */
+    private boolean zero() {
+        return flagOp == FlagOp.NONE ? Bits.test(reg(Reg.F), Flag.Z) : (flagResult & 0xFF) == 0;
+    }
+    
+    /**
+     * Enables or disables the lazy computation of the flags, the eager path computing them
+     * after every instruction
+     * @param lazyFlags : true to compute the flags when they are read
+     */
+    void setLazyFlags(boolean lazyFlags) {
+        materializeFlags();
+        this.lazyFlags = lazyFlags;
     }
     
     private boolean testCondition(Opcode opcode) {
-        Condition c = extractCondition(opcode);
-        boolean result = Bits.test(rf.get(Reg.F), c.flag);
+        Condition c = CONDITIONS[opcode.ordinal()];
+        boolean result = c.flag == Flag.Z ? zero() : carry();
         
         if (c.negative) {
             return !result;
@@ -525,7 +1270,7 @@ public final class Cpu implements Component, Clocked {
         return result;
     }
     
-    private Condition extractCondition(Opcode opcode) {
+    private static Condition extractCondition(Opcode opcode) {
         int code = Bits.extract(opcode.encoding, 3, 2);
         
         switch (code) {
@@ -546,19 +1291,31 @@ public final class Cpu implements Component, Clocked {
     
     /* Dispatch method */
     
-    private void dispatch(int opcodeEncoding) {
-        Preconditions.checkBits8(opcodeEncoding);
+    /**
+     * Executes an instruction
+     * @param opcode : the opcode of the instruction
+     * @param operand : the 8 or 16 bits following the opcode, if it has any, 0 otherwise
+     */
+    private void dispatch(Opcode opcode, int operand) {
+        additionalCycles = 0;
+        nextPC = PC + opcode.totalBytes;
+        executedInstructions++;
         
-        Opcode opcode = null;
-        if (opcodeEncoding == OPCODE_PREFIX) {
-            opcode = searchOpcodeTable(read8AfterOpcode(), PREFIXED_OPCODE_TABLE);
-        } else {
-            opcode = searchOpcodeTable(opcodeEncoding, DIRECT_OPCODE_TABLE); 
-        }
+        execute(opcode, operand);
         
-        int additionalCycles = 0;
-        int nextPC = PC + opcode.totalBytes;
-                
+        PC = nextPC;
+        nextNonIdleCycle += opcode.cycles;
+        nextNonIdleCycle += additionalCycles;        
+    }
+    
+    /**
+     * Applies the effects of an instruction to the registers and the memory. The jumps, calls and
+     * returns set nextPC, which must first be set to the address of the following instruction, and
+     * the conditional ones set additionalCycles when taken
+     * @param opcode : the opcode of the instruction
+     * @param operand : the 8 or 16 bits following the opcode, if it has any, 0 otherwise
+     */
+    void execute(Opcode opcode, int operand) {
         switch (opcode.family) {
             case NOP: {
                 // Does nothing
@@ -567,81 +1324,81 @@ public final class Cpu implements Component, Clocked {
             // Load instructions
             
             case LD_R8_HLR: {
-                Reg reg = extractReg(opcode, 3);
-                rf.set(reg, read8AtHl());
+                Reg reg = HIGH_REGS[opcode.ordinal()];
+                setReg(reg, read8AtHl());
             } break;
             case LD_A_HLRU: {
-                rf.set(Reg.A, read8AtHl());
+                setReg(Reg.A, read8AtHl());
                 setReg16(Reg16.HL, reg16(Reg16.HL) + extractHlIncrement(opcode));
             } break;
             case LD_A_N8R: {
-                rf.set(Reg.A, read8(AddressMap.REGS_START + read8AfterOpcode()));
+                setReg(Reg.A, read8(AddressMap.REGS_START + operand));
             } break;
             case LD_A_CR: {
-                rf.set(Reg.A, read8(AddressMap.REGS_START + rf.get(Reg.C)));
+                setReg(Reg.A, read8(AddressMap.REGS_START + reg(Reg.C)));
             } break;
             case LD_A_N16R: {
-                rf.set(Reg.A, read8(read16AfterOpcode()));
+                setReg(Reg.A, read8(operand));
             } break;
             case LD_A_BCR: {
-                rf.set(Reg.A, read8(reg16(Reg16.BC)));
+                setReg(Reg.A, read8(reg16(Reg16.BC)));
             } break;
             case LD_A_DER: {
-                rf.set(Reg.A, read8(reg16(Reg16.DE)));
+                setReg(Reg.A, read8(reg16(Reg16.DE)));
             } break;
             case LD_R8_N8: {
-                Reg reg = extractReg(opcode, 3);
-                rf.set(reg, read8AfterOpcode());
+                Reg reg = HIGH_REGS[opcode.ordinal()];
+                setReg(reg, operand);
             } break;
             case LD_R16SP_N16: {
-                Reg16 reg16 = extractReg16(opcode);
-                setReg16SP(reg16, read16AfterOpcode());
+                Reg16 reg16 = REGS16[opcode.ordinal()];
+                setReg16SP(reg16, operand);
             } break;
             case POP_R16: {
-                Reg16 reg16 = extractReg16(opcode);
+                Reg16 reg16 = REGS16[opcode.ordinal()];
                 setReg16(reg16, pop16());
             } break;
             
             // Write instructions
             
             case LD_HLR_R8: {
-                Reg reg = extractReg(opcode, 0);
-                write8AtHl(rf.get(reg));
+                Reg reg = LOW_REGS[opcode.ordinal()];
+                write8AtHl(reg(reg));
             } break;
             case LD_HLRU_A: {
-                write8AtHl(rf.get(Reg.A));
+                write8AtHl(reg(Reg.A));
                 setReg16(Reg16.HL, reg16(Reg16.HL) + extractHlIncrement(opcode));
             } break;
             case LD_N8R_A: {
-                write8(RAM_HALFPOINT + read8AfterOpcode(), rf.get(Reg.A));
+                write8(RAM_HALFPOINT + operand, reg(Reg.A));
             } break;
             case LD_CR_A: {
-                write8(RAM_HALFPOINT + rf.get(Reg.C), rf.get(Reg.A));
+                write8(RAM_HALFPOINT + reg(Reg.C), reg(Reg.A));
             } break;
             case LD_N16R_A: {
-                write8(read16AfterOpcode(), rf.get(Reg.A));
+                write8(operand, reg(Reg.A));
             } break;
             case LD_BCR_A: {
-                write8(reg16(Reg16.BC), rf.get(Reg.A));
+                write8(reg16(Reg16.BC), reg(Reg.A));
             } break;
             case LD_DER_A: {
-                write8(reg16(Reg16.DE), rf.get(Reg.A));
+                write8(reg16(Reg16.DE), reg(Reg.A));
             } break;
             case LD_HLR_N8: {
-                write8AtHl(read8AfterOpcode());
+                write8AtHl(operand);
             } break;
             case LD_N16R_SP: {
-                write16(read16AfterOpcode(), SP);
+                write16(operand, SP);
             } break;
             case PUSH_R16: {
-                Reg16 reg16 = extractReg16(opcode);
+                Reg16 reg16 = REGS16[opcode.ordinal()];
                 push16(reg16(reg16));
             } break;
             case LD_R8_R8: {
-                Reg reg1 = extractReg(opcode, 0);
-                Reg reg2 = extractReg(opcode, 3);
+                Reg reg1 = LOW_REGS[opcode.ordinal()];
+                Reg reg2 = HIGH_REGS[opcode.ordinal()];
                 
-                rf.set(reg2, rf.get(reg1));
+                setReg(reg2, reg(reg1));
             } break;
             case LD_SP_HL: {
                 SP = reg16(Reg16.HL);
@@ -650,41 +1407,29 @@ public final class Cpu implements Component, Clocked {
             // Add instructions
             
             case ADD_A_R8: {
-                int vf = Alu.add(rf.get(Reg.A), rf.get(extractReg(opcode, 0)), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);
+                addToA(reg(LOW_REGS[opcode.ordinal()]), extractInitalCarry(opcode));
             } break;
             case ADD_A_N8: {
-                int vf = Alu.add(rf.get(Reg.A), read8AfterOpcode(), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);
+                addToA(operand, extractInitalCarry(opcode));
             } break;
             case ADD_A_HLR: {
-                int vf = Alu.add(rf.get(Reg.A), read8AtHl(), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);
+                addToA(read8AtHl(), extractInitalCarry(opcode));
             } break;
             case INC_R8: {
-                Reg r = extractReg(opcode, 3);
-                int vf = Alu.add(rf.get(r), 1);
-                setRegFromAlu(r, vf);
-                combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
+                Reg r = HIGH_REGS[opcode.ordinal()];
+                setReg(r, increment(reg(r)));
             } break;
             case INC_HLR: {
-                int vf = Alu.add(read8AtHl(), 1);
-                write8AtHl(Alu.unpackValue(vf));
-                combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
+                write8AtHl(increment(read8AtHl()));
             } break;
             case INC_R16SP: {
-                Reg16 r = extractReg16(opcode);
-                int vf;
-                if (r == Reg16.AF) {
-                    vf = Alu.add16H(SP, 1);
-                } else {
-                    vf = Alu.add16H(reg16(r), 1);
-                }
-                setReg16SP(r, Alu.unpackValue(vf));
-                combineAluFlags(vf, FlagSrc.CPU, FlagSrc.CPU, FlagSrc.CPU, FlagSrc.CPU);
+                // Leaves all the flags unchanged, like DEC_R16SP
+                Reg16 r = REGS16[opcode.ordinal()];
+                int inc = r == Reg16.AF ? SP : reg16(r);
+                setReg16SP(r, Bits.clip(16, inc + 1));
             } break;
             case ADD_HL_R16SP: {
-                Reg16 r = extractReg16(opcode);
+                Reg16 r = REGS16[opcode.ordinal()];
                 int arg = r == Reg16.AF ? SP : reg16(r);
                 int vf = Alu.add16H(reg16(Reg16.HL), arg);
                 
@@ -692,7 +1437,7 @@ public final class Cpu implements Component, Clocked {
                 combineAluFlags(vf, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
             } break;
             case LD_HLSP_S8: {
-                int vf = Alu.add16L(SP, Bits.clip(16, Bits.signExtend8(read8AfterOpcode())));
+                int vf = Alu.add16L(SP, Bits.clip(16, Bits.signExtend8(operand)));
                 Reg16 r = Bits.test(opcode.encoding, 4) ? Reg16.HL : Reg16.AF;
                 setReg16SP(r, Alu.unpackValue(vf));
                 combineAluFlags(vf, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
@@ -700,89 +1445,67 @@ public final class Cpu implements Component, Clocked {
             
          // Subtract
             case SUB_A_R8: {
-                int vf = Alu.sub(rf.get(Reg.A), rf.get(extractReg(opcode, 0)), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);
+                subtractFromA(reg(LOW_REGS[opcode.ordinal()]), extractInitalCarry(opcode));
             } break;
             case SUB_A_N8: {
-                int vf = Alu.sub(rf.get(Reg.A), read8AfterOpcode(), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);
+                subtractFromA(operand, extractInitalCarry(opcode));
             } break;
             case SUB_A_HLR: {
-                int vf = Alu.sub(rf.get(Reg.A), read8AtHl(), extractInitalCarry(opcode));
-                setRegFlags(Reg.A, vf);;
+                subtractFromA(read8AtHl(), extractInitalCarry(opcode));
             } break;
             case DEC_R8: {
-                Reg r = extractReg(opcode, 3);
-                int vf = Alu.sub(rf.get(r), 1);
-                setRegFromAlu(r, vf);
-                combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
+                Reg r = HIGH_REGS[opcode.ordinal()];
+                setReg(r, decrement(reg(r)));
             } break;
             case DEC_HLR: {
-                int vf = Alu.sub(read8AtHl(), 1);
-                write8AtHl(Alu.unpackValue(vf));
-                combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
+                write8AtHl(decrement(read8AtHl()));
             } break;
             case CP_A_R8: {
-                int vf = Alu.sub(rf.get(Reg.A), rf.get(extractReg(opcode, 0)));
-                setFlags(vf);
+                compareWithA(reg(LOW_REGS[opcode.ordinal()]));
             } break;
             case CP_A_N8: {
-                int vf = Alu.sub(rf.get(Reg.A), read8AfterOpcode());
-                setFlags(vf);
+                compareWithA(operand);
             } break;
             case CP_A_HLR: {
-                int vf = Alu.sub(rf.get(Reg.A), read8AtHl());
-                setFlags(vf);
+                compareWithA(read8AtHl());
             } break;
             case DEC_R16SP: {
-                Reg16 r = extractReg16(opcode);
+                Reg16 r = REGS16[opcode.ordinal()];
                 int dec = r == Reg16.AF ? SP : reg16(r);
                 setReg16SP(r, Bits.clip(16, dec - 1));    
             } break;
             
             // And, or, xor, complement
             case AND_A_N8: {
-                int vf = Alu.and(rf.get(Reg.A), read8AfterOpcode());
-                setRegFlags(Reg.A, vf);
+                andWithA(operand);
             } break;
             case AND_A_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.and(rf.get(Reg.A), rf.get(r));
-                setRegFlags(Reg.A, vf);
+                andWithA(reg(LOW_REGS[opcode.ordinal()]));
             } break;
             case AND_A_HLR: {
-                int vf = Alu.and(rf.get(Reg.A), read8AtHl());
-                setRegFlags(Reg.A, vf);
+                andWithA(read8AtHl());
             } break;
             case OR_A_N8: {
-                int vf = Alu.or(rf.get(Reg.A), read8AfterOpcode());
-                setRegFlags(Reg.A, vf);
+                orWithA(operand);
             } break;
             case OR_A_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.or(rf.get(Reg.A), rf.get(r));
-                setRegFlags(Reg.A, vf);
+                orWithA(reg(LOW_REGS[opcode.ordinal()]));
             } break;
             case OR_A_HLR: {
-                int vf = Alu.or(rf.get(Reg.A), read8AtHl());
-                setRegFlags(Reg.A, vf);
+                orWithA(read8AtHl());
             } break;
             case XOR_A_N8: {
-                int vf = Alu.xor(rf.get(Reg.A), read8AfterOpcode());
-                setRegFlags(Reg.A, vf);
+                xorWithA(operand);
             } break;
             case XOR_A_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.xor(rf.get(Reg.A), rf.get(r));
-                setRegFlags(Reg.A, vf);
+                xorWithA(reg(LOW_REGS[opcode.ordinal()]));
             } break;
             case XOR_A_HLR: {
-                int vf = Alu.xor(rf.get(Reg.A), read8AtHl());
-                setRegFlags(Reg.A, vf);
+                xorWithA(read8AtHl());
             } break;
             case CPL: {
-                int v = Bits.complement8(rf.get(Reg.A));
-                rf.set(Reg.A, v);
+                int v = Bits.complement8(reg(Reg.A));
+                setReg(Reg.A, v);
                 combineAluFlags(0, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1, FlagSrc.CPU);
             } break;
             
@@ -790,26 +1513,26 @@ public final class Cpu implements Component, Clocked {
             
             case ROTCA: {
                 RotDir rd = extractRotDir(opcode);
-                int vf = Alu.rotate(rd, rf.get(Reg.A));
+                int vf = Alu.rotate(rd, reg(Reg.A));
                 setRegFromAlu(Reg.A, vf);
                 combineAluFlags(vf, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
             } break;
             case ROTA: {
                 RotDir rd = extractRotDir(opcode);
-                int vf = Alu.rotate(rd, rf.get(Reg.A), getFlagFromF(Flag.C));
+                int vf = Alu.rotate(rd, reg(Reg.A), carry());
                 setRegFromAlu(Reg.A, vf);
                 combineAluFlags(vf, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
             } break;
             case ROTC_R8: {
                 RotDir rd = extractRotDir(opcode);
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.rotate(rd, rf.get(r));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.rotate(rd, reg(r));
                 setRegFlags(r, vf);
             } break;
             case ROT_R8: {
                 RotDir rd = extractRotDir(opcode);
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.rotate(rd, rf.get(r), getFlagFromF(Flag.C));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.rotate(rd, reg(r), carry());
                 setRegFlags(r, vf);
             } break;
             case ROTC_HLR: {
@@ -819,12 +1542,12 @@ public final class Cpu implements Component, Clocked {
             } break;
             case ROT_HLR: {
                 RotDir rd = extractRotDir(opcode);
-                int vf = Alu.rotate(rd, read8AtHl(), getFlagFromF(Flag.C));
+                int vf = Alu.rotate(rd, read8AtHl(), carry());
                 write8AtHlAndSetFlags(vf);
             } break;
             case SWAP_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.swap(rf.get(r));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.swap(reg(r));
                 setRegFlags(r, vf);
             } break;
             case SWAP_HLR: {
@@ -832,18 +1555,18 @@ public final class Cpu implements Component, Clocked {
                 write8AtHlAndSetFlags(vf);
             } break;
             case SLA_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.shiftLeft(rf.get(r));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.shiftLeft(reg(r));
                 setRegFlags(r, vf);
             } break;
             case SRA_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.shiftRightA(rf.get(r));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.shiftRightA(reg(r));
                 setRegFlags(r, vf);
             } break;
             case SRL_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.shiftRightL(rf.get(r));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.shiftRightL(reg(r));
                 setRegFlags(r, vf);
             } break;
             case SLA_HLR: {
@@ -862,38 +1585,33 @@ public final class Cpu implements Component, Clocked {
             // Bit test and set
             
             case BIT_U3_R8: {
-                Reg r = extractReg(opcode, 0);
-                int vf = Alu.testBit(rf.get(r), extractBitIndex(opcode));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                int vf = Alu.testBit(reg(r), BIT_INDICES[opcode.ordinal()]);
                 combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
             } break;
             case BIT_U3_HLR: {
-                int vf = Alu.testBit(read8AtHl(), extractBitIndex(opcode));
+                int vf = Alu.testBit(read8AtHl(), BIT_INDICES[opcode.ordinal()]);
                 combineAluFlags(vf, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
             } break;
             case CHG_U3_R8: {
-                Reg r = extractReg(opcode, 0);
-                rf.set(r, Bits.set(rf.get(r), extractBitIndex(opcode), extractNewBitValue(opcode)));
+                Reg r = LOW_REGS[opcode.ordinal()];
+                setReg(r, Bits.set(reg(r), BIT_INDICES[opcode.ordinal()], extractNewBitValue(opcode)));
             } break;
             case CHG_U3_HLR: {
-                write8AtHl(Bits.set(read8AtHl(), extractBitIndex(opcode), extractNewBitValue(opcode)));
+                write8AtHl(Bits.set(read8AtHl(), BIT_INDICES[opcode.ordinal()], extractNewBitValue(opcode)));
             } break;
 
             // Misc. ALU
             
             case DAA: {
-                int vf = Alu.bcdAdjust(rf.get(Reg.A), getFlagFromF(Flag.N), getFlagFromF(Flag.H), getFlagFromF(Flag.C));
+                int vf = Alu.bcdAdjust(reg(Reg.A), getFlagFromF(Flag.N), getFlagFromF(Flag.H), getFlagFromF(Flag.C));
                 setRegFromAlu(Reg.A, vf);
                 combineAluFlags(vf, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU);
             } break;
             case SCCF: {
-                if (!extractInitalCarry(opcode)) {
-                    rf.setBit(Reg.F, Flag.C, true);
-                } else {
-                    rf.setBit(Reg.F, Flag.C, !rf.testBit(Reg.F, Flag.C));
-                }
-                
-                rf.setBit(Reg.F, Flag.H, false);
-                rf.setBit(Reg.F, Flag.N, false);
+                // SCF sets the carry, CCF complements it
+                boolean c = !Bits.test(opcode.encoding, 3) || !carry();
+                setFlags(Alu.maskZNHC(zero(), false, false, c));
             } break;
             
             // Jumps
@@ -902,20 +1620,20 @@ public final class Cpu implements Component, Clocked {
                 nextPC = reg16(Reg16.HL);
             } break;
             case JP_N16: {
-                nextPC = read16AfterOpcode();
+                nextPC = operand;
             } break;
             case JP_CC_N16: {
                 if (testCondition(opcode)) {
-                    nextPC = read16AfterOpcode();
+                    nextPC = operand;
                     additionalCycles = opcode.additionalCycles;
                 }
             } break;
             case JR_E8: {
-                nextPC = Bits.clip(16, nextPC + Bits.signExtend8(read8AfterOpcode()));
+                nextPC = Bits.clip(16, nextPC + Bits.signExtend8(operand));
             } break;
             case JR_CC_E8: {
                 if (testCondition(opcode)) {
-                    nextPC = Bits.clip(16, nextPC + Bits.signExtend8(read8AfterOpcode()));
+                    nextPC = Bits.clip(16, nextPC + Bits.signExtend8(operand));
                     additionalCycles = opcode.additionalCycles;
                 }
             } break;
@@ -924,12 +1642,12 @@ public final class Cpu implements Component, Clocked {
             
             case CALL_N16: {
                 push16(nextPC);
-                nextPC = read16AfterOpcode();
+                nextPC = operand;
             } break;
             case CALL_CC_N16: {
                 if (testCondition(opcode)) {
                     push16(nextPC);
-                    nextPC = read16AfterOpcode();
+                    nextPC = operand;
                     additionalCycles = opcode.additionalCycles;
                 }
             } break;
@@ -968,10 +1686,6 @@ public final class Cpu implements Component, Clocked {
             default:
                 break;
         }
-        
-        PC = nextPC;
-        nextNonIdleCycle += opcode.cycles;
-        nextNonIdleCycle += additionalCycles;        
     }
     
 }
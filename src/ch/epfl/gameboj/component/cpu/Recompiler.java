@@ -0,0 +1,168 @@
+package ch.epfl.gameboj.component.cpu;
+
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.cpu.Opcode.Family;
+
+/**
+ * Recompiles the code of the rom area, once it is run often enough, to JVM classes
+ *
+ * The code is split in blocks : sequences of instructions of a half of the rom area, starting at a
+ * given address and ending at the first jump, call, return or change of the interrupt master enable.
+ * Every block whose start has been reached a given number of times is compiled to a hidden class
+ * (see BlockClassWriter). As every class is compiled on its own by the JVM, only the hottest
+ * blocks are worth it : by default, those reached HOT_THRESHOLD times. Blocks are identified by
+ * their address and the mapping of their half of the rom area, so that the blocks of a rom bank
+ * are reused whenever it is mapped again.
+ * The code of the rams, which may be modified, is always interpreted.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+final class Recompiler {
+
+    /**
+     * A compiled block
+     */
+    interface Block {
+        /**
+         * Runs the instructions of the block, up to the first one which starts after the event
+         * horizon or whose access to the memory is not safe, leaving the program counter at the
+         * first instruction not run
+         * @param cpu : the cpu whose program counter is the start of the block
+         */
+        void run(Cpu cpu);
+    }
+
+    static final int HOT_THRESHOLD = 1 << 16;
+    static final int MAX_BLOCK_LENGTH = 32;
+    static final int MAX_BLOCKS = 1 << 14;
+
+    private static final int CODE_AREA_SIZE = AddressMap.CARTRIDGE_ROM_END;
+    private static final int CODE_HALF_SIZE = CODE_AREA_SIZE / 2;
+    private static final Set<Family> BLOCK_ENDS = EnumSet.of(Family.JP_HL, Family.JP_N16, Family.JP_CC_N16,
+            Family.JR_E8, Family.JR_CC_E8, Family.CALL_N16, Family.CALL_CC_N16, Family.RST_U3, Family.RET,
+            Family.RET_CC, Family.EDI, Family.RETI);
+    private static final Block NOT_COMPILABLE = cpu -> {};
+
+    // The block of every address for the last mapping it was looked up with, null if not compiled
+    private final Block[] blocks = new Block[CODE_AREA_SIZE];
+    private final int[] blockMappings = new int[CODE_AREA_SIZE];
+    private final int[] heat = new int[CODE_AREA_SIZE];
+    private final Map<Long, Block> compiledBlocks = new HashMap<>();
+    private final int hotThreshold;
+
+    /**
+     * Creates a recompiler compiling the blocks reached HOT_THRESHOLD times
+     */
+    Recompiler() {
+        this(HOT_THRESHOLD);
+    }
+
+    /**
+     * Creates a recompiler
+     * @param hotThreshold : the number of times the start of a block must be reached before it is compiled
+     * @throws IllegalArgumentException if the threshold is not strictly positive
+     */
+    Recompiler(int hotThreshold) {
+        Preconditions.checkArgument(hotThreshold > 0);
+        this.hotThreshold = hotThreshold;
+    }
+
+    /**
+     * Returns the compiled block starting at given address, compiling it if it has been reached
+     * often enough
+     * @param cpu : the cpu running the code, used to decode the instructions
+     * @param pc : the address of the start of the block, in the rom area
+     * @param mapping : the mapping of the half of the rom area containing the address
+     * @return the block, null if it is not compiled
+     */
+    Block blockAt(Cpu cpu, int pc, int mapping) {
+        if (blockMappings[pc] != mapping) {
+            blocks[pc] = compiledBlocks.get(key(pc, mapping));
+            blockMappings[pc] = mapping;
+            heat[pc] = 0;
+        }
+
+        Block block = blocks[pc];
+        if (block == null) {
+            if (++heat[pc] < hotThreshold) {
+                return null;
+            }
+
+            if (compiledBlocks.size() >= MAX_BLOCKS) {
+                clear();
+            }
+            block = compile(cpu, pc);
+            compiledBlocks.put(key(pc, mapping), block);
+            blocks[pc] = block;
+        }
+
+        return block == NOT_COMPILABLE ? null : block;
+    }
+
+    /**
+     * Drops all the compiled blocks
+     */
+    void clear() {
+        compiledBlocks.clear();
+        Arrays.fill(blocks, null);
+    }
+
+    private static long key(int pc, int mapping) {
+        return (Integer.toUnsignedLong(mapping) << Short.SIZE) | pc;
+    }
+
+    private static Block compile(Cpu cpu, int pc) {
+        Opcode[] opcodes = new Opcode[MAX_BLOCK_LENGTH];
+        int[] operands = new int[MAX_BLOCK_LENGTH];
+        int[] addresses = new int[MAX_BLOCK_LENGTH];
+
+        int end = pc < CODE_HALF_SIZE ? CODE_HALF_SIZE : CODE_AREA_SIZE;
+        int length = 0;
+        int address = pc;
+        while (length < MAX_BLOCK_LENGTH && address < end) {
+            Opcode opcode;
+            try {
+                opcode = cpu.decodedOpcode(address);
+            } catch (IllegalStateException e) {
+                // An invalid opcode is left to the interpreter, in case it is reached
+                break;
+            }
+
+            if (address + opcode.totalBytes > end
+                    || opcode.family == Family.HALT || opcode.family == Family.STOP) {
+                break;
+            }
+
+            opcodes[length] = opcode;
+            operands[length] = cpu.decodedOperand(address);
+            addresses[length] = address;
+            length++;
+            address += opcode.totalBytes;
+
+            if (BLOCK_ENDS.contains(opcode.family)) {
+                break;
+            }
+        }
+
+        if (length == 0) {
+            return NOT_COMPILABLE;
+        }
+
+        byte[] classFile = BlockClassWriter.write(opcodes, operands, addresses, length);
+        try {
+            Class<?> c = Cpu.lookup().defineHiddenClass(classFile, true, ClassOption.NESTMATE).lookupClass();
+            return (Block) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Invalid compiled block at " + String.format("0x%04X", pc), e);
+        }
+    }
+}
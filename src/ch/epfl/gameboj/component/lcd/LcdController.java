@@ -1,5 +1,6 @@
 package ch.epfl.gameboj.component.lcd;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -8,8 +9,8 @@ import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.bits.Bit;
-import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
@@ -23,7 +24,7 @@ import ch.epfl.gameboj.component.memory.RamController;
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
-public final class LcdController implements Component, Clocked {
+public final class LcdController implements Component, Clocked, Stateful {
 
     public static final int LCD_WIDTH = 160;
     public static final int LCD_HEIGHT = 144;
@@ -35,12 +36,12 @@ public final class LcdController implements Component, Clocked {
     private static final int FULL_LINE_CYCLES = 114;
     private static final int LINES_IN_VBLANK = 10;
     private static final int LINES_PER_FRAME = LCD_HEIGHT + LINES_IN_VBLANK;
+    public static final int CYCLES_PER_FRAME = LINES_PER_FRAME * FULL_LINE_CYCLES;
 
     private static final int TILE_ADDRESS_OFFSET = 0x80;
     private static final int TILE_BYTES = 16;
     private static final int SPRITE_BYTES = 4;
     private static final int SPRITES_IN_MEMORY = AddressMap.OAM_RAM_SIZE / SPRITE_BYTES;
-    private static final int SPRITES_PER_LINE = 10;
 
     private static final int X_OFFSET = 8;
     private static final int Y_OFFSET = 16;
@@ -48,13 +49,18 @@ public final class LcdController implements Component, Clocked {
     private static final int WX_LOW = 0;
     private static final int WX_OFFSET = 7;
 
+    private static final byte TRANSPARENT = -1;
 
     private final Cpu cpu;
+    private final Ram vRamData;
     private final RamController vRam;
+    private final TileCache tileCache;
     private final Ram oamRam;
+    private final SpriteIndex spriteIndex;
     private Bus bus;
 
     private final RegisterFile<Reg> rf = new RegisterFile<>(Reg.values());
+    private final RenderMode renderMode;
 
     private long nextNonIdleCycle = Long.MAX_VALUE;
     private int nextLineIndex = 0;
@@ -66,6 +72,29 @@ public final class LcdController implements Component, Clocked {
     private LcdImage.Builder nextImageBuilder;
     private LcdImage image = emptyImage();
 
+    private final LcdFrameBuffer nextFrame = new LcdFrameBuffer(LCD_WIDTH, LCD_HEIGHT);
+    private final LcdFrameBuffer frame = new LcdFrameBuffer(LCD_WIDTH, LCD_HEIGHT);
+
+    private final byte[] lineColors = new byte[LCD_WIDTH];
+    private final boolean[] lineOpacity = new boolean[LCD_WIDTH];
+    private final byte[] bgSpritesColors = new byte[LCD_WIDTH];
+    private final byte[] fgSpritesColors = new byte[LCD_WIDTH];
+
+    /**
+     * The ways the controller can draw the lines of the image
+     */
+    public enum RenderMode {
+        /**
+         * Every line is computed as a combination of LcdImageLine
+         */
+        IMAGE_LINES,
+        /**
+         * Every line is composed pixel by pixel in reused arrays, and written
+         * to a frame buffer, without allocating any object
+         */
+        FRAME_BUFFER
+    }
+
     private enum Reg implements Register {
         LCDC, STAT, SCY, SCX, LY, LYC, DMA, BGP, OBP0, OBP1, WY, WX
     }
@@ -110,21 +139,37 @@ public final class LcdController implements Component, Clocked {
     }
 
     /**
-     * Creates a new LcdController
+     * Creates a new LcdController, drawing its lines in a frame buffer
      * 
      * @param cpu : cpu of the gameboy, needed to raise interrupts
      * @throws NullPointerException if cpu is null
      */
     public LcdController(Cpu cpu) {
+        this(cpu, RenderMode.FRAME_BUFFER);
+    }
+
+    /**
+     * Creates a new LcdController, drawing its lines with given mode. Both modes produce the same pixels
+     * 
+     * @param cpu : cpu of the gameboy, needed to raise interrupts
+     * @param renderMode : the way lines are drawn
+     * @throws NullPointerException if cpu or renderMode is null
+     */
+    public LcdController(Cpu cpu, RenderMode renderMode) {
         this.cpu = Objects.requireNonNull(cpu);
+        this.renderMode = Objects.requireNonNull(renderMode);
 
-        Ram vRam = new Ram(AddressMap.VIDEO_RAM_SIZE);
-        this.vRam = new RamController(vRam, AddressMap.VIDEO_RAM_START);
+        this.vRamData = new Ram(AddressMap.VIDEO_RAM_SIZE);
+        this.vRam = new RamController(vRamData, AddressMap.VIDEO_RAM_START);
+        this.tileCache = new TileCache(this.vRam);
 
         this.oamRam = new Ram(AddressMap.OAM_RAM_SIZE);
+        this.spriteIndex = new SpriteIndex(this.oamRam);
 
         nextMode = Mode.M2_SPRITE_MEM;
-        nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+        if (renderMode == RenderMode.IMAGE_LINES) {
+            nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+        }
     }
 
     /*
@@ -133,7 +178,9 @@ public final class LcdController implements Component, Clocked {
      */
     @Override
     public void attachTo(Bus bus) {
-        Component.super.attachTo(bus);
+        bus.attach(this, AddressMap.VIDEO_RAM_START, AddressMap.VIDEO_RAM_END);
+        bus.attach(this, AddressMap.OAM_START, AddressMap.OAM_END);
+        bus.attach(this, AddressMap.REGS_LCDC_START, AddressMap.REGS_LCDC_END);
         this.bus = bus;
     }
 
@@ -167,8 +214,9 @@ public final class LcdController implements Component, Clocked {
 
         if (AddressMap.VIDEO_RAM_START <= address && address < AddressMap.VIDEO_RAM_END) {
             vRam.write(address, data);
+            tileCache.invalidate(address);
         } else if (AddressMap.OAM_START <= address && address < AddressMap.OAM_END) {
-            oamRam.write(address - AddressMap.OAM_START, data);
+            writeToOam(address - AddressMap.OAM_START, data);
         } else if (AddressMap.REGS_LCDC_START <= address && address < AddressMap.REGS_LCDC_END) {
             writeToReg(address, data);
         }
@@ -181,9 +229,22 @@ public final class LcdController implements Component, Clocked {
      * @return an LcdImage
      */
     public LcdImage currentImage() {
+        if (image == null) {
+            image = frame.toImage();
+        }
         return image;
     }
 
+    /**
+     * Returns the frame buffer containing the current lcd image. Its content is
+     * replaced every time a new image is completed
+     * 
+     * @return the frame buffer of the current image
+     */
+    public LcdFrameBuffer currentFrame() {
+        return frame;
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.gameboj.component.Clocked#cycle(long)
@@ -206,6 +267,68 @@ public final class LcdController implements Component, Clocked {
         }
     }
 
+    /**
+     * Returns the next cycle at which the controller changes mode, or the given one
+     * if it copies data to OAM or has just been switched on
+     * @param cycle : the first cycle which has not been run yet
+     * @return the next cycle at which the controller must be cycled
+     */
+    @Override
+    public long nextEventCycle(long cycle) {
+        if (quickCopyEnabled || isWokenUp()) {
+            return cycle;
+        }
+        
+        return nextNonIdleCycle;
+    }
+
+    /**
+     * Saves the registers of the controller, its progression in the frame, the video
+     * memory, the sprite memory and the pixels of the current and next images
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        rf.saveState(buffer);
+        buffer.putLong(nextNonIdleCycle)
+            .put((byte) nextLineIndex)
+            .put((byte) nextMode.ordinal())
+            .put((byte) (quickCopyEnabled ? 1 : 0))
+            .put((byte) quickCopyIndex);
+        vRamData.saveState(buffer);
+        oamRam.saveState(buffer);
+        frame.saveState(buffer);
+        nextFrame.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        rf.loadState(buffer);
+        nextNonIdleCycle = buffer.getLong();
+        nextLineIndex = Byte.toUnsignedInt(buffer.get());
+        nextMode = Mode.values()[buffer.get()];
+        quickCopyEnabled = buffer.get() != 0;
+        quickCopyIndex = Byte.toUnsignedInt(buffer.get());
+        vRamData.loadState(buffer);
+        oamRam.loadState(buffer);
+        frame.loadState(buffer);
+        nextFrame.loadState(buffer);
+
+        tileCache.invalidateAll();
+        spriteIndex.invalidateAll();
+        spriteIndex.setSpritesHeight(spritesHeight());
+        image = null;
+        if (renderMode == RenderMode.IMAGE_LINES) {
+            nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+            for (int y = 0; y < LCD_HEIGHT; y++) {
+                nextImageBuilder.setLine(y, nextFrame.line(y));
+            }
+        }
+    }
+
     private void reallyCycle() {
         updateLineIndex();
         setMode(nextMode);
@@ -216,8 +339,14 @@ public final class LcdController implements Component, Clocked {
         case M1_VBLANK: {
             if (enteringVBlank()) {
                 cpu.requestInterrupt(Cpu.Interrupt.VBLANK);
-                image = nextImageBuilder.build();
-                nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+                frame.copyFrom(nextFrame);
+                if (renderMode == RenderMode.IMAGE_LINES) {
+                    image = nextImageBuilder.build();
+                    nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+                } else {
+                    // Only built if requested
+                    image = null;
+                }
             } else if (exitingVBlank()) {
                 nextMode = Mode.M2_SPRITE_MEM;
             }
@@ -226,7 +355,13 @@ public final class LcdController implements Component, Clocked {
         } break;
         case M2_SPRITE_MEM: {
             nextMode = Mode.M3_VIDEO_MEM;
-            nextImageBuilder.setLine(currentLine(), computeLine());
+            if (renderMode == RenderMode.IMAGE_LINES) {
+                LcdImageLine line = computeLine();
+                nextImageBuilder.setLine(currentLine(), line);
+                nextFrame.setLine(currentLine(), line);
+            } else {
+                drawLine();
+            }
         } break;
         case M3_VIDEO_MEM: {
             nextMode = Mode.M0_HBLANK;
@@ -259,6 +394,7 @@ public final class LcdController implements Component, Clocked {
                 nextNonIdleCycle = Long.MAX_VALUE;
             }
             rf.set(r, data);
+            spriteIndex.setSpritesHeight(spritesHeight());
             break;
         case STAT:
             int lsb = Bits.clip(3, rf.get(Reg.STAT));
@@ -284,13 +420,18 @@ public final class LcdController implements Component, Clocked {
     private void copyByte() {
         if (quickCopyIndex < AddressMap.OAM_RAM_SIZE) {
             int sourceAddress = Bits.make16(rf.get(Reg.DMA), 0x00);
-            oamRam.write(quickCopyIndex, bus.read(sourceAddress + quickCopyIndex));
+            writeToOam(quickCopyIndex, bus.read(sourceAddress + quickCopyIndex));
             quickCopyIndex++;
         } else {
             quickCopyEnabled = false;
             quickCopyIndex = 0;
         }
     }
+
+    private void writeToOam(int index, int data) {
+        spriteIndex.invalidate(index, data);
+        oamRam.write(index, data);
+    }
     
 
     /* Mode control */
@@ -390,16 +531,17 @@ public final class LcdController implements Component, Clocked {
 
     private LcdImageLine spritesLine(int lineIndex, ZPos zpos) {
         LcdImageLine line = emptyLine(LCD_WIDTH);
+        boolean behindBg = zpos == ZPos.BG;
 
-        for (int spriteIndex : spritesIntersectingLine()) {
-            if (spriteZ(spriteIndex) == zpos) {
-                int msb = spriteByte(spriteIndex, lineIndex, Endian.MSB);
-                int lsb = spriteByte(spriteIndex, lineIndex, Endian.LSB);
+        int spritesCount = spriteIndex.count(lineIndex, behindBg);
+        for (int i = 0; i < spritesCount; i++) {
+            int sprite = spriteIndex.sprite(lineIndex, behindBg, i);
+            int msb = spriteByte(sprite, lineIndex, Endian.MSB);
+            int lsb = spriteByte(sprite, lineIndex, Endian.LSB);
 
-                LcdImageLine singleSpriteLine = new LcdImageLine.Builder(LCD_WIDTH).setBytes(0, msb, lsb).build();
-                singleSpriteLine = singleSpriteLine.shift(spriteX(spriteIndex)).mapColors(spritePalette(spriteIndex));
-                line = singleSpriteLine.below(line);
-            }
+            LcdImageLine singleSpriteLine = new LcdImageLine.Builder(LCD_WIDTH).setBytes(0, msb, lsb).build();
+            singleSpriteLine = singleSpriteLine.shift(spriteX(sprite)).mapColors(spritePalette(sprite));
+            line = singleSpriteLine.below(line);
         }
         return line;
     }
@@ -422,13 +564,11 @@ public final class LcdController implements Component, Clocked {
     }
 
     private LcdImageLine addSpritesLines(LcdImageLine line) {
-        if (rf.testBit(Reg.LCDC, Lcdc.OBJ)) {
+        if (rf.testBit(Reg.LCDC, Lcdc.OBJ) && lineHasSprites()) {
             LcdImageLine bgSpritesLine = spritesLine(currentLine(), ZPos.BG);
             LcdImageLine fgSpritesLine = spritesLine(currentLine(), ZPos.FG);
             
-            BitVector opacityMask = line.opacity().or(bgSpritesLine.opacity().not());
-            
-            return bgSpritesLine.below(line, opacityMask).below(fgSpritesLine);
+            return line.withSprites(bgSpritesLine, fgSpritesLine);
         }
         
         return line;
@@ -445,6 +585,119 @@ public final class LcdController implements Component, Clocked {
         return line;
     }
 
+    /* Line drawing in frame buffer */
+
+    private void drawLine() {
+        drawBackgroundLine();
+        drawWindowLine();
+        drawSpritesLines();
+
+        nextFrame.setLine(currentLine(), lineColors);
+    }
+
+    private void drawBackgroundLine() {
+        if (rf.testBit(Reg.LCDC, Lcdc.BG)) {
+            int lineIndex = (rf.get(Reg.SCY) + currentLine()) % FULL_LINE_SIZE;
+            drawTiles(lineIndex, memoryStart(Lcdc.BG_AREA), rf.get(Reg.SCX), 0);
+        } else {
+            Arrays.fill(lineColors, (byte) 0);
+            Arrays.fill(lineOpacity, false);
+        }
+    }
+
+    private void drawWindowLine() {
+        if (currentLine() >= rf.get(Reg.WY) && windowOn()) {
+            drawTiles(currentLine() - rf.get(Reg.WY), memoryStart(Lcdc.WIN_AREA), 0, wx());
+        }
+    }
+
+    /**
+     * Draws the pixels of a line of tiles, mapped with the background palette, from pixel
+     * start of the tiles line to the end of the lcd line
+     * @param lineIndex : index of the line in the tiles
+     * @param memoryStart : address of the tiles indexes
+     * @param start : index of the first drawn pixel in the tiles line, wrapped around
+     * @param from : index of the first drawn pixel in the lcd line
+     */
+    private void drawTiles(int lineIndex, int memoryStart, int start, int from) {
+        int palette = rf.get(Reg.BGP);
+        int startTileIndex = (lineIndex / LINES_IN_TILE) * TILES_PER_LINE;
+        int tileLine = 0;
+
+        for (int x = from; x < LCD_WIDTH; x++) {
+            int pixel = (start + x - from) % FULL_LINE_SIZE;
+            int pixelInTile = pixel % Byte.SIZE;
+
+            if (x == from || pixelInTile == 0) {
+                int tileIndex = vRam.read(memoryStart + startTileIndex + pixel / Byte.SIZE);
+                tileLine = tileCache.line(tileAddress(tileIndex) + 2*(lineIndex % LINES_IN_TILE));
+            }
+
+            int color = tileColor(tileLine, pixelInTile);
+
+            lineColors[x] = (byte) mapColor(palette, color);
+            lineOpacity[x] = color != 0;
+        }
+    }
+
+    private void drawSpritesLines() {
+        if (rf.testBit(Reg.LCDC, Lcdc.OBJ) && lineHasSprites()) {
+            drawSprites(true, bgSpritesColors);
+            drawSprites(false, fgSpritesColors);
+
+            for (int x = 0; x < LCD_WIDTH; x++) {
+                if (fgSpritesColors[x] != TRANSPARENT) {
+                    lineColors[x] = fgSpritesColors[x];
+                } else if (bgSpritesColors[x] != TRANSPARENT && !lineOpacity[x]) {
+                    lineColors[x] = bgSpritesColors[x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the sprites of the current line with given priority in a line of sprites, in order
+     * @param behindBg : true to draw the sprites behind the background, false to draw the others
+     * @param spritesColors : the colors of the sprites line, filled with TRANSPARENT where there is none
+     */
+    private void drawSprites(boolean behindBg, byte[] spritesColors) {
+        Arrays.fill(spritesColors, TRANSPARENT);
+
+        int spritesCount = spriteIndex.count(currentLine(), behindBg);
+        for (int i = 0; i < spritesCount; i++) {
+            drawSprite(spriteIndex.sprite(currentLine(), behindBg, i), spritesColors);
+        }
+    }
+
+    /**
+     * Draws a sprite in a line of sprites, behind the sprites already drawn in it
+     * @param spriteIndex : index of the sprite
+     * @param spritesColors : the colors of the sprites line, TRANSPARENT where there is none
+     */
+    private void drawSprite(int spriteIndex, byte[] spritesColors) {
+        int tileLine = tileCache.line(spriteLineAddress(spriteIndex, currentLine()));
+        boolean flipH = spriteAttr(spriteIndex, SpriteAttr.FLIP_H);
+        int palette = spritePalette(spriteIndex);
+        int spriteX = spriteX(spriteIndex);
+
+        for (int i = 0; i < Byte.SIZE; i++) {
+            int x = spriteX + i;
+            int color = tileColor(tileLine, flipH ? Byte.SIZE - 1 - i : i);
+
+            if (0 <= x && x < LCD_WIDTH && color != 0 && spritesColors[x] == TRANSPARENT) {
+                spritesColors[x] = (byte) mapColor(palette, color);
+            }
+        }
+    }
+
+    private static int tileColor(int tileLine, int pixelInTile) {
+        return Bits.extract(tileLine, 2 * pixelInTile, 2);
+    }
+
+    private static int mapColor(int palette, int color) {
+        return Bits.extract(palette, 2 * color, 2);
+    }
+
     /* General utilities */
 
     private static LcdImage emptyImage() {
@@ -463,28 +716,8 @@ public final class LcdController implements Component, Clocked {
     }
     
 
-    private int[] spritesIntersectingLine() {
-        int spriteHeight = spritesHeight();
-        int[] lineSprites = new int[SPRITES_PER_LINE];
-        
-        int spritesChecked = 0; 
-        int spritesSelected = 0;
-        while (spritesChecked < SPRITES_IN_MEMORY && spritesSelected < SPRITES_PER_LINE) {
-            int distance = currentLine() - spriteY(spritesChecked);
-            if (0 <= distance && distance < spriteHeight) {
-                lineSprites[spritesSelected] = Bits.make16(spriteX(spritesChecked) + X_OFFSET, spritesChecked);
-                spritesSelected++;
-            }
-            spritesChecked++;
-        }
-
-        Arrays.sort(lineSprites, 0, spritesSelected);
-        
-        for (int i = 0; i < spritesSelected; i++) {
-            lineSprites[i] = Bits.clip(8, lineSprites[i]);
-        }
-        
-        return Arrays.copyOfRange(lineSprites, 0, spritesSelected);
+    private boolean lineHasSprites() {
+        return spriteIndex.count(currentLine(), true) + spriteIndex.count(currentLine(), false) > 0;
     }
 
     private int memoryStart(Bit b) {
@@ -529,10 +762,6 @@ public final class LcdController implements Component, Clocked {
     private int spriteY(int index) {
         return spriteData(index, SpriteData.Y) - Y_OFFSET;
     }
-   
-    private ZPos spriteZ(int index) {
-    	return spriteAttr(index, SpriteAttr.BEHIND_BG) ? ZPos.BG : ZPos.FG;
-    }
 
     private int spriteX(int index) {
         return spriteData(index, SpriteData.X) - X_OFFSET;
@@ -548,15 +777,19 @@ public final class LcdController implements Component, Clocked {
 
     private int spriteByte(int index, int lineIndex, Endian endian) {
         boolean flipH = spriteAttr(index, SpriteAttr.FLIP_H);
+        int byteIndex = endian == Endian.MSB ? 1 : 0;
+
+        int readByte = vRam.read(spriteLineAddress(index, lineIndex) + byteIndex);
+        return flipH ? readByte : Bits.reverse8(readByte);
+    }
+
+    private int spriteLineAddress(int index, int lineIndex) {
         boolean flipV = spriteAttr(index, SpriteAttr.FLIP_V);
 
         int line = lineIndex - spriteY(index);
         line = flipV ? spritesHeight() - 1 - line : line;
-        
-        int byteIndex = 2 * line + (endian == Endian.MSB ? 1 : 0);
 
-        int readByte = vRam.read(spriteTileAddress(index) + byteIndex);
-        return flipH ? readByte : Bits.reverse8(readByte);
+        return spriteTileAddress(index) + 2 * line;
     }
 
     private int spritePalette(int index) {
@@ -0,0 +1,250 @@
+package ch.epfl.gameboj.component.lcd;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.Stateful;
+
+/**
+ * Represents a mutable image, whose pixels are packed in an array of longs,
+ * two bits (the color value) per pixel
+ *
+ * Unlike LcdImage, a frame buffer can be drawn into line by line without
+ * allocating any object, and reused from one frame to the next.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class LcdFrameBuffer implements Stateful {
+
+    /**
+     * The number of pixels packed in a block
+     */
+    public static final int PIXELS_PER_BLOCK = 32;
+
+    private static final int BITS_PER_PIXEL = 2;
+    private static final int PIXELS_PER_LONG = PIXELS_PER_BLOCK;
+    private static final int PIXEL_MASK = (1 << BITS_PER_PIXEL) - 1;
+
+    private final int width;
+    private final int height;
+    private final int longsPerLine;
+    private final long[] pixels;
+
+    /**
+     * Creates a new frame buffer, with all its pixels of color 0
+     *
+     * @param width : width of the image, positive and multiple of 32
+     * @param height : height of the image, positive
+     * @throws IllegalArgumentException if width or height are invalid
+     */
+    public LcdFrameBuffer(int width, int height) {
+        Preconditions.checkArgument(width > 0 && width % PIXELS_PER_LONG == 0 && height > 0);
+
+        this.width = width;
+        this.height = height;
+        this.longsPerLine = width / PIXELS_PER_LONG;
+        this.pixels = new long[longsPerLine * height];
+    }
+
+    /**
+     * @return the width of the image
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return the height of the image
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the value of the pixel at specified coordinates
+     *
+     * @param x : horizontal position of the pixel
+     * @param y : vertical position of the pixel
+     * @throws IndexOutOfBoundsException if the given coordinates are not in range
+     * @return the color value (0-3) of the pixel
+     */
+    public int get(int x, int y) {
+        Objects.checkIndex(x, width);
+        Objects.checkIndex(y, height);
+
+        long block = pixels[y * longsPerLine + x / PIXELS_PER_LONG];
+        return (int) (block >>> (x % PIXELS_PER_LONG) * BITS_PER_PIXEL) & PIXEL_MASK;
+    }
+
+    /**
+     * Returns a block of consecutive pixels of a line, packed two bits per pixel, the color
+     * of the first pixel being in the least significant bits
+     *
+     * @param y : index of the line
+     * @param blockIndex : index of the block in the line, the first pixel of the block being
+     * at index PIXELS_PER_BLOCK * blockIndex
+     * @throws IndexOutOfBoundsException if the line or the block are not in range
+     * @return the packed pixels
+     */
+    public long block(int y, int blockIndex) {
+        Objects.checkIndex(y, height);
+        Objects.checkIndex(blockIndex, longsPerLine);
+
+        return pixels[y * longsPerLine + blockIndex];
+    }
+
+    /**
+     * Sets the pixels of a line
+     *
+     * @param y : index of the line
+     * @param colors : the color value (0-3) of every pixel of the line, at least width values
+     * @throws IndexOutOfBoundsException if y is not in range
+     * @throws IllegalArgumentException if there are less than width colors
+     */
+    public void setLine(int y, byte[] colors) {
+        Objects.checkIndex(y, height);
+        Preconditions.checkArgument(colors.length >= width);
+
+        int x = 0;
+        for (int i = y * longsPerLine; i < (y + 1) * longsPerLine; i++) {
+            long block = 0;
+            for (int p = 0; p < PIXELS_PER_LONG; p++, x++) {
+                block |= (long) (colors[x] & PIXEL_MASK) << p * BITS_PER_PIXEL;
+            }
+            pixels[i] = block;
+        }
+    }
+
+    /**
+     * Sets the pixels of a line to the colors of an image line
+     *
+     * @param y : index of the line
+     * @param line : the line, of size width
+     * @throws IndexOutOfBoundsException if y is not in range
+     * @throws IllegalArgumentException if the line has an incorrect size
+     */
+    public void setLine(int y, LcdImageLine line) {
+        Objects.checkIndex(y, height);
+        Preconditions.checkArgument(line.size() == width);
+
+        int x = 0;
+        for (int i = y * longsPerLine; i < (y + 1) * longsPerLine; i++) {
+            long block = 0;
+            for (int p = 0; p < PIXELS_PER_LONG; p++, x++) {
+                int msb = line.msb().testBit(x) ? 0b10 : 0;
+                int lsb = line.lsb().testBit(x) ? 0b01 : 0;
+                block |= (long) (msb | lsb) << p * BITS_PER_PIXEL;
+            }
+            pixels[i] = block;
+        }
+    }
+
+    /**
+     * Copies all the pixels of another frame buffer into this one
+     *
+     * @param that : frame buffer of the same size
+     * @throws IllegalArgumentException if the sizes don't match
+     */
+    public void copyFrom(LcdFrameBuffer that) {
+        Preconditions.checkArgument(that.width == width && that.height == height);
+        System.arraycopy(that.pixels, 0, pixels, 0, pixels.length);
+    }
+
+    /**
+     * Builds an immutable image with the current pixels of the frame buffer.
+     * The opacity of every pixel of the image is true iff its color is not 0
+     *
+     * @return the new image
+     */
+    public LcdImage toImage() {
+        LcdImage.Builder builder = new LcdImage.Builder(width, height);
+
+        for (int y = 0; y < height; y++) {
+            builder.setLine(y, line(y));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Builds an image line with the current pixels of a line of the frame buffer.
+     * The opacity of every pixel is true iff its color is not 0
+     *
+     * @param y : index of the line
+     * @throws IndexOutOfBoundsException if y is not in range
+     * @return the new line
+     */
+    public LcdImageLine line(int y) {
+        Objects.checkIndex(y, height);
+        LcdImageLine.Builder lineBuilder = new LcdImageLine.Builder(width);
+
+        int byteIndex = 0;
+        for (int i = y * longsPerLine; i < (y + 1) * longsPerLine; i++) {
+            long block = pixels[i];
+            for (int b = 0; b < Long.BYTES / BITS_PER_PIXEL; b++, byteIndex++) {
+                int msb = 0, lsb = 0;
+                for (int p = 0; p < Byte.SIZE; p++, block >>>= BITS_PER_PIXEL) {
+                    msb |= (int) (block >>> 1 & 1) << p;
+                    lsb |= (int) (block & 1) << p;
+                }
+                lineBuilder.setBytes(byteIndex, msb, lsb);
+            }
+        }
+
+        return lineBuilder.build();
+    }
+
+    /**
+     * Two frame buffers are equal iff they have the same size and the same pixels
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object that) {
+        if (!(that instanceof LcdFrameBuffer)) {
+            return false;
+        }
+
+        LcdFrameBuffer o = (LcdFrameBuffer) that;
+        return width == o.width && height == o.height && Arrays.equals(pixels, o.pixels);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, Arrays.hashCode(pixels));
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        if (buffer.remaining() < pixels.length * Long.BYTES) {
+            throw new BufferOverflowException();
+        }
+        // Long by long, since a view of the buffer would be allocated
+        for (long block : pixels) {
+            buffer.putLong(block);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        if (buffer.remaining() < pixels.length * Long.BYTES) {
+            throw new BufferUnderflowException();
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = buffer.getLong();
+        }
+    }
+}
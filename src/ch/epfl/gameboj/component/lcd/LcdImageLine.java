@@ -3,8 +3,9 @@ package ch.epfl.gameboj.component.lcd;
 import java.util.Objects;
 
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.bits.BitPlanes;
 import ch.epfl.gameboj.bits.BitVector;
-import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.bits.MutableBitVector;
 
 /**
  * Represents a line of pixels part of an image
@@ -14,8 +15,6 @@ import ch.epfl.gameboj.bits.Bits;
  */
 public final class LcdImageLine {
 
-    private static final int NUMBER_OF_COLORS = 4;
-
     private static final int NOP_PALETTE = 0b11100100;
 
     private final BitVector msb;
@@ -165,17 +164,11 @@ public final class LcdImageLine {
             return this;
         }
 
-        BitVector newMsb = msb;
-        BitVector newLsb = lsb;
-
-        for (int i = 0; i < NUMBER_OF_COLORS; i++) {
-            int color = extractColor(palette, i);
-            BitVector mask = generateMask(i);
-            newMsb = applyColorMap(extractReplacement(color, false), newMsb, mask);
-            newLsb = applyColorMap(extractReplacement(color, true), newLsb, mask);
-        }
+        MutableBitVector newMsb = new MutableBitVector(size);
+        MutableBitVector newLsb = new MutableBitVector(size);
+        BitPlanes.mapColorsInto(msb, lsb, palette, newMsb, newLsb);
 
-        return new LcdImageLine(newMsb, newLsb, opacity);
+        return new LcdImageLine(newMsb.toBitVector(), newLsb.toBitVector(), opacity);
     }
 
     /**
@@ -229,6 +222,29 @@ public final class LcdImageLine {
         return new LcdImageLine(newMsb, newLsb, newOpacity);
     }
 
+    /**
+     * Superimposes two lines of sprites and this line : the sprites behind the background are
+     * visible where this line is transparent, and the other sprites wherever they are opaque. Equal
+     * to bgSprites.below(this, opacity().or(bgSprites.opacity().not())).below(fgSprites), the
+     * three lines being combined in a single pass
+     * 
+     * @param bgSprites : the line of the sprites behind the background
+     * @param fgSprites : the line of the other sprites
+     * @throws IllegalArgumentException if lines are not the same size
+     * @return a new line with the pixels of the combined lines
+     */
+    public LcdImageLine withSprites(LcdImageLine bgSprites, LcdImageLine fgSprites) {
+        Preconditions.checkArgument(size == bgSprites.size && size == fgSprites.size);
+
+        BitVector newMsb = BitPlanes.composeSprites(msb, opacity, bgSprites.msb, bgSprites.opacity,
+                fgSprites.msb, fgSprites.opacity);
+        BitVector newLsb = BitPlanes.composeSprites(lsb, opacity, bgSprites.lsb, bgSprites.opacity,
+                fgSprites.lsb, fgSprites.opacity);
+
+        // The background sprites are below an opaque mask wherever they are transparent
+        return new LcdImageLine(newMsb, newLsb, new BitVector(size, true));
+    }
+
     @Override
     public boolean equals(Object that) {
         if (that instanceof LcdImageLine && ((LcdImageLine) that).size == size) {
@@ -245,37 +261,8 @@ public final class LcdImageLine {
         return Objects.hash(msb, lsb, opacity);
     }
 
-    private BitVector applyColorMap(boolean repl, BitVector bits, BitVector mask) {
-        BitVector replacement = new BitVector(size, repl);
-        return multiplexer(replacement, bits, mask);
-    }
-
-    private BitVector generateMask(int color) {
-        switch (color) {
-        case 0b00:
-            return msb.not().and(lsb.not());
-        case 0b01:
-            return msb.not().and(lsb);
-        case 0b10:
-            return msb.and(lsb.not());
-        case 0b11:
-            return msb.and(lsb);
-
-        default:
-            throw new IllegalArgumentException("Invalid color code");
-        }
-    }
-
     private BitVector multiplexer(BitVector high, BitVector low, BitVector toggle) {
-        return high.and(toggle).or(low.and(toggle.not()));
-    }
-
-    private boolean extractReplacement(int color, boolean isLsb) {
-        return Bits.test(color, isLsb ? 0 : 1);
-    }
-
-    private int extractColor(int palette, int index) {
-        return Bits.clip(2, palette >>> index * 2);
+        return BitPlanes.multiplex(high, low, toggle);
     }
 
 }
@@ -0,0 +1,165 @@
+package ch.epfl.gameboj.component.lcd;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.Component;
+
+/**
+ * Index of the sprites intersecting every line of the lcd
+ *
+ * The sprites of a line are the first ten sprites of the sprite memory intersecting it, sorted by
+ * x coordinate then by index, and split between the sprites behind the background and the others.
+ * The sprites of a line are selected when it is first used after a write which may change them :
+ * a write to the y coordinate of a sprite changes the lines it intersected and the ones it now
+ * intersects, a write to its x coordinate or its attributes only the lines it intersects, and a
+ * change of the height of the sprites all the lines.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+final class SpriteIndex {
+
+    private static final int LINES = LcdController.LCD_HEIGHT;
+    private static final int SPRITE_BYTES = 4;
+    private static final int SPRITES_IN_MEMORY = AddressMap.OAM_RAM_SIZE / SPRITE_BYTES;
+    private static final int SPRITES_PER_LINE = 10;
+
+    private static final int Y_BYTE = 0;
+    private static final int X_BYTE = 1;
+    private static final int TILE_BYTE = 2;
+    private static final int ATTR_BYTE = 3;
+    private static final int Y_OFFSET = 16;
+    private static final int BEHIND_BG_BIT = 7;
+
+    private final Component oam;
+    private int spritesHeight = 8;
+
+    // The sprites of a line behind the background are stored at [2 * line], the others at [2 * line + 1]
+    private final int[] sprites = new int[2 * LINES * SPRITES_PER_LINE];
+    private final int[] counts = new int[2 * LINES];
+    private final boolean[] valid = new boolean[LINES];
+    private final int[] selected = new int[SPRITES_PER_LINE];
+
+    /**
+     * Creates a new index, all of whose lines are invalid, for sprites 8 pixels high
+     * @param oam : the sprite memory, addressed from 0, non null
+     * @throws NullPointerException if oam is null
+     */
+    SpriteIndex(Component oam) {
+        this.oam = Objects.requireNonNull(oam);
+    }
+
+    /**
+     * Returns the number of sprites of a line with given priority
+     * @param line : index of the line
+     * @param behindBackground : true for the sprites behind the background, false for the others
+     * @return the number of sprites, at most 10
+     */
+    int count(int line, boolean behindBackground) {
+        if (!valid[line]) {
+            select(line);
+        }
+
+        return counts[slot(line, behindBackground)];
+    }
+
+    /**
+     * Returns the index of a sprite of a line with given priority, in drawing order. Must be called
+     * after count, which selects the sprites of the line
+     * @param line : index of the line
+     * @param behindBackground : true for the sprites behind the background, false for the others
+     * @param i : index of the sprite in the line, lower than its count
+     * @return the index of the sprite in the sprite memory
+     */
+    int sprite(int line, boolean behindBackground, int i) {
+        return sprites[slot(line, behindBackground) * SPRITES_PER_LINE + i];
+    }
+
+    /**
+     * Invalidates the lines whose sprites may be changed by a write to the sprite memory. Must be
+     * called before every write
+     * @param address : index of the written byte in the sprite memory
+     * @param data : the written byte
+     */
+    void invalidate(int address, int data) {
+        int old = oam.read(address);
+        if (old == data) {
+            return;
+        }
+
+        int sprite = address - address % SPRITE_BYTES;
+        switch (address % SPRITE_BYTES) {
+        case Y_BYTE:
+            invalidateLines(old);
+            invalidateLines(data);
+            break;
+        case X_BYTE:
+            invalidateLines(oam.read(sprite + Y_BYTE));
+            break;
+        case TILE_BYTE:
+            break;
+        case ATTR_BYTE:
+            if (Bits.test(old ^ data, BEHIND_BG_BIT)) {
+                invalidateLines(oam.read(sprite + Y_BYTE));
+            }
+            break;
+        }
+    }
+
+    /**
+     * Sets the height of the sprites, invalidating all the lines if it changes
+     * @param height : 8 or 16
+     */
+    void setSpritesHeight(int height) {
+        if (height != spritesHeight) {
+            spritesHeight = height;
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidates all the lines, for example after the whole sprite memory has been replaced
+     */
+    void invalidateAll() {
+        Arrays.fill(valid, false);
+    }
+
+    private void invalidateLines(int yByte) {
+        int top = yByte - Y_OFFSET;
+        int from = Math.max(0, top);
+        int to = Math.min(LINES, top + spritesHeight);
+        for (int line = from; line < to; line++) {
+            valid[line] = false;
+        }
+    }
+
+    private void select(int line) {
+        int spritesSelected = 0;
+        for (int s = 0; s < SPRITES_IN_MEMORY && spritesSelected < SPRITES_PER_LINE; s++) {
+            int distance = line - (oam.read(SPRITE_BYTES * s + Y_BYTE) - Y_OFFSET);
+            if (0 <= distance && distance < spritesHeight) {
+                selected[spritesSelected++] = Bits.make16(oam.read(SPRITE_BYTES * s + X_BYTE), s);
+            }
+        }
+
+        Arrays.sort(selected, 0, spritesSelected);
+
+        int bg = slot(line, true), fg = slot(line, false);
+        counts[bg] = 0;
+        counts[fg] = 0;
+        for (int i = 0; i < spritesSelected; i++) {
+            int sprite = Bits.clip(8, selected[i]);
+            int s = Bits.test(oam.read(SPRITE_BYTES * sprite + ATTR_BYTE), BEHIND_BG_BIT) ? bg : fg;
+            sprites[s * SPRITES_PER_LINE + counts[s]++] = sprite;
+        }
+
+        valid[line] = true;
+    }
+
+    private static int slot(int line, boolean behindBackground) {
+        return behindBackground ? 2 * line : 2 * line + 1;
+    }
+}
@@ -0,0 +1,99 @@
+package ch.epfl.gameboj.component.lcd;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.Component;
+
+/**
+ * Cache of the decoded lines of the tiles stored in video memory
+ *
+ * Every line of a tile is stored as a 16-bit word, in which the color of the pixel at index i
+ * (0 being the leftmost pixel) is given by bits 2i (lsb) and 2i + 1 (msb). The lines of a tile
+ * are decoded when it is first used after one of its bytes has been written.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+final class TileCache {
+
+    private static final int TILE_BYTES = 16;
+    private static final int TILE_LINES = 8;
+    private static final int TILES_START = AddressMap.TILE_SOURCE[1];
+    private static final int NUMBER_OF_TILES = 384;
+    private static final int TILES_END = TILES_START + NUMBER_OF_TILES * TILE_BYTES;
+
+    // Spreads the bits of a byte on the even bits of a word, in reverse order
+    private static final int[] SPREAD_REVERSED = buildSpreadTable();
+
+    private final Component vRam;
+    private final int[] lines = new int[NUMBER_OF_TILES * TILE_LINES];
+    private final boolean[] valid = new boolean[NUMBER_OF_TILES];
+
+    /**
+     * Creates a new cache, all of whose tiles are invalid
+     * @param vRam : the video memory, non null
+     * @throws NullPointerException if vRam is null
+     */
+    TileCache(Component vRam) {
+        this.vRam = Objects.requireNonNull(vRam);
+    }
+
+    /**
+     * Returns the decoded line of a tile
+     * @param address : the address of the line in video memory (the address of its lsb)
+     * @return the interleaved colors of the 8 pixels of the line
+     */
+    int line(int address) {
+        int tile = (address - TILES_START) / TILE_BYTES;
+
+        if (!valid[tile]) {
+            decode(tile);
+        }
+
+        return lines[(address - TILES_START) / 2];
+    }
+
+    /**
+     * Invalidates the tile containing given address, if any. Must be called every time
+     * the video memory is written
+     * @param address : the written address
+     */
+    void invalidate(int address) {
+        if (TILES_START <= address && address < TILES_END) {
+            valid[(address - TILES_START) / TILE_BYTES] = false;
+        }
+    }
+
+    /**
+     * Invalidates all the tiles, for example after the whole video memory has been replaced
+     */
+    void invalidateAll() {
+        Arrays.fill(valid, false);
+    }
+
+    private void decode(int tile) {
+        int address = TILES_START + tile * TILE_BYTES;
+
+        for (int i = tile * TILE_LINES; i < (tile + 1) * TILE_LINES; i++, address += 2) {
+            int lsb = vRam.read(address);
+            int msb = vRam.read(address + 1);
+            lines[i] = SPREAD_REVERSED[lsb] | SPREAD_REVERSED[msb] << 1;
+        }
+
+        valid[tile] = true;
+    }
+
+    private static int[] buildSpreadTable() {
+        int[] table = new int[1 << Byte.SIZE];
+
+        for (int b = 0; b < table.length; b++) {
+            for (int i = 0; i < Byte.SIZE; i++) {
+                table[b] |= ((b >>> (Byte.SIZE - 1 - i)) & 1) << 2 * i;
+            }
+        }
+
+        return table;
+    }
+}
@@ -1,10 +1,13 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
 
 /**
@@ -13,7 +16,7 @@ import ch.epfl.gameboj.component.Component;
  *  @author Sylvain Kuchen (282380)
  *  @author Luca Bataillard (282152)
  */
-public final class BootRomController implements Component {
+public final class BootRomController implements Component, Stateful {
     
     private final Cartridge cartridge;
     private final Rom bootRom;
@@ -29,6 +32,16 @@ public final class BootRomController implements Component {
         bootRomEnabled = true;
     }
     
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#attachTo(ch.epfl.gameboj.Bus)
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attach(this, AddressMap.CARTRIDGE_ROM_START, AddressMap.CARTRIDGE_ROM_END);
+        bus.attach(this, AddressMap.CARTRIDGE_RAM_START, AddressMap.CARTRIDGE_RAM_END);
+        bus.attach(this, AddressMap.REG_BOOT_ROM_DISABLE, AddressMap.REG_BOOT_ROM_DISABLE + 1);
+    }
+    
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Component#read(int)
      */
@@ -57,4 +70,34 @@ public final class BootRomController implements Component {
         
         cartridge.write(address, data);
     }
+
+    /**
+     * Identifies the contents of a half of the rom area : the rom bank of the cartridge mapped there
+     * and, for the first half, whether the boot rom is enabled
+     * @param half : 0 for the first half of the rom area, 1 for the second one
+     * @return an integer, equal for equal contents
+     */
+    public int codeMapping(int half) {
+        int mapping = cartridge.romBank(half) << 1;
+        return half == 0 && bootRomEnabled ? mapping | 1 : mapping;
+    }
+
+    /**
+     * Saves whether the boot rom is enabled, then the state of the cartridge
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (bootRomEnabled ? 1 : 0));
+        cartridge.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        bootRomEnabled = buffer.get() != 0;
+        cartridge.loadState(buffer);
+    }
 }
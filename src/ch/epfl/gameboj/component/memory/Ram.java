@@ -1,35 +1,79 @@
 package ch.epfl.gameboj.component.memory;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
 import java.util.Objects;
 
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.Stateful;
 import ch.epfl.gameboj.component.Component;
 
 /**
- * Random access memory that stores a byte array
+ * Random access memory that stores its bytes in a buffer : its own memory, or a backing
+ * store given at creation, for example a file mapped in memory
  * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
-public final class Ram implements Component {
+public final class Ram implements Component, Stateful {
     
-    private final byte[] memory;
+    private final ByteBuffer memory;
     
     /**
-     * Creates a new Ram object
+     * Creates a new Ram object, initially filled with zeros
      * @param size : the size of memory in bytes
      * @throws IllegalArgumentException if size strictly negative
      */
     public Ram(int size) {
         Preconditions.checkArgument(size >= 0);
-        memory = new byte[size];
+        memory = ByteBuffer.allocate(size);
+    }
+    
+    /**
+     * Creates a new Ram object storing its bytes in a buffer, from its position to its limit
+     * @param store : the buffer, writable, whose bytes are not copied
+     * @throws NullPointerException if store is null
+     * @throws IllegalArgumentException if store is read-only
+     */
+    public Ram(ByteBuffer store) {
+        Preconditions.checkArgument(!store.isReadOnly());
+        memory = store.slice();
+    }
+    
+    /**
+     * Creates a new Ram object storing its bytes in a file mapped in memory, so that every
+     * write goes to the file, without any explicit save. The file is created or extended with
+     * zeros if it's shorter than the ram, and only its first bytes are used if it's longer
+     * @param file : the path to the file, non null
+     * @param size : the size of memory in bytes
+     * @throws IOException if the file can't be opened or mapped
+     * @throws IllegalArgumentException if size strictly negative
+     * @return the ram
+     */
+    public static Ram ofFile(Path file, int size) throws IOException {
+        Preconditions.checkArgument(size >= 0);
+        
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE, CREATE)) {
+            // The mapping stays valid once the channel is closed
+            return new Ram(channel.map(MapMode.READ_WRITE, 0, size));
+        }
     }
     
     /**
      * @return the size of the memory in bytes
      */
     public int size() {
-        return memory.length;
+        return memory.capacity();
     }
     
     /**
@@ -40,9 +84,7 @@ public final class Ram implements Component {
      */
     @Override
     public int read(int index) {
-        Objects.checkIndex(index, size());
-        
-        return Byte.toUnsignedInt(memory[index]);
+        return Byte.toUnsignedInt(memory.get(index));
     }
     
     /**
@@ -56,6 +98,91 @@ public final class Ram implements Component {
     public void write(int index, int value) {
         Objects.checkIndex(index, size());
         
-        memory[index] = (byte) Preconditions.checkBits8(value);
+        memory.put(index, (byte) Preconditions.checkBits8(value));
+    }
+    
+    /**
+     * Copies a range of the memory into an array
+     * @param index : index of the first byte to copy
+     * @param dest : the destination array
+     * @param destIndex : index in the destination array of the first copied byte
+     * @param length : the number of bytes to copy
+     * @throws IndexOutOfBoundsException if a range is not valid
+     * @throws NullPointerException if dest is null
+     */
+    public void copyTo(int index, byte[] dest, int destIndex, int length) {
+        memory.get(index, dest, destIndex, length);
+    }
+    
+    /**
+     * Copies an array into a range of the memory
+     * @param src : the source array
+     * @param srcIndex : index in the source array of the first byte to copy
+     * @param index : index of the memory at which the bytes are copied
+     * @param length : the number of bytes to copy
+     * @throws IndexOutOfBoundsException if a range is not valid
+     * @throws NullPointerException if src is null
+     */
+    public void copyFrom(byte[] src, int srcIndex, int index, int length) {
+        memory.put(index, src, srcIndex, length);
+    }
+    
+    /**
+     * Copies a range of a buffer into a range of the memory, if their bytes differ
+     * @param src : the source buffer, whose position is not modified
+     * @param srcIndex : index in the source buffer of the first byte to copy
+     * @param index : index of the memory at which the bytes are copied
+     * @param length : the number of bytes to copy
+     * @throws IndexOutOfBoundsException if a range is not valid
+     * @throws NullPointerException if src is null
+     * @return true if at least one byte differed, and the range was thus copied
+     */
+    public boolean copyFromIfDifferent(ByteBuffer src, int srcIndex, int index, int length) {
+        Objects.checkFromIndexSize(index, length, size());
+        Objects.checkFromIndexSize(srcIndex, length, src.limit());
+        
+        for (int i = 0; i < length; i++) {
+            if (memory.get(index + i) != src.get(srcIndex + i)) {
+                memory.put(index + i, src, srcIndex + i, length - i);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Writes the bytes of the ram to the storage device, if they are stored in a file
+     * mapped in memory, and does nothing otherwise
+     * @throws java.io.UncheckedIOException if the bytes can't be written
+     */
+    public void force() {
+        if (memory instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) memory).force();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        if (buffer.remaining() < size()) {
+            throw new BufferOverflowException();
+        }
+        int position = buffer.position();
+        buffer.put(position, memory, 0, size()).position(position + size());
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        if (buffer.remaining() < size()) {
+            throw new BufferUnderflowException();
+        }
+        int position = buffer.position();
+        memory.put(0, buffer, position, size());
+        buffer.position(position + size());
     }
 }
@@ -2,6 +2,7 @@ package ch.epfl.gameboj.component.memory;
 
 import java.util.Objects;
 
+import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.component.Component;
 
@@ -45,6 +46,15 @@ public final class RamController implements Component {
         this(ram, startAddress, startAddress + ram.size());
     }
 
+    /**
+     * Attaches the controller to the bus, on its address range
+     * @param bus
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attach(this, START_ADDRESS, END_ADDRESS);
+    }
+
     /**
      * Reads data at specified address
      * @param address, 16-bits, in range
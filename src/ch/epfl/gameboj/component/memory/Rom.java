@@ -1,17 +1,17 @@
 package ch.epfl.gameboj.component.memory;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
- * Read-only memory that stores a byte array
+ * Read-only memory that stores a copy of a byte array or of a file, in a direct buffer
  * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
  */
 public final class Rom {
     
-    private final byte[] memory;
+    private final ByteBuffer memory;
     
     /**
      * Creates a new ROM
@@ -20,14 +20,30 @@ public final class Rom {
     public Rom(byte[] data) {
         Objects.requireNonNull(data);
         
-        memory = Arrays.copyOf(data, data.length);
+        // Copied to a direct buffer, like the files, so that reads always run the same code
+        memory = ByteBuffer.allocateDirect(data.length).put(data).asReadOnlyBuffer();
+    }
+    
+    private Rom(ByteBuffer memory) {
+        this.memory = memory;
+    }
+    
+    /**
+     * Creates a ROM reading the contents of a buffer, which are not copied
+     * @param contents : the buffer, from its position to its limit, whose contents must never change,
+     * thus not shared with any other object
+     * @throws NullPointerException if contents is null
+     * @return a ROM sharing the contents of the buffer
+     */
+    static Rom ofContents(ByteBuffer contents) {
+        return new Rom(contents.slice().asReadOnlyBuffer());
     }
     
     /**
      * @return the size of the ROM
      */
     public int size() {
-        return memory.length;
+        return memory.capacity();
     }
     
     /**
@@ -37,9 +53,6 @@ public final class Rom {
      * @return the unsigned byte at specified index
      */
     public int read(int index) {
-        Objects.checkIndex(index, size());
-        
-        return Byte.toUnsignedInt(memory[index]);
+        return Byte.toUnsignedInt(memory.get(index));
     }
-    
 }
@@ -0,0 +1,144 @@
+package ch.epfl.gameboj.component.memory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Loads the ROMs of files, so that all the ROMs of a file share the same copy of its contents
+ *
+ * The contents of a file are copied into its ROM when it is loaded : a ROM never changes, even
+ * if its file is modified or truncated afterwards. A ROM is kept for the MAX_ROMS files loaded
+ * last, as long as the size, the time of last modification and the key of the file (its inode on
+ * most systems) stay the same, and its contents still have the CRC32 computed when it was loaded.
+ * The attributes alone miss a file rewritten in place within the resolution of its time of last
+ * modification, or whose time is restored (cp -p, touch -r, FAT and HFS+ file systems). Loading a
+ * file again thus reads it once to check its CRC32 but doesn't copy it, and a file modified in
+ * place or replaced by another one is loaded again. A ROM removed from the cache stays valid as
+ * long as it is used.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class RomCache {
+
+    /**
+     * The maximal number of ROMs kept in the cache
+     */
+    public static final int MAX_ROMS = 16;
+
+    private static final int CHECK_BUFFER_SIZE = 1 << 16;
+
+    private static final Map<Path, Entry> roms = new LinkedHashMap<Path, Entry>(MAX_ROMS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+            return size() > MAX_ROMS;
+        }
+    };
+
+    private RomCache() {}
+
+    /**
+     * Returns the ROM of a file, loading it if it's not in the cache or the file has changed
+     * @param file : the path to the file, non null
+     * @return the ROM, which contains the whole file
+     * @throws NullPointerException if file is null
+     * @throws IOException if the file can't be read or is too big to be a ROM
+     */
+    public static Rom of(Path file) throws IOException {
+        Path key = file.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        Entry entry;
+        synchronized (roms) {
+            entry = roms.get(key);
+        }
+        if (entry != null && entry.matches(attributes) && entry.crc == crc(key)) {
+            return entry.rom;
+        }
+
+        // The attributes are read before the contents : a file modified while being read is
+        // read again by the next load
+        ByteBuffer contents = read(key, attributes.size());
+        CRC32 crc = new CRC32();
+        crc.update(contents.duplicate());
+        Rom rom = Rom.ofContents(contents);
+        synchronized (roms) {
+            roms.put(key, new Entry(attributes, crc.getValue(), rom));
+        }
+        return rom;
+    }
+
+    /**
+     * Removes all the ROMs from the cache. The ROMs already loaded stay valid
+     */
+    public static void clear() {
+        synchronized (roms) {
+            roms.clear();
+        }
+    }
+
+    private static ByteBuffer read(Path file, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too big to be a ROM : " + file);
+        }
+
+        ByteBuffer contents = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) {
+                    throw new EOFException("File truncated while being read : " + file);
+                }
+            }
+        }
+        return contents.flip();
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECK_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                crc.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * A ROM of the cache, with the attributes and the CRC32 of its file when it was loaded
+     */
+    private static final class Entry {
+        private final long size;
+        private final FileTime lastModified;
+        private final Object fileKey;
+        private final long crc;
+        private final Rom rom;
+
+        Entry(BasicFileAttributes attributes, long crc, Rom rom) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+            this.crc = crc;
+            this.rom = rom;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == size && attributes.lastModifiedTime().equals(lastModified)
+                    && Objects.equals(attributes.fileKey(), fileKey);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.RewindBuffer;
+import ch.epfl.gameboj.RunAhead;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
+
+/**
+ * Runs a gameboy in real time on a dedicated thread
+ *
+ * The images of the gameboy are published through a triple buffer, and the key presses
+ * are received through a queue, so that the emulation never waits for the user interface.
+ * The gameboy is recorded at the end of every frame, and can be rewound instead of run,
+ * at the speed at which it normally runs. In run-ahead mode, every image shown is the one
+ * the gameboy will produce a few frames later with the current inputs.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class Emulator {
+
+    private static final long PAUSE_NANOS = 2_000_000;
+    // The emulation does not try to catch up on more than this delay, e.g. after a pause of the process
+    private static final long MAX_DELAY_CYCLES = GameBoy.CYCLES_PER_SECOND / 4;
+    private static final long FRAME_NANOS = (long) (LcdController.CYCLES_PER_FRAME / GameBoy.CYCLES_PER_NANOSECOND);
+
+    private final GameBoy gb;
+    private final JoypadInput input = new JoypadInput();
+    private final TripleBuffer<LcdFrameBuffer> frames =
+            new TripleBuffer<>(() -> new LcdFrameBuffer(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT));
+    private final RewindBuffer rewindBuffer = new RewindBuffer();
+    private final RunAhead runAhead;
+    private final Thread thread;
+
+    private volatile boolean running = false;
+    private volatile boolean rewinding = false;
+
+    /**
+     * Creates a new emulator, which is not started yet, showing the images as they are produced
+     * @param gb : the gameboy to run, non null
+     * @throws NullPointerException if gb is null
+     */
+    public Emulator(GameBoy gb) {
+        this(gb, 0);
+    }
+
+    /**
+     * Creates a new emulator, which is not started yet, in run-ahead mode
+     * @param gb : the gameboy to run, non null
+     * @param runAheadFrames : the number of frames to run ahead of the shown images, positive
+     * @throws NullPointerException if gb is null
+     * @throws IllegalArgumentException if runAheadFrames is negative
+     */
+    public Emulator(GameBoy gb, int runAheadFrames) {
+        this.gb = Objects.requireNonNull(gb);
+        this.runAhead = new RunAhead(runAheadFrames);
+        this.thread = new Thread(this::run, "Emulation");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @return the queue through which the keys reach the joypad of the gameboy
+     */
+    public JoypadInput input() {
+        return input;
+    }
+
+    /**
+     * @return the triple buffer through which the images of the gameboy are published
+     */
+    public TripleBuffer<LcdFrameBuffer> frames() {
+        return frames;
+    }
+
+    /**
+     * Sets whether the gameboy is rewound, one frame at a time, instead of being run
+     * @param rewinding : true to rewind the gameboy, false to run it
+     */
+    public void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+    /**
+     * Starts running the gameboy
+     * @throws IllegalStateException if the emulator has already been started
+     */
+    public void start() {
+        if (running || thread.isAlive()) {
+            throw new IllegalStateException("The emulator has already been started");
+        }
+
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops running the gameboy, and waits until it is stopped. The gameboy can then
+     * safely be accessed from the calling thread
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long startTime = System.nanoTime();
+        long startCycles = gb.cycles();
+        long nextRewindTime = startTime;
+
+        while (running) {
+            input.applyTo(gb.joypad());
+
+            if (rewinding) {
+                long now = System.nanoTime();
+                if (now - nextRewindTime >= 0) {
+                    if (rewindBuffer.rewind(gb)) {
+                        publishFrame();
+                    }
+                    nextRewindTime = now + FRAME_NANOS;
+                }
+
+                // Resumes running from the restored cycle, as if it was just started
+                startTime = now;
+                startCycles = gb.cycles();
+                LockSupport.parkNanos(PAUSE_NANOS);
+                continue;
+            }
+
+            long elapsedNanos = System.nanoTime() - startTime;
+            long target = startCycles + (long) (elapsedNanos * GameBoy.CYCLES_PER_NANOSECOND);
+
+            long skippedCycles = target - gb.cycles() - MAX_DELAY_CYCLES;
+            if (skippedCycles > 0) {
+                startCycles -= skippedCycles;
+                target -= skippedCycles;
+            }
+
+            if (target > gb.cycles()) {
+                boolean frameEnded = runAndRecord(target);
+
+                // A new image is only produced once per frame, so is the speculative one
+
+                if (runAhead.frames() == 0) {
+                    publishFrame();
+                } else if (frameEnded) {
+                    runAhead.showAhead(gb, frames.back());
+                    frames.publish();
+                }
+            }
+
+            LockSupport.parkNanos(PAUSE_NANOS);
+        }
+    }
+
+    /**
+     * Runs the gameboy up to given cycle, recording it at the end of every frame
+     * @return true iff at least one frame ended
+     */
+    private boolean runAndRecord(long target) {
+        boolean frameEnded = false;
+
+        while (gb.cycles() < target) {
+            long frameEnd = (gb.cycles() / LcdController.CYCLES_PER_FRAME + 1) * LcdController.CYCLES_PER_FRAME;
+            gb.runUntil(Math.min(target, frameEnd));
+
+            if (gb.cycles() == frameEnd) {
+                rewindBuffer.record(gb);
+                frameEnded = true;
+            }
+        }
+
+        return frameEnded;
+    }
+
+    private void publishFrame() {
+        frames.back().copyFrom(gb.lcdController().currentFrame());
+        frames.publish();
+    }
+}
@@ -3,10 +3,10 @@ package ch.epfl.gameboj.gui;
 import java.util.Objects;
 
 import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.RunAhead;
 import ch.epfl.gameboj.component.lcd.LcdController;
-import ch.epfl.gameboj.component.lcd.LcdImage;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
 import javafx.animation.AnimationTimer;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
@@ -24,18 +24,18 @@ public final class GBScreen {
     public static final int HEIGHT = GUI_SCALE * LcdController.LCD_HEIGHT;
     
     private final ImageView imgView;
+    private final ImageConverter converter = new ImageConverter();
     private final BorderPane pane;
     private final AnimationTimer timer = createTimer();
 
-    private double previousTime = 0;
-    private GameBoy gb;
+    private Emulator emulator;
     private KeyboardHandler kh;
 
     /**
      * Creates a new GBScreen
      */
     public GBScreen() {
-        this.imgView = new ImageView();
+        this.imgView = new ImageView(converter.image());
         this.pane = new BorderPane(imgView);
         this.kh = new KeyboardHandler(pane);
         
@@ -45,25 +45,31 @@ public final class GBScreen {
     }
     
     /**
-     * Attaches gameboy to screen
+     * Attaches gameboy to screen, and starts running it on its own thread
      * @param gb
      */
     public void attachGameboy(GameBoy gb) {
-        this.gb = Objects.requireNonNull(gb);
-        kh.attach(gb.joypad());
+        // Running ahead hides the lag between an input and the image reflecting it, but every shown
+        // frame then costs a save, the frames run ahead and a load
+        emulator = new Emulator(Objects.requireNonNull(gb), Integer.getInteger(RunAhead.FRAMES_PROPERTY, 0));
+        kh.attach(emulator);
         
-        previousTime = System.nanoTime();
         imgView.requestFocus();
+        emulator.start();
         timer.start();
     }
     
     /**
-     * Detaches the current gameboy and keyboard from the screen
+     * Detaches the current gameboy and keyboard from the screen. Returns once the
+     * gameboy is stopped
      */
     public void detachGameboy() {
 		kh.detach();    		    	
     	timer.stop();
-    	gb = null;
+    	if (emulator != null) {
+    	    emulator.stop();
+    	    emulator = null;
+    	}
     }
     
     /**
@@ -77,17 +83,12 @@ public final class GBScreen {
         return new AnimationTimer() {
         	@Override
             public void handle(long currentNanoTime) {
-                long cycles = (long) ((currentNanoTime - previousTime) * GameBoy.CYCLES_PER_NANOSECOND);
-                gb.runUntil(gb.cycles() + cycles);
-                previousTime = currentNanoTime;
-                imgView.setImage(getImage(gb));
+                TripleBuffer<LcdFrameBuffer> frames = emulator.frames();
+                if (frames.update()) {
+                    converter.update(frames.front());
+                }
             }
         };
     }
-    
-    private Image getImage(GameBoy gb) {
-        LcdImage currentImage = gb.lcdController().currentImage();
-        return ImageConverter.convert(currentImage);
-    }
 
 }
@@ -1,18 +1,99 @@
 package ch.epfl.gameboj.gui;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
 import ch.epfl.gameboj.component.lcd.LcdImage;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.util.Callback;
 
+/**
+ * Converts the images of the gameboy to javafx images
+ *
+ * An instance keeps a single image, backed by a pixel buffer, which is updated
+ * with the lines of the lcd frame buffer that changed since the previous update.
+ * The pixels are only written inside the callback of the pixel buffer, as javafx requires.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
 public final class ImageConverter {
 
     private static final int[] RGB_VALUES = { 0xFFFFFFFF, 0xFFD3D3D3, 0xFFA9A9A9, 0xFF000000 };
 //  private static final int[] RGB_VALUES = { 0xFF9BBC0F, 0xFF8BAC0F, 0xFF306230, 0xFF0F380F };
-    
+
+    private static final int WIDTH = LcdController.LCD_WIDTH;
+    private static final int HEIGHT = LcdController.LCD_HEIGHT;
+    private static final int BLOCKS_PER_LINE = WIDTH / LcdFrameBuffer.PIXELS_PER_BLOCK;
+
+    // The colors of the 4 pixels packed in a byte of a frame buffer block
+    private static final int PIXELS_PER_BYTE = 4;
+    private static final int[] BYTE_TO_ARGB = buildByteTable();
+
+    private final IntBuffer pixels;
+    private final PixelBuffer<IntBuffer> pixelBuffer;
+    private final WritableImage image;
+    private final long[] shownBlocks = new long[BLOCKS_PER_LINE * HEIGHT];
+    private final Callback<PixelBuffer<IntBuffer>, Rectangle2D> writeFrame = b -> writeFrame();
+
+    // The frame written by the callback, only set during an update
+    private LcdFrameBuffer frame;
+    // The last region signaled to javafx, reused while the same lines change
+    private Rectangle2D dirtyRegion = Rectangle2D.EMPTY;
+
+    /**
+     * Creates a new converter, whose image is initially white
+     */
+    public ImageConverter() {
+        pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            pixels.put(i, RGB_VALUES[0]);
+        }
+
+        pixelBuffer = new PixelBuffer<>(WIDTH, HEIGHT, pixels, PixelFormat.getIntArgbPreInstance());
+        image = new WritableImage(pixelBuffer);
+    }
+
+    /**
+     * @return the image of the converter, which is modified by every update
+     */
+    public Image image() {
+        return image;
+    }
+
+    /**
+     * Updates the image of the converter with an lcd frame. Only the lines which changed
+     * since the last update are converted, and signaled to javafx. Must be called on the
+     * javafx application thread
+     * @param frame : a frame of the size of the lcd
+     * @throws NullPointerException if the frame is null
+     * @throws IllegalArgumentException if the frame does not have the size of the lcd
+     */
+    public void update(LcdFrameBuffer frame) {
+        Objects.requireNonNull(frame);
+        if (frame.width() != WIDTH || frame.height() != HEIGHT) {
+            throw new IllegalArgumentException("Invalid frame size");
+        }
+
+        this.frame = frame;
+        try {
+            pixelBuffer.updateBuffer(writeFrame);
+        } finally {
+            this.frame = null;
+        }
+    }
+
     /**
      * Converts an LcdImage to a writable javafx Image
      * @param image : an lcd image from the gameboy
@@ -33,4 +114,71 @@ public final class ImageConverter {
 
         return wi;
     }
+
+    /**
+     * Converts the lines of the frame which changed since they were last shown
+     * @return the region of the image which changed, null if none did
+     */
+    private Rectangle2D writeFrame() {
+        int dirtyStart = HEIGHT;
+        int dirtyEnd = 0;
+
+        for (int y = 0; y < HEIGHT; y++) {
+            if (updateLine(frame, y)) {
+                dirtyStart = Math.min(dirtyStart, y);
+                dirtyEnd = y + 1;
+            }
+        }
+
+        if (dirtyStart >= dirtyEnd) {
+            return null;
+        }
+        if (dirtyRegion.getMinY() != dirtyStart || dirtyRegion.getMaxY() != dirtyEnd) {
+            dirtyRegion = new Rectangle2D(0, dirtyStart, WIDTH, dirtyEnd - dirtyStart);
+        }
+        return dirtyRegion;
+    }
+
+    /**
+     * Converts a line of the frame if it changed since it was last shown
+     * @return true iff the line changed
+     */
+    private boolean updateLine(LcdFrameBuffer frame, int y) {
+        boolean changed = false;
+
+        for (int i = 0; i < BLOCKS_PER_LINE; i++) {
+            long block = frame.block(y, i);
+            int shownIndex = y * BLOCKS_PER_LINE + i;
+
+            if (block != shownBlocks[shownIndex]) {
+                shownBlocks[shownIndex] = block;
+                writeBlock(block, y * WIDTH + i * LcdFrameBuffer.PIXELS_PER_BLOCK);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private void writeBlock(long block, int index) {
+        for (int b = 0; b < Long.BYTES; b++, block >>>= Byte.SIZE) {
+            int tableIndex = (int) (block & 0xFF) * PIXELS_PER_BYTE;
+
+            for (int p = 0; p < PIXELS_PER_BYTE; p++) {
+                pixels.put(index++, BYTE_TO_ARGB[tableIndex + p]);
+            }
+        }
+    }
+
+    private static int[] buildByteTable() {
+        int[] table = new int[(1 << Byte.SIZE) * PIXELS_PER_BYTE];
+
+        for (int b = 0; b < 1 << Byte.SIZE; b++) {
+            for (int p = 0; p < PIXELS_PER_BYTE; p++) {
+                table[b * PIXELS_PER_BYTE + p] = RGB_VALUES[(b >>> 2 * p) & 0b11];
+            }
+        }
+
+        return table;
+    }
 }
@@ -0,0 +1,61 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
+
+/**
+ * Thread-safe queue of key presses and releases, which can be filled by any thread
+ * and applied to a joypad by the thread running the gameboy
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class JoypadInput {
+
+    private static final Key[] KEYS = Key.values();
+
+    // A change is encoded as 2 * key ordinal + 1 if pressed, so that boxed changes are cached
+    private final Queue<Integer> changes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Adds the press of a key to the queue
+     * @param k : the pressed key
+     * @throws NullPointerException if the key is null
+     */
+    public void keyPressed(Key k) {
+        changes.add(2 * k.ordinal() + 1);
+    }
+
+    /**
+     * Adds the release of a key to the queue
+     * @param k : the released key
+     * @throws NullPointerException if the key is null
+     */
+    public void keyReleased(Key k) {
+        changes.add(2 * k.ordinal());
+    }
+
+    /**
+     * Applies all the queued changes to a joypad, in the order in which they were added,
+     * and removes them from the queue
+     * @param joypad : the joypad, non null
+     * @throws NullPointerException if the joypad is null
+     */
+    public void applyTo(Joypad joypad) {
+        Objects.requireNonNull(joypad);
+
+        Integer change;
+        while ((change = changes.poll()) != null) {
+            Key k = KEYS[change / 2];
+            if (change % 2 == 1) {
+                joypad.keyPressed(k);
+            } else {
+                joypad.keyReleased(k);
+            }
+        }
+    }
+}
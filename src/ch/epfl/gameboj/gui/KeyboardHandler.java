@@ -4,9 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Consumer;
 
-import ch.epfl.gameboj.component.Joypad;
 import ch.epfl.gameboj.component.Joypad.Key;
 import javafx.event.EventHandler;
 import javafx.scene.Node;
@@ -16,7 +14,8 @@ import javafx.scene.input.KeyEvent;
 /**
  * A class used to link a gameboy joypad to a given javafx node.
  * When a key is pressed in javafx, the KeyboardHandler will translate 
- * it into an in-game keypress 
+ * it into an in-game keypress, sent to the joypad of an emulator. Holding
+ * the rewind key rewinds the emulator
  * 
  * @author Sylvain Kuchen (282380)
  * @author Luca Bataillard (282152)
@@ -26,46 +25,55 @@ public final class KeyboardHandler {
     private static final Map<String, Key> TEXT_KEY_MAP = buildTextKeyMap();
     private static final Map<KeyCode, Key> CODE_KEY_MAP = buildCodeKeyMap();
     
+    private static final String REWIND_TEXT = "r";
+
     private final EventHandler<KeyEvent> pressed; 
     private final EventHandler<KeyEvent> released;
-    private Optional<Joypad> joypad = Optional.empty();
+    private Optional<Emulator> emulator = Optional.empty();
     
     /**
-     * Creates a new KeyboardHandler, attached to given node and controlling
-     * given joypad
+     * Creates a new KeyboardHandler, attached to given node
      * @param node : the node to which the KH will be attached
-     * @param joypad : the joypad to be controlled by the KH
-     * @throws NullPointerException if either node or joypad are null
+     * @throws NullPointerException if node is null
      */
     public KeyboardHandler(Node node) {
         Objects.requireNonNull(node);
-        this.pressed = e -> handleKeyEvent(e, k -> joypad.ifPresent(j -> j.keyPressed(k)));
-        this.released = e -> handleKeyEvent(e, k -> joypad.ifPresent(j -> j.keyReleased(k)));
+        this.pressed = e -> emulator.ifPresent(em -> handleKeyEvent(e, em, true));
+        this.released = e -> emulator.ifPresent(em -> handleKeyEvent(e, em, false));
         
         node.setOnKeyPressed(pressed);
         node.setOnKeyReleased(released);
     }
     
     /** 
-     * Attaches given joypad to handler
-     * @param joypad : non-null joypad
+     * Attaches given emulator to handler
+     * @param emulator : non-null emulator
      * @throws NullPointerException if value is null
      */
-    public void attach(Joypad joypad) {
-    	this.joypad = Optional.of(joypad);
+    public void attach(Emulator emulator) {
+    	this.emulator = Optional.of(emulator);
     }
     
     /**
      * Removes the event handlers from the node. Renders the KeyboardHandler useless
      */
     public void detach() {
-    	joypad = Optional.empty();
+    	emulator = Optional.empty();
     }
     
-    private void handleKeyEvent(KeyEvent e, Consumer<Joypad.Key> c) {
+    private void handleKeyEvent(KeyEvent e, Emulator emulator, boolean pressed) {
+        if (REWIND_TEXT.equals(e.getText())) {
+            emulator.setRewinding(pressed);
+            return;
+        }
+
         Key k = TEXT_KEY_MAP.getOrDefault(e.getText(), CODE_KEY_MAP.getOrDefault(e.getCode(), null));
         if (k != null) {
-            c.accept(k);
+            if (pressed) {
+                emulator.input().keyPressed(k);
+            } else {
+                emulator.input().keyReleased(k);
+            }
         }
     }
     
@@ -1,6 +1,5 @@
 package ch.epfl.gameboj.gui;
 
-import java.io.File;
 import java.io.IOException;
 
 import ch.epfl.gameboj.GameBoy;
@@ -20,7 +19,14 @@ import javafx.stage.Stage;
  */
 public final class Main extends Application {
 
-    GBSaver saver = new GBSaver();
+    /**
+     * The system property which, set to true, stores the ram of the cartridges directly in
+     * their save files mapped in memory, instead of saving them in the background
+     */
+    public static final String MAPPED_SAVES_PROPERTY = "gameboj.mappedSaves";
+
+    GBSaver saver = new GBSaver(Boolean.getBoolean(MAPPED_SAVES_PROPERTY));
+    private GBScreen screen;
 
     /**
      * Launch the application with given rom file
@@ -36,7 +42,7 @@ public final class Main extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        GBScreen screen = new GBScreen();
+        screen = new GBScreen();
         GameList list = new GameList();
         
 
@@ -45,8 +51,7 @@ public final class Main extends Application {
             saver.save();
             
             try {
-                Cartridge newGame = createCartridge(nV.rom());
-                saver.load(newGame, nV.save());
+                Cartridge newGame = saver.load(nV.rom(), nV.save());
                 screen.attachGameboy(createGameboy(newGame));                
             } catch (IOException e) {
                 System.err.println("Something went wrong when loading this game :" + e);
@@ -75,15 +80,13 @@ public final class Main extends Application {
      */
     @Override
     public void stop() {
+        if (screen != null) {
+            screen.detachGameboy();
+        }
         saver.save();  
     }
     
     
-    private Cartridge createCartridge(File rom) throws IOException {
-        return Cartridge.ofFile(rom);
-    }
-
-    
     private GameBoy createGameboy(Cartridge cartridge) {
         return new GameBoy(cartridge);
     }
@@ -0,0 +1,86 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free triple buffer, through which a producer thread hands values over
+ * to a consumer thread
+ *
+ * The producer fills its back buffer and publishes it, while the consumer reads its
+ * front buffer. Publishing swaps the back buffer with the middle one, and the consumer
+ * swaps its front buffer with the middle one when a new value has been published.
+ * Neither thread ever waits for the other, and the consumer always gets the most
+ * recently published value.
+ *
+ * @param <T> the type of the buffers
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 0b11;
+    private static final int FRESH = 0b100;
+
+    private final Object[] buffers = new Object[3];
+
+    // Index of the middle buffer, and FRESH if it has been published and not consumed yet
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int backIndex = 0;
+    private int frontIndex = 2;
+
+    /**
+     * Creates a new triple buffer
+     * @param factory : creates the three buffers, non null
+     * @throws NullPointerException if the factory or one of the buffers it creates is null
+     */
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = Objects.requireNonNull(factory.get());
+        }
+    }
+
+    /**
+     * Returns the buffer to be filled by the producer. Must only be called by the producer
+     * @return the back buffer
+     */
+    public T back() {
+        return buffer(backIndex);
+    }
+
+    /**
+     * Publishes the back buffer, and gives the producer a new back buffer.
+     * Must only be called by the producer
+     */
+    public void publish() {
+        backIndex = middle.getAndSet(backIndex | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Makes the last published buffer the front buffer, if one has been published
+     * since the last call. Must only be called by the consumer
+     * @return true iff the front buffer changed
+     */
+    public boolean update() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+
+        frontIndex = middle.getAndSet(frontIndex) & INDEX_MASK;
+        return true;
+    }
+
+    /**
+     * Returns the buffer to be read by the consumer. Must only be called by the consumer
+     * @return the front buffer
+     */
+    public T front() {
+        return buffer(frontIndex);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T buffer(int index) {
+        return (T) buffers[index];
+    }
+}
@@ -0,0 +1,308 @@
+package ch.epfl.gameboj.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.memory.Rom;
+import ch.epfl.gameboj.component.memory.RomCache;
+
+/**
+ * Runs many gameboys in parallel, without any window, and collects the results of each of them
+ *
+ * Every gameboy is run on its own task, frame by frame, by a fork/join pool of the given
+ * parallelism. The gameboys never share any mutable state : the roms of files are loaded through
+ * the RomCache, the roms of jobs given as byte arrays having identical contents are created only
+ * once per run, and a rom is immutable.
+ *
+ * A gameboy is not split into tasks of one frame : its frames can only run one after the other,
+ * so such tasks would only add a hand-off between threads at every frame, and move the gameboy
+ * between the caches of the cores, without any more parallelism. The work is balanced by running
+ * at least as many gameboys as threads.
+ *
+ * Usage : BatchRunner rom... [--frames n] [--instances n] [--threads n,n,...]
+ * <ul>
+ * <li>--frames : the number of frames run by each gameboy (default 600)</li>
+ * <li>--instances : the number of gameboys running each rom (default 4)</li>
+ * <li>--threads : the parallelisms to measure (default 1 then doubling up to the number of cores)</li>
+ * </ul>
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class BatchRunner implements AutoCloseable {
+
+    private static final int DEFAULT_FRAMES = 600;
+    private static final int DEFAULT_INSTANCES = 4;
+    private static final int MAX_SHOWN_OUTPUT = 40;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * A gameboy to run : a rom, a number of frames and the inputs of the joypad
+     */
+    public static final class Job {
+        private final String name;
+        private final byte[] contents;
+        private final Rom rom;
+        private final int frames;
+        private final InputScript input;
+
+        /**
+         * Creates a new job
+         * @param name : the name of the job, non null
+         * @param rom : the contents of the rom, non null, which must not be modified afterwards
+         * @param frames : the number of frames to run, positive
+         * @param input : the inputs of the joypad, non null
+         * @throws NullPointerException if name, rom or input is null
+         * @throws IllegalArgumentException if frames is negative
+         */
+        public Job(String name, byte[] rom, int frames, InputScript input) {
+            this(name, Objects.requireNonNull(rom), null, frames, input);
+        }
+
+        /**
+         * Creates a new job running a rom already loaded, for example by the RomCache
+         * @param name : the name of the job, non null
+         * @param rom : the rom, non null
+         * @param frames : the number of frames to run, positive
+         * @param input : the inputs of the joypad, non null
+         * @throws NullPointerException if name, rom or input is null
+         * @throws IllegalArgumentException if frames is negative
+         */
+        public Job(String name, Rom rom, int frames, InputScript input) {
+            this(name, null, Objects.requireNonNull(rom), frames, input);
+        }
+
+        private Job(String name, byte[] contents, Rom rom, int frames, InputScript input) {
+            Preconditions.checkArgument(frames >= 0);
+            this.name = Objects.requireNonNull(name);
+            this.contents = contents;
+            this.rom = rom;
+            this.frames = frames;
+            this.input = Objects.requireNonNull(input);
+        }
+    }
+
+    /**
+     * The state of a gameboy after having run a job
+     */
+    public static final class Result {
+        private final String name;
+        private final String serialOutput;
+        private final int frameHash;
+        private final long cycles;
+        private final long instructions;
+        private final long nanos;
+
+        private Result(String name, String serialOutput, int frameHash, long cycles, long instructions,
+                long nanos) {
+            this.name = name;
+            this.serialOutput = serialOutput;
+            this.frameHash = frameHash;
+            this.cycles = cycles;
+            this.instructions = instructions;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the name of the job
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the characters written by the program to the serial port
+         */
+        public String serialOutput() {
+            return serialOutput;
+        }
+
+        /**
+         * @return the hash code of the last frame of the lcd
+         */
+        public int frameHash() {
+            return frameHash;
+        }
+
+        /**
+         * @return the number of cycles run
+         */
+        public long cycles() {
+            return cycles;
+        }
+
+        /**
+         * @return the number of instructions executed by the processor
+         */
+        public long instructions() {
+            return instructions;
+        }
+
+        /**
+         * @return the time the job took, in nanoseconds
+         */
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Creates a new runner
+     * @param parallelism : the number of gameboys run at the same time, strictly positive
+     * @throws IllegalArgumentException if parallelism is not strictly positive
+     */
+    public BatchRunner(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Runs jobs in parallel and waits for all of them to finish
+     * @param jobs : the jobs, non null
+     * @return the results of the jobs, in the same order
+     * @throws NullPointerException if jobs is null
+     * @throws IllegalArgumentException if the rom of a job is not supported
+     */
+    public List<Result> run(List<Job> jobs) {
+        Map<ByteBuffer, Rom> roms = new HashMap<>();
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(jobs.size());
+
+        for (Job job : jobs) {
+            Rom rom = job.rom != null ? job.rom
+                    : roms.computeIfAbsent(ByteBuffer.wrap(job.contents), b -> new Rom(job.contents));
+            tasks.add(pool.submit(() -> run(job, rom)));
+        }
+
+        List<Result> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Result> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs a job on the current thread
+     * @param job : the job
+     * @param rom : the rom of the job, possibly shared with other jobs
+     * @return the result of the job
+     */
+    static Result run(Job job, Rom rom) {
+        long start = System.nanoTime();
+
+        GameBoy gb = new GameBoy(Cartridge.ofRom(rom));
+        SerialRecorder serial = new SerialRecorder();
+        serial.attachTo(gb.bus());
+
+        for (int f = 0; f < job.frames; f++) {
+            job.input.applyTo(gb.joypad(), f);
+            gb.runUntil((long) (f + 1) * LcdController.CYCLES_PER_FRAME);
+        }
+
+        return new Result(job.name, serial.output(), gb.lcdController().currentFrame().hashCode(),
+                gb.cycles(), gb.cpu().executedInstructions(), System.nanoTime() - start);
+    }
+
+    /**
+     * Runs the roms with increasing parallelisms, and prints the total speed for each of them
+     * @param args : the paths to the roms, then the options
+     * @throws IOException if a rom can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        List<File> files = new ArrayList<>();
+        int frames = DEFAULT_FRAMES;
+        int instances = DEFAULT_INSTANCES;
+        List<Integer> threads = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--frames": frames = Integer.parseInt(args[++i]); break;
+                case "--instances": instances = Integer.parseInt(args[++i]); break;
+                case "--threads":
+                    for (String t : args[++i].split(",")) {
+                        threads.add(Integer.parseInt(t));
+                    }
+                    break;
+
+                default:
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option : " + args[i]);
+                    }
+                    files.add(new File(args[i]));
+            }
+        }
+
+        if (files.isEmpty()) {
+            System.err.println("Usage : BatchRunner rom... [--frames n] [--instances n] [--threads n,n,...]");
+            System.exit(1);
+        }
+        if (threads.isEmpty()) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int t = 1; t < cores; t *= 2) {
+                threads.add(t);
+            }
+            threads.add(cores);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (File file : files) {
+            Rom rom = RomCache.of(file.toPath());
+            for (int i = 0; i < instances; i++) {
+                jobs.add(new Job(file.getName() + "#" + i, rom, frames, InputScript.EMPTY));
+            }
+        }
+
+        // The first run only warms up the code, so that every measured run executes compiled code
+        try (BatchRunner runner = new BatchRunner(threads.get(threads.size() - 1))) {
+            runner.run(jobs);
+        }
+
+        List<Result> results = null;
+        double firstFramesPerSecond = 0;
+        for (int t : threads) {
+            long start = System.nanoTime();
+            try (BatchRunner runner = new BatchRunner(t)) {
+                results = runner.run(jobs);
+            }
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            double framesPerSecond = (double) frames * jobs.size() / seconds;
+            if (firstFramesPerSecond == 0) {
+                firstFramesPerSecond = framesPerSecond;
+            }
+
+            System.out.printf(Locale.ROOT, "threads %3d : %8.3f s  %10.1f frames/s  %5.2fx%n",
+                    t, seconds, framesPerSecond, framesPerSecond / firstFramesPerSecond);
+        }
+
+        System.out.println();
+        for (Result r : results) {
+            String output = r.serialOutput().replace("\n", " ").trim();
+            if (output.length() > MAX_SHOWN_OUTPUT) {
+                output = output.substring(0, MAX_SHOWN_OUTPUT) + "...";
+            }
+            System.out.printf(Locale.ROOT, "%-24s cycles %10d  frame %08x  serial \"%s\"%n",
+                    r.name(), r.cycles(), r.frameHash(), output);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ch.epfl.gameboj.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+/**
+ * Runs a ROM without any window, as fast as possible, and reports the speed of the emulation
+ *
+ * Usage : Benchmark rom [--frames n] [--warmup n] [--input script] [--json]
+ * <ul>
+ * <li>--frames : the number of emulated frames which are measured (default 3600, one minute)</li>
+ * <li>--warmup : the number of frames run beforehand on another gameboy, so that the measured
+ * frames run compiled code (default 600)</li>
+ * <li>--input : a file containing the inputs of the joypad, see InputScript</li>
+ * <li>--json : prints the results as a JSON object instead of text</li>
+ * </ul>
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class Benchmark {
+
+    private static final int DEFAULT_FRAMES = 3600;
+    private static final int DEFAULT_WARMUP = 600;
+
+    private final int frames;
+    private final long nanos;
+    private final long cycles;
+    private final long instructions;
+    private final long allocatedBytes;
+
+    private Benchmark(int frames, long nanos, long cycles, long instructions, long allocatedBytes) {
+        this.frames = frames;
+        this.nanos = nanos;
+        this.cycles = cycles;
+        this.instructions = instructions;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args : the path to the rom, then the options
+     * @throws IOException if the rom or the input script can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage : Benchmark rom [--frames n] [--warmup n] [--input script] [--json]");
+            System.exit(1);
+        }
+
+        File rom = new File(args[0]);
+        int frames = DEFAULT_FRAMES;
+        int warmup = DEFAULT_WARMUP;
+        InputScript input = InputScript.EMPTY;
+        boolean json = false;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--frames": frames = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--input": input = InputScript.ofFile(new File(args[++i])); break;
+                case "--json": json = true; break;
+
+                default: throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+
+        if (warmup > 0) {
+            run(new GameBoy(Cartridge.ofFile(rom)), warmup, input);
+        }
+        Benchmark result = run(new GameBoy(Cartridge.ofFile(rom)), frames, input);
+
+        System.out.println(json ? result.toJson() : result.toText());
+    }
+
+    /**
+     * Runs a gameboy for a given number of frames, as fast as possible
+     * @param gb : the gameboy, which has not run yet
+     * @param frames : the number of frames
+     * @param input : the inputs of the joypad
+     * @return the measures of the run
+     */
+    static Benchmark run(GameBoy gb, int frames, InputScript input) {
+        long startAllocated = allocatedBytes();
+        long startInstructions = gb.cpu().executedInstructions();
+        long start = System.nanoTime();
+
+        for (int f = 0; f < frames; f++) {
+            input.applyTo(gb.joypad(), f);
+            gb.runUntil((long) (f + 1) * LcdController.CYCLES_PER_FRAME);
+        }
+
+        long nanos = System.nanoTime() - start;
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        return new Benchmark(frames, nanos, gb.cycles(), gb.cpu().executedInstructions() - startInstructions,
+                allocated);
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, -1 if not supported by the jvm
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private double seconds() {
+        return nanos * 1e-9;
+    }
+
+    private double cyclesPerSecond() {
+        return cycles / seconds();
+    }
+
+    private double framesPerSecond() {
+        return frames / seconds();
+    }
+
+    private double speed() {
+        return cyclesPerSecond() / GameBoy.CYCLES_PER_SECOND;
+    }
+
+    private double bytesPerFrame() {
+        return allocatedBytes < 0 ? -1 : (double) allocatedBytes / frames;
+    }
+
+    /**
+     * @return the results, one per line
+     */
+    String toText() {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format(Locale.ROOT, "frames          : %d%n", frames));
+        b.append(String.format(Locale.ROOT, "time            : %.3f s%n", seconds()));
+        b.append(String.format(Locale.ROOT, "cycles/s        : %.2f M%n", cyclesPerSecond() * 1e-6));
+        b.append(String.format(Locale.ROOT, "instructions/s  : %.2f M%n", instructions / seconds() * 1e-6));
+        b.append(String.format(Locale.ROOT, "frames/s        : %.1f%n", framesPerSecond()));
+        b.append(String.format(Locale.ROOT, "speed           : %.1fx real time%n", speed()));
+        if (allocatedBytes < 0) {
+            b.append("allocated/frame : not supported");
+        } else {
+            b.append(String.format(Locale.ROOT, "allocated/frame : %.1f bytes", bytesPerFrame()));
+        }
+        return b.toString();
+    }
+
+    /**
+     * @return the results as a JSON object, the allocated bytes being -1 if they can't be measured
+     */
+    String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"frames\":%d,\"seconds\":%.6f,\"cycles\":%d,\"instructions\":%d,"
+                + "\"cyclesPerSecond\":%.1f,\"framesPerSecond\":%.2f,\"speed\":%.3f,"
+                + "\"allocatedBytes\":%d,\"allocatedBytesPerFrame\":%.1f}",
+                frames, seconds(), cycles, instructions,
+                cyclesPerSecond(), framesPerSecond(), speed(),
+                allocatedBytes, bytesPerFrame());
+    }
+}
@@ -0,0 +1,158 @@
+package ch.epfl.gameboj.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
+
+/**
+ * Scripted joypad input : a list of key presses and releases, each happening at the
+ * start of a given frame
+ *
+ * A script is written one event per line, as "frame press|release key", for example
+ * "120 press START". Blank lines and lines starting with # are ignored.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class InputScript {
+
+    /**
+     * The script without any event
+     */
+    public static final InputScript EMPTY = new InputScript(new Event[0]);
+
+    private static final String COMMENT = "#";
+    private static final String PRESS = "press";
+    private static final String RELEASE = "release";
+
+    private final Event[] events;
+
+    private static final class Event {
+        final int frame;
+        final Key key;
+        final boolean pressed;
+
+        Event(int frame, Key key, boolean pressed) {
+            this.frame = frame;
+            this.key = key;
+            this.pressed = pressed;
+        }
+    }
+
+    private InputScript(Event[] events) {
+        this.events = events;
+    }
+
+    /**
+     * Reads a script from a file
+     * @param file : the file containing the script
+     * @return the script
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a line is invalid
+     */
+    public static InputScript ofFile(File file) throws IOException {
+        return parse(Files.readAllLines(file.toPath()));
+    }
+
+    /**
+     * Builds a script from its lines
+     * @param lines : the lines of the script
+     * @return the script, whose events are sorted by frame (stable for events of the same frame)
+     * @throws NullPointerException if lines is null
+     * @throws IllegalArgumentException if a line is invalid
+     */
+    public static InputScript parse(List<String> lines) {
+        List<Event> events = new ArrayList<>();
+
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) {
+                continue;
+            }
+            events.add(parseEvent(line));
+        }
+
+        Event[] sorted = events.toArray(new Event[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(e -> e.frame));
+        return new InputScript(sorted);
+    }
+
+    /**
+     * @return the number of events of the script
+     */
+    public int size() {
+        return events.length;
+    }
+
+    /**
+     * Applies to a joypad the events of the script which happen at the start of given frame
+     * @param joypad : the joypad, non null
+     * @param frame : the index of the frame which is about to be run
+     * @throws NullPointerException if joypad is null
+     */
+    public void applyTo(Joypad joypad, int frame) {
+        Objects.requireNonNull(joypad);
+
+        int i = firstEventAt(frame);
+        for (; i < events.length && events[i].frame == frame; i++) {
+            if (events[i].pressed) {
+                joypad.keyPressed(events[i].key);
+            } else {
+                joypad.keyReleased(events[i].key);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the first event happening at given frame or later
+     */
+    private int firstEventAt(int frame) {
+        int low = 0;
+        int high = events.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (events[middle].frame < frame) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static Event parseEvent(String line) {
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid input line : " + line);
+        }
+
+        int frame;
+        Key key;
+        try {
+            frame = Integer.parseInt(parts[0]);
+            key = Key.valueOf(parts[2].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid input line : " + line, e);
+        }
+        Preconditions.checkArgument(frame >= 0);
+
+        switch (parts[1].toLowerCase(Locale.ROOT)) {
+            case PRESS: return new Event(frame, key, true);
+            case RELEASE: return new Event(frame, key, false);
+
+            default: throw new IllegalArgumentException("Invalid input line : " + line);
+        }
+    }
+}
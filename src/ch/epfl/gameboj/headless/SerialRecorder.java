@@ -0,0 +1,57 @@
+package ch.epfl.gameboj.headless;
+
+import static ch.epfl.gameboj.AddressMap.REG_SB;
+
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Component;
+
+/**
+ * Records the bytes a program writes to the serial data register. Test roms print their
+ * results this way, one character per byte
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class SerialRecorder implements Component {
+
+    private final StringBuilder output = new StringBuilder();
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#read(int)
+     */
+    @Override
+    public int read(int address) {
+        Preconditions.checkBits16(address);
+        return NO_DATA;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#write(int, int)
+     */
+    @Override
+    public void write(int address, int data) {
+        Preconditions.checkBits16(address);
+        Preconditions.checkBits8(data);
+
+        if (address == REG_SB) {
+            output.append((char) data);
+        }
+    }
+
+    /**
+     * Attaches the recorder to the serial data register only
+     * @see ch.epfl.gameboj.component.Component#attachTo(ch.epfl.gameboj.Bus)
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attach(this, REG_SB, REG_SB + 1);
+    }
+
+    /**
+     * @return the characters written so far
+     */
+    public String output() {
+        return output.toString();
+    }
+}
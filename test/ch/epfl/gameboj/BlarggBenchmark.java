@@ -0,0 +1,70 @@
+package ch.epfl.gameboj;
+
+import java.io.IOException;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.cpu.Cpu;
+
+/**
+ * Measures the emulation speed, in instructions per second, on the Blargg
+ * ROMs embedded in S6GameBoyTest
+ *
+ * Usage : BlarggBenchmark [cycles per rom] [runs]
+ */
+public final class BlarggBenchmark {
+
+    private static final long DEFAULT_CYCLES = 10_000_000;
+    private static final int DEFAULT_RUNS = 5;
+    private static final long FRAME_CYCLES = 17_556;
+
+    public static void main(String[] args) throws IOException {
+        long cycles = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_CYCLES;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        // The Blargg ROMs have no memory bank controller, so their cartridges are stateless and can be shared
+        Cartridge[] roms = decodeRoms();
+
+        // Warm-up, so that the measured runs use compiled code
+        for (Cartridge rom : roms) {
+            run(rom, cycles);
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long instructions = 0;
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            instructions = 0;
+            for (Cartridge rom : roms) {
+                instructions += run(rom, cycles);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+
+        double seconds = bestNanos * 1e-9;
+        double emulatedSeconds = (double) (cycles * roms.length) / GameBoy.CYCLES_PER_SECOND;
+        System.out.printf("%d roms, %d cycles each, best of %d runs%n", roms.length, cycles, runs);
+        System.out.printf("time            : %.3f s%n", seconds);
+        System.out.printf("instructions    : %d%n", instructions);
+        System.out.printf("instructions/s  : %.2f M%n", instructions / seconds * 1e-6);
+        System.out.printf("speed           : %.1fx real time%n", emulatedSeconds / seconds);
+    }
+
+    private static long run(Cartridge rom, long cycles) {
+        GameBoy gb = new GameBoy(rom);
+        while (gb.cycles() < cycles) {
+            gb.runUntil(Math.min(gb.cycles() + FRAME_CYCLES, cycles));
+            gb.cpu().requestInterrupt(Cpu.Interrupt.VBLANK);
+        }
+        return gb.cpu().executedInstructions();
+    }
+
+    private static Cartridge[] decodeRoms() throws IOException {
+        Cartridge[] roms = new Cartridge[S6GameBoyTest.blarggRomCount()];
+
+        for (int i = 0; i < roms.length; i++) {
+            roms[i] = CartridgeTest.cartridgeWithData(S6GameBoyTest.blarggRom(i));
+        }
+        return roms;
+    }
+}
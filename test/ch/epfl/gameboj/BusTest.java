@@ -5,6 +5,7 @@ package ch.epfl.gameboj;
 import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
 import static ch.epfl.test.TestRandomizer.newRandom;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -90,6 +91,57 @@ class BusTest {
             assertEquals((i * 2018) & 0xFF, b.read(i));
     }
 
+    @Test
+    void attachFailsForInvalidRange() {
+        Bus b = new Bus();
+        Component c = new SimpleComponent(0, 0);
+        assertThrows(IllegalArgumentException.class,
+                () -> b.attach(c, -1, 0x10));
+        assertThrows(IllegalArgumentException.class,
+                () -> b.attach(c, 0x20, 0x10));
+        assertThrows(IllegalArgumentException.class,
+                () -> b.attach(c, 0, 0x10001));
+    }
+
+    @Test
+    void rangedComponentIsOnlyAccessedInItsRange() {
+        Bus b = new Bus();
+        SimpleComponent c = new SimpleComponent(0xFF42, 42);
+        b.attach(c, 0xFF40, 0xFF4C);
+
+        b.write(0xFF3F, 1);
+        b.write(0xFF4C, 1);
+        b.write(0x0042, 1);
+        assertEquals(0xFF, b.read(0x0042));
+        assertFalse(c.wasRead());
+        assertFalse(c.wasWritten());
+
+        assertEquals(42, b.read(0xFF42));
+        b.write(0xFF42, 43);
+        assertEquals(43, b.read(0xFF42));
+    }
+
+    @Test
+    void componentsSharingAnAddressAreAccessedInAttachmentOrder() {
+        Bus b = new Bus();
+        SimpleComponent ranged = new SimpleComponent(0xFF05, 1);
+        SimpleComponent full = new SimpleComponent(0xFF05, 2);
+        SimpleComponent page = new SimpleComponent(0xC005, 3);
+        b.attach(ranged, 0xFF04, 0xFF08);
+        b.attach(full);
+        b.attach(page, 0xC000, 0xE000);
+
+        assertEquals(1, b.read(0xFF05));
+        assertEquals(3, b.read(0xC005));
+
+        b.write(0xFF05, 7);
+        assertTrue(full.wasWritten());
+        assertEquals(7, b.read(0xFF05));
+
+        b.write(0xD000, 9);
+        assertEquals(0xFF, b.read(0x8000));
+    }
+
     @Test
     void writeFailsForInvalidAddress() {
         Random rng = newRandom();
@@ -2,11 +2,19 @@
 
 package ch.epfl.gameboj;
 
+import static ch.epfl.gameboj.component.cpu.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.IOException;
+
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.cpu.Assembler;
+import ch.epfl.gameboj.component.cpu.Cpu;
+
 class GameBoyTest {
     @Disabled
     @Test
@@ -42,4 +50,51 @@ class GameBoyTest {
         for (int a = 0xC000; a < 0xDE00; ++a)
             assertEquals(((a + 0x2000) ^ 0xA5) & 0xFF, b.read(a));
     }
+
+    @Test
+    void runUntilSkipsHaltedCyclesWithoutChangingTiming() throws IOException {
+        byte[] romData = haltingRom();
+        GameBoy skipping = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+        GameBoy stepping = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+
+        for (long frame = 1; frame <= 300; ++frame) {
+            long end = frame * 17_556;
+            skipping.runUntil(end);
+            while (stepping.cycles() < end)
+                stepping.runUntil(stepping.cycles() + 1);
+
+            assertArrayEquals(stepping.cpu()._testGetPcSpAFBCDEHL(), skipping.cpu()._testGetPcSpAFBCDEHL());
+            assertEquals(stepping.cpu().executedInstructions(), skipping.cpu().executedInstructions());
+
+            // Wakes the processor up from outside, as the joypad does
+            if (frame % 3 == 0) {
+                skipping.cpu().requestInterrupt(Cpu.Interrupt.JOYPAD);
+                stepping.cpu().requestInterrupt(Cpu.Interrupt.JOYPAD);
+            }
+        }
+    }
+
+    /**
+     * Builds a ROM which enables the timer, then halts until the next interrupt forever,
+     * counting the interrupts it handles in D (VBLANK), E (TIMER) and H (JOYPAD)
+     */
+    private static byte[] haltingRom() throws IOException {
+        // The header of a Blargg ROM, so that the boot ROM accepts it
+        byte[] romData = S6GameBoyTest.blarggRom(0);
+
+        new Assembler().emit(INC_D).emit(RETI).copyTo(romData, AddressMap.INTERRUPTS[0]);
+        new Assembler().emit(INC_E).emit(RETI).copyTo(romData, AddressMap.INTERRUPTS[2]);
+        new Assembler().emit(INC_H).emit(RETI).copyTo(romData, AddressMap.INTERRUPTS[4]);
+        new Assembler().emit(JP_N16, 0x150).copyTo(romData, 0x100);
+        new Assembler()
+                .emit(LD_A_N8, 0b101)
+                .emit(LD_N8R_A, AddressMap.REG_TAC & 0xFF)
+                .emit(LD_A_N8, 0b10101)
+                .emit(LD_N8R_A, AddressMap.REG_IE & 0xFF)
+                .emit(EI)
+                .emit(HALT)
+                .emit(INC_B)
+                .emit(JR_E8, 0xFC).copyTo(romData, 0x150);
+        return romData;
+    }
 }
@@ -0,0 +1,124 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+class RewindBufferTest {
+    private static final int FRAMES = 120;
+
+    @Test
+    void constructorFailsForInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RewindBuffer(0, 10, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RewindBuffer(1, 0, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RewindBuffer(1, 10, -1));
+    }
+
+    @Test
+    void rewindFailsWhenEmpty() throws IOException {
+        GameBoy gb = newGameBoy();
+        RewindBuffer buffer = new RewindBuffer();
+        gb.runUntil(LcdController.CYCLES_PER_FRAME);
+        byte[] before = SaveStateTest.state(gb);
+
+        assertFalse(buffer.rewind(gb));
+        assertArrayEquals(before, SaveStateTest.state(gb));
+    }
+
+    @Test
+    void rewindRestoresEveryRecordedFrameInReverseOrder() throws IOException {
+        GameBoy gb = newGameBoy();
+        RewindBuffer buffer = new RewindBuffer();
+        List<byte[]> expected = runAndRecord(gb, buffer, 1, FRAMES);
+        assertEquals(FRAMES, buffer.snapshots());
+
+        for (int i = FRAMES - 2; i >= 0; --i) {
+            assertTrue(buffer.rewind(gb));
+            assertArrayEquals(expected.get(i), SaveStateTest.state(gb), "at frame " + i);
+        }
+
+        // The oldest snapshot is kept
+        assertTrue(buffer.rewind(gb));
+        assertArrayEquals(expected.get(0), SaveStateTest.state(gb));
+        assertEquals(1, buffer.snapshots());
+    }
+
+    @Test
+    void rewindFirstReturnsToLastSnapshotWhenFramesWereRunSince() throws IOException {
+        GameBoy gb = newGameBoy();
+        RewindBuffer buffer = new RewindBuffer(4, 100, 1 << 20);
+        List<byte[]> expected = runAndRecord(gb, buffer, 4, 40);
+        // One more frame, before the next snapshot is due
+        gb.runUntil(gb.cycles() + LcdController.CYCLES_PER_FRAME);
+        buffer.record(gb);
+
+        assertTrue(buffer.rewind(gb));
+        assertArrayEquals(expected.get(expected.size() - 1), SaveStateTest.state(gb));
+        assertTrue(buffer.rewind(gb));
+        assertArrayEquals(expected.get(expected.size() - 2), SaveStateTest.state(gb));
+    }
+
+    @Test
+    void recordingAfterRewindingContinuesTheHistory() throws IOException {
+        GameBoy gb = newGameBoy();
+        RewindBuffer buffer = new RewindBuffer();
+        List<byte[]> expected = runAndRecord(gb, buffer, 1, 30);
+
+        for (int i = 0; i < 10; ++i)
+            buffer.rewind(gb);
+        List<byte[]> resumed = runAndRecord(gb, buffer, 1, 5);
+
+        for (int i = resumed.size() - 2; i >= 0; --i) {
+            buffer.rewind(gb);
+            assertArrayEquals(resumed.get(i), SaveStateTest.state(gb));
+        }
+        buffer.rewind(gb);
+        assertArrayEquals(expected.get(19), SaveStateTest.state(gb));
+    }
+
+    @Test
+    void oldestSnapshotsAreDroppedWhenFull() throws IOException {
+        for (RewindBuffer buffer : new RewindBuffer[] {
+                new RewindBuffer(1, 25, 1 << 20),
+                new RewindBuffer(1, FRAMES, 1_000) }) {
+            GameBoy gb = newGameBoy();
+            List<byte[]> expected = runAndRecord(gb, buffer, 1, FRAMES);
+            int snapshots = buffer.snapshots();
+            assertTrue(snapshots > 1 && snapshots < FRAMES);
+
+            for (int i = FRAMES - 2; i >= FRAMES - snapshots; --i) {
+                assertTrue(buffer.rewind(gb));
+                assertArrayEquals(expected.get(i), SaveStateTest.state(gb), "at frame " + i);
+            }
+            assertEquals(1, buffer.snapshots());
+        }
+    }
+
+    private static List<byte[]> runAndRecord(GameBoy gb, RewindBuffer buffer, int interval, int frames) {
+        List<byte[]> snapshots = new ArrayList<>();
+        for (int f = 0; f < frames; ++f) {
+            gb.runUntil(gb.cycles() + LcdController.CYCLES_PER_FRAME);
+            buffer.record(gb);
+            if (f % interval == 0)
+                snapshots.add(SaveStateTest.state(gb));
+            // Changes the inputs, so that the emulation depends on the recorded states
+            gb.bus().write(0xC000 + f, f & 0xFF);
+        }
+        return snapshots;
+    }
+
+    private static GameBoy newGameBoy() throws IOException {
+        return new GameBoy(CartridgeTest.cartridgeWithData(S6GameBoyTest.blarggRom(2)));
+    }
+}
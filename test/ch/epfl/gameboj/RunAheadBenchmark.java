@@ -0,0 +1,147 @@
+package ch.epfl.gameboj;
+
+import static ch.epfl.gameboj.component.cpu.Opcode.*;
+
+import java.io.IOException;
+
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.cpu.Assembler;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
+
+/**
+ * Measures, for a few numbers of frames run ahead, the emulation time per shown frame and the
+ * latency between a key press and the first shown frame which reflects it
+ *
+ * The latency is measured on a ROM which, like many games, reads the joypad once per frame
+ * and only applies what it read at the next frame : it changes the background palette, and
+ * thus the shown boot logo, when A is pressed.
+ *
+ * Usage : RunAheadBenchmark [frames] [max frames ahead]
+ */
+public final class RunAheadBenchmark {
+
+    private static final int DEFAULT_FRAMES = 3_000;
+    private static final int DEFAULT_MAX_AHEAD = 3;
+    // Leaves the boot rom the time to show the logo
+    private static final int BOOT_FRAMES = 400;
+    private static final double FRAME_MILLIS = LcdController.CYCLES_PER_FRAME * 1e3 / GameBoy.CYCLES_PER_SECOND;
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        int maxAhead = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_AHEAD;
+
+        Cartridge rom = CartridgeTest.cartridgeWithData(reactingRom());
+
+        // Warm-up, so that the measured runs use compiled code
+        for (int ahead = 0; ahead <= maxAhead; ahead++) {
+            nanosPerFrame(rom, new RunAhead(ahead), frames);
+        }
+
+        double baseMillis = nanosPerFrame(rom, new RunAhead(0), frames) * 1e-6;
+        System.out.printf("%d frames per run, %.2f ms per emulated frame in real time%n", frames, FRAME_MILLIS);
+        System.out.printf("ahead  ms/frame  extra ms/frame  latency (frames)  latency removed (ms)%n");
+
+        int baseLatency = latencyFrames(rom, new RunAhead(0));
+        for (int ahead = 0; ahead <= maxAhead; ahead++) {
+            RunAhead runAhead = new RunAhead(ahead);
+            double millis = nanosPerFrame(rom, runAhead, frames) * 1e-6;
+            int latency = latencyFrames(rom, runAhead);
+            System.out.printf("%5d  %8.3f  %14.3f  %16d  %20.1f%n",
+                    ahead, millis, millis - baseMillis, latency, (baseLatency - latency) * FRAME_MILLIS);
+        }
+    }
+
+    private static double nanosPerFrame(Cartridge rom, RunAhead runAhead, int frames) {
+        GameBoy gb = bootedGameBoy(rom);
+        LcdFrameBuffer shown = newFrame();
+
+        long start = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            if (f % 60 == 0) {
+                gb.joypad().keyPressed(Joypad.Key.A);
+            } else if (f % 60 == 30) {
+                gb.joypad().keyReleased(Joypad.Key.A);
+            }
+            runFrame(gb);
+            runAhead.showAhead(gb, shown);
+        }
+        return (double) (System.nanoTime() - start) / frames;
+    }
+
+    /**
+     * @return the number of shown frames between the press of A and the first shown frame which changed
+     */
+    private static int latencyFrames(Cartridge rom, RunAhead runAhead) {
+        GameBoy gb = bootedGameBoy(rom);
+        LcdFrameBuffer before = newFrame();
+        LcdFrameBuffer shown = newFrame();
+        runAhead.showAhead(gb, before);
+
+        gb.joypad().keyPressed(Joypad.Key.A);
+        for (int f = 1; f < BOOT_FRAMES; f++) {
+            runFrame(gb);
+            runAhead.showAhead(gb, shown);
+            if (!sameFrames(before, shown)) {
+                return f;
+            }
+        }
+        throw new IllegalStateException("The key press is never shown");
+    }
+
+    private static GameBoy bootedGameBoy(Cartridge rom) {
+        GameBoy gb = new GameBoy(rom);
+        gb.runUntil((long) BOOT_FRAMES * LcdController.CYCLES_PER_FRAME);
+        return gb;
+    }
+
+    private static void runFrame(GameBoy gb) {
+        gb.runUntil(gb.cycles() + LcdController.CYCLES_PER_FRAME);
+    }
+
+    private static LcdFrameBuffer newFrame() {
+        return new LcdFrameBuffer(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
+    }
+
+    private static boolean sameFrames(LcdFrameBuffer f1, LcdFrameBuffer f2) {
+        for (int y = 0; y < f1.height(); y++) {
+            for (int b = 0; b < f1.width() / LcdFrameBuffer.PIXELS_PER_BLOCK; b++) {
+                if (f1.block(y, b) != f2.block(y, b)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds a ROM which, at every VBLANK, applies the palette chosen at the previous one, then
+     * chooses a white palette if A is pressed, the boot palette otherwise
+     */
+    private static byte[] reactingRom() throws IOException {
+        // The header of a Blargg ROM, so that the boot ROM accepts it
+        byte[] romData = S6GameBoyTest.blarggRom(0);
+
+        new Assembler().emit(RETI).copyTo(romData, AddressMap.INTERRUPTS[0]);
+        new Assembler().emit(JP_N16, 0x150).copyTo(romData, 0x100);
+        new Assembler()
+                .emit(LD_A_N8, 0b1)
+                .emit(LD_N8R_A, AddressMap.REG_IE & 0xFF)
+                .emit(LD_A_N8, 0b1101_1111)
+                .emit(LD_N8R_A, AddressMap.REG_P1 & 0xFF)
+                .emit(LD_B_N8, 0xFC)
+                .emit(EI)
+                .emit(HALT)
+                .emit(LD_A_B)
+                .emit(LD_N8R_A, 0x47)
+                .emit(LD_A_N8R, AddressMap.REG_P1 & 0xFF)
+                .emit(AND_A_N8, 0b1)
+                .emit(LD_B_N8, 0xFC)
+                .emit(JR_NZ_E8, 2)
+                .emit(LD_B_N8, 0x00)
+                .emit(JR_E8, 0xF0).copyTo(romData, 0x150);
+        return romData;
+    }
+}
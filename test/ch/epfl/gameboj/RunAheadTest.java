@@ -0,0 +1,40 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdFrameBuffer;
+
+class RunAheadTest {
+    private static final long START = 300L * LcdController.CYCLES_PER_FRAME;
+
+    @Test
+    void constructorFailsForNegativeFrames() {
+        assertThrows(IllegalArgumentException.class, () -> new RunAhead(-1));
+    }
+
+    @Test
+    void showAheadShowsTheFutureFrameAndLeavesTheGameBoyUnchanged() throws IOException {
+        byte[] romData = S6GameBoyTest.blarggRom(2);
+        for (int frames = 0; frames <= 3; ++frames) {
+            GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+            GameBoy reference = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+            gb.runUntil(START);
+            byte[] before = SaveStateTest.state(gb);
+
+            LcdFrameBuffer shown = new LcdFrameBuffer(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
+            new RunAhead(frames).showAhead(gb, shown);
+
+            assertArrayEquals(before, SaveStateTest.state(gb));
+            reference.runUntil(START + (long) frames * LcdController.CYCLES_PER_FRAME);
+            assertEquals(reference.lcdController().currentFrame().toImage(), shown.toImage());
+        }
+    }
+}
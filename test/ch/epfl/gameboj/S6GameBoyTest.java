@@ -53,23 +53,20 @@ public final class S6GameBoyTest {
                 10000000, 5000000, 5000000, 10000000, 20000000, 20000000,
                 30000000, 5000000).iterator();
         
-        Base64.Decoder b64Decoder = Base64.getDecoder();
         StringBuilder s = new StringBuilder();
-        for (String e: BASE64_BLARGGS_TESTS) {
-            try (InputStream inStream = new GZIPInputStream(new ByteArrayInputStream(b64Decoder.decode(e)))) {
-                byte[] romData = inStream.readAllBytes();
-                assert romData.length == 0x8000;
-                GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(romData));
-                RecordingComponent recordingC = new RecordingComponent(s);
-                recordingC.attachTo(gb.bus());
-                int cycles = reqCycles.next();
-                while (gb.cycles() < cycles) {
-                    long nextCycles = Math.min(gb.cycles() + 17_556, cycles);
-                    gb.runUntil(nextCycles);
-                    assertEquals(nextCycles, gb.cycles());
-                    System.out.println("a");
-                    gb.cpu().requestInterrupt(Cpu.Interrupt.VBLANK);
-                }
+        for (int i = 0; i < blarggRomCount(); ++i) {
+            byte[] romData = blarggRom(i);
+            assert romData.length == 0x8000;
+            GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+            RecordingComponent recordingC = new RecordingComponent(s);
+            recordingC.attachTo(gb.bus());
+            int cycles = reqCycles.next();
+            while (gb.cycles() < cycles) {
+                long nextCycles = Math.min(gb.cycles() + 17_556, cycles);
+                gb.runUntil(nextCycles);
+                assertEquals(nextCycles, gb.cycles());
+                System.out.println("a");
+                gb.cpu().requestInterrupt(Cpu.Interrupt.VBLANK);
             }
         }
         assertEquals(BLARGGS_TESTS_EXPECTED_OUTPUT, s.toString());
@@ -144,7 +141,7 @@ public final class S6GameBoyTest {
             "Passed\n";
 
     // Blargg's tests, gzipped and encoded in base64
-    private static String[] BASE64_BLARGGS_TESTS = new String[] {
+    private static final String[] BASE64_BLARGGS_TESTS = new String[] {
             // 01-special.gb
             "H4sICH9qrVoAAzAxLXNwZWNpYWwuZ2IA7ZVfbBRFGMDnrr2llOvRAg8jtLDlTy0NDatGvMR1U6ABo2CJ"
             + "D5gQjNtIF6vntVotV7iuLU2Mf14kxkRCouFF44uEF6H0Zbd7d2WFIZJAsyY03EXbyAFNV11FxDu/2WvB"
@@ -633,4 +630,24 @@ public final class S6GameBoyTest {
             + "c9eWv0d7r/Hv3n6hmwmCIAiCIAiCIAiCIAiCIAiCIAiCIAiCIAiCIAiCIAiCIAiCIAiCfMH8E+G5QWwA"
             + "gAAA"
     };
+
+    /**
+     * @return the number of Blargg's tests
+     */
+    public static int blarggRomCount() {
+        return BASE64_BLARGGS_TESTS.length;
+    }
+
+    /**
+     * Decodes the rom of one of Blargg's tests
+     * @param index : the index of the test, in [0, blarggRomCount()[
+     * @return a new array containing the rom
+     * @throws IOException if the rom can't be decompressed
+     */
+    public static byte[] blarggRom(int index) throws IOException {
+        byte[] compressed = Base64.getDecoder().decode(BASE64_BLARGGS_TESTS[index]);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+
+class SaveStateTest {
+    private static final long CYCLES = 2_000_000;
+
+    @Test
+    void loadedStateResumesTheSameEmulation() throws IOException {
+        byte[] romData = S6GameBoyTest.blarggRom(2);
+        GameBoy original = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+        SaveState start = new SaveState();
+        SaveState expected = new SaveState();
+
+        original.runUntil(CYCLES);
+        original.saveState(start);
+        original.runUntil(2 * CYCLES);
+        original.saveState(expected);
+
+        GameBoy restored = new GameBoy(CartridgeTest.cartridgeWithData(romData));
+        restored.loadState(start);
+        assertEquals(CYCLES, restored.cycles());
+        restored.runUntil(2 * CYCLES);
+        SaveState actual = new SaveState();
+        restored.saveState(actual);
+
+        assertArrayEquals(bytes(expected), bytes(actual));
+        assertArrayEquals(original.cpu()._testGetPcSpAFBCDEHL(), restored.cpu()._testGetPcSpAFBCDEHL());
+        assertEquals(original.lcdController().currentImage(), restored.lcdController().currentImage());
+    }
+
+    @Test
+    void stateCanBeLoadedRepeatedly() throws IOException {
+        GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(S6GameBoyTest.blarggRom(0)));
+        SaveState state = new SaveState();
+        gb.runUntil(CYCLES);
+        gb.saveState(state);
+        byte[] saved = bytes(state);
+
+        for (int i = 0; i < 3; ++i) {
+            gb.loadState(state);
+            gb.runUntil(CYCLES + 1000 * (i + 1));
+            gb.loadState(state);
+            gb.saveState(state);
+            assertArrayEquals(saved, bytes(state));
+        }
+    }
+
+    @Test
+    void stateCanBeWrittenToAndReadFromStreams() throws IOException {
+        GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(S6GameBoyTest.blarggRom(0)));
+        SaveState state = new SaveState();
+        gb.runUntil(CYCLES);
+        gb.saveState(state);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        state.writeTo(out);
+        assertEquals(state.size(), out.size());
+
+        SaveState read = new SaveState();
+        read.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(bytes(state), bytes(read));
+    }
+
+    @Test
+    void loadFailsForInvalidStates() throws IOException {
+        GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(S6GameBoyTest.blarggRom(0)));
+        SaveState state = new SaveState();
+        gb.saveState(state);
+        byte[] saved = bytes(state);
+
+        SaveState empty = new SaveState();
+        assertThrows(IllegalArgumentException.class, () -> gb.loadState(empty));
+
+        byte[] wrongMagic = saved.clone();
+        wrongMagic[0] ^= 1;
+        state.copyFrom(wrongMagic, wrongMagic.length);
+        assertThrows(IllegalArgumentException.class, () -> gb.loadState(state));
+
+        byte[] wrongVersion = saved.clone();
+        wrongVersion[7] ^= 1;
+        state.copyFrom(wrongVersion, wrongVersion.length);
+        assertThrows(IllegalArgumentException.class, () -> gb.loadState(state));
+
+        state.copyFrom(saved, saved.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> gb.loadState(state));
+
+        byte[] tooLong = new byte[saved.length + 1];
+        System.arraycopy(saved, 0, tooLong, 0, saved.length);
+        state.copyFrom(tooLong, tooLong.length);
+        assertThrows(IllegalArgumentException.class, () -> gb.loadState(state));
+    }
+
+    /**
+     * @param gb : a gameboy
+     * @return the bytes of the current state of the gameboy
+     */
+    static byte[] state(GameBoy gb) {
+        SaveState state = new SaveState();
+        gb.saveState(state);
+        return bytes(state);
+    }
+
+    private static byte[] bytes(SaveState state) {
+        byte[] bytes = new byte[state.size()];
+        state.copyTo(bytes);
+        return bytes;
+    }
+}
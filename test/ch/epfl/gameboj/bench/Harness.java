@@ -0,0 +1,135 @@
+package ch.epfl.gameboj.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal microbenchmark harness : measures the time per operation of benchmark cases,
+ * and compares it with recorded baselines
+ *
+ * Every case is first run with an increasing number of operations until a batch takes long
+ * enough to be timed precisely, then warmed up so that its code is compiled, and measured
+ * over several batches, the median being reported. The values computed by the cases are
+ * accumulated in a volatile field, so that the compiler can't eliminate their work.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class Harness {
+
+    /**
+     * A benchmark case
+     */
+    @FunctionalInterface
+    public interface Case {
+        /**
+         * Runs the operation of the case a given number of times
+         * @param operations : the number of operations, strictly positive
+         * @return a value depending on the results of the operations
+         */
+        long run(int operations);
+    }
+
+    private static final long BATCH_NANOS = 20_000_000;
+    private static final int WARMUP_BATCHES = 10;
+    private static final int MEASURED_BATCHES = 15;
+    private static final int MAX_OPERATIONS = 1 << 30;
+
+    private static volatile long sink;
+
+    private final Pattern filter;
+    private final Map<String, Double> baseline;
+    private final Map<String, Double> results = new LinkedHashMap<>();
+
+    /**
+     * Creates a new harness
+     * @param filter : only the cases whose name contains a match of this expression are run
+     * @param baseline : the recorded time per operation of the cases, in nanoseconds
+     */
+    public Harness(Pattern filter, Map<String, Double> baseline) {
+        this.filter = filter;
+        this.baseline = baseline;
+    }
+
+    /**
+     * Measures a case, if its name matches the filter, and prints the result
+     * @param name : the unique name of the case
+     * @param c : the case
+     */
+    public void add(String name, Case c) {
+        if (!filter.matcher(name).find()) {
+            return;
+        }
+
+        double nanos = measure(c);
+        results.put(name, nanos);
+
+        Double base = baseline.get(name);
+        String comparison = base == null ? "" : String.format(Locale.ROOT, "%+8.1f %%", (nanos / base - 1) * 100);
+        System.out.printf(Locale.ROOT, "%-36s %14.2f ns/op %s%n", name, nanos, comparison);
+    }
+
+    /**
+     * Writes the results in a baseline file, one "name nanoseconds" line per case
+     * @param file : the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void record(Path file) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (Map.Entry<String, Double> e : results.entrySet()) {
+                w.printf(Locale.ROOT, "%s %.3f%n", e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads a baseline file written by record
+     * @param file : the file, which may not exist
+     * @return the time per operation of the cases, empty if the file doesn't exist
+     * @throws IOException if the file can't be read
+     */
+    public static Map<String, Double> readBaseline(Path file) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file)) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2) {
+                    baseline.put(parts[0], Double.parseDouble(parts[1]));
+                }
+            }
+        }
+        return baseline;
+    }
+
+    private static double measure(Case c) {
+        int operations = 1;
+        while (time(c, operations) < BATCH_NANOS && operations < MAX_OPERATIONS) {
+            operations *= 2;
+        }
+
+        for (int i = 0; i < WARMUP_BATCHES; i++) {
+            time(c, operations);
+        }
+
+        double[] nanosPerOperation = new double[MEASURED_BATCHES];
+        for (int i = 0; i < MEASURED_BATCHES; i++) {
+            nanosPerOperation[i] = (double) time(c, operations) / operations;
+        }
+
+        Arrays.sort(nanosPerOperation);
+        return nanosPerOperation[MEASURED_BATCHES / 2];
+    }
+
+    private static long time(Case c, int operations) {
+        long start = System.nanoTime();
+        sink += c.run(operations);
+        return System.nanoTime() - start;
+    }
+}
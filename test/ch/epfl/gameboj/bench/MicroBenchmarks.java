@@ -0,0 +1,516 @@
+package ch.epfl.gameboj.bench;
+
+import static ch.epfl.gameboj.bits.BitVectorTest.randomVector;
+import static ch.epfl.gameboj.component.cpu.Opcode.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.bits.BitPlanes;
+import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.bits.MutableBitVector;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+import ch.epfl.gameboj.component.cartridge.MBC0;
+import ch.epfl.gameboj.component.cpu.Alu;
+import ch.epfl.gameboj.component.cpu.Assembler;
+import ch.epfl.gameboj.component.cpu.Cpu;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImageLine;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * Microbenchmarks of the hot paths of the emulator, compared with the baselines recorded
+ * in baseline.txt, next to this file
+ *
+ * Usage : MicroBenchmarks [--filter regex] [--baseline file] [--record file]
+ * <ul>
+ * <li>--filter : only runs the cases whose name contains a match of the expression</li>
+ * <li>--baseline : the baselines to compare with (default test/ch/epfl/gameboj/bench/baseline.txt)</li>
+ * <li>--record : writes the results to a file, to be used as the new baselines</li>
+ * </ul>
+ * Every performance change to one of the measured classes should be judged against the same
+ * baselines, recorded on the same machine before the change. The kernels of BitPlanes are compared
+ * by recording the results of a run, then running again with the options
+ * --add-modules jdk.incubator.vector -Dgameboj.simd=true and the recorded file as baseline.
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class MicroBenchmarks {
+
+    private static final Path DEFAULT_BASELINE = Paths.get("test/ch/epfl/gameboj/bench/baseline.txt");
+    private static final String GUI_BENCHMARKS = "ch.epfl.gameboj.gui.GuiBenchmarks";
+
+    // Power of two, so that indices can be masked
+    private static final int INPUTS = 1 << 12;
+    private static final int INPUT_MASK = INPUTS - 1;
+    private static final int LINE_SIZE = 256;
+    // The cycles of an lcd line, given to the recompiled cases as distance to the next event
+    private static final int HORIZON_CYCLES = 114;
+
+    public static void main(String[] args) throws IOException {
+        Pattern filter = Pattern.compile("");
+        Path baselineFile = DEFAULT_BASELINE;
+        Path recordFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter": filter = Pattern.compile(args[++i]); break;
+                case "--baseline": baselineFile = Paths.get(args[++i]); break;
+                case "--record": recordFile = Paths.get(args[++i]); break;
+
+                default: throw new IllegalArgumentException("Unknown option : " + args[i]);
+            }
+        }
+
+        Map<String, Double> baseline = Harness.readBaseline(baselineFile);
+        System.out.printf("%s, %d baselines, %s bit planes%n", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"),
+                baseline.size(), BitPlanes.isVectorized() ? "vectorized" : "scalar");
+        Harness h = new Harness(filter, baseline);
+
+        busBenchmarks(h);
+        cpuBenchmarks(h);
+        aluBenchmarks(h);
+        bitVectorBenchmarks(h);
+        imageLineBenchmarks(h);
+        lcdBenchmarks(h);
+        cartridgeBenchmarks(h);
+        guiBenchmarks(h);
+
+        if (recordFile != null) {
+            h.record(recordFile);
+        }
+    }
+
+    /* Bus */
+
+    private static void busBenchmarks(Harness h) {
+        Random rng = new Random(1);
+        GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(new byte[MBC0.ROM_SIZE]));
+        Bus bus = gb.bus();
+
+        // Cartridge, video ram, work ram, echo ram, lcd registers, timer and high ram
+        int[][] readRanges = { { 0x0000, 0x8000 }, { 0x8000, 0xA000 }, { 0xC000, 0xE000 }, { 0xE000, 0xFE00 },
+                { 0xFF40, 0xFF46 }, { 0xFF04, 0xFF08 }, { 0xFF80, 0xFFFF } };
+        // Only memories, whose writes have no side effect
+        int[][] writeRanges = { { 0x8000, 0xA000 }, { 0xC000, 0xE000 }, { 0xFE00, 0xFEA0 }, { 0xFF80, 0xFFFF } };
+        int[] reads = randomAddresses(rng, readRanges);
+        int[] writes = randomAddresses(rng, writeRanges);
+
+        h.add("bus.read", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) {
+                s += bus.read(reads[i & INPUT_MASK]);
+            }
+            return s;
+        });
+        h.add("bus.write", n -> {
+            for (int i = 0; i < n; i++) {
+                bus.write(writes[i & INPUT_MASK], i & 0xFF);
+            }
+            return n;
+        });
+    }
+
+    private static int[] randomAddresses(Random rng, int[][] ranges) {
+        int[] addresses = new int[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            int[] range = ranges[rng.nextInt(ranges.length)];
+            addresses[i] = range[0] + rng.nextInt(range[1] - range[0]);
+        }
+        return addresses;
+    }
+
+    /* Cpu */
+
+    private static void cpuBenchmarks(Harness h) {
+        Assembler alu = new Assembler()
+                .emit(ADD_A_B).emit(SUB_A_C).emit(AND_A_D).emit(OR_A_E)
+                .emit(XOR_A_H).emit(ADC_A_L).emit(INC_B).emit(DEC_C)
+                .emit(CP_A_N8, 0x42).emit(RLCA).emit(ADD_HL_BC).emit(INC_HL);
+        Assembler load = new Assembler()
+                .emit(LD_HL_N16, 0xC000).emit(LD_HLR_A).emit(LD_B_HLR).emit(LD_HLRI_A)
+                .emit(LD_A_HLRI).emit(LD_C_A).emit(PUSH_BC).emit(POP_DE)
+                .emit(LD_N8R_A, 0x80).emit(LD_A_N8R, 0x81).emit(LD_N16R_A, 0xC100).emit(LD_A_N16R, 0xC101);
+        Assembler branch = new Assembler()
+                .emit(LD_B_N8, 4)
+                .emit(DEC_B).emit(JR_NZ_E8, 0xFD)
+                .emit(CALL_N16, 0x200).emit(NOP).emit(JP_N16, 0x10D)
+                .emit(NOP).emit(NOP).emit(NOP);
+        Assembler prefixed = new Assembler()
+                .emit(BIT_3_A).emit(SET_1_B).emit(RES_2_C).emit(SWAP_D)
+                .emit(RL_E).emit(SRL_H).emit(BIT_3_A).emit(SWAP_D);
+
+        h.add("cpu.dispatch.alu", cpuCase(alu, false));
+        h.add("cpu.dispatch.load", cpuCase(load, false));
+        h.add("cpu.dispatch.branch", cpuCase(branch, false));
+        h.add("cpu.dispatch.prefixed", cpuCase(prefixed, false));
+        h.add("cpu.recompiled.alu", cpuCase(alu, true));
+        h.add("cpu.recompiled.load", cpuCase(load, true));
+        h.add("cpu.recompiled.branch", cpuCase(branch, true));
+        h.add("cpu.recompiled.prefixed", cpuCase(prefixed, true));
+    }
+
+    /**
+     * Builds a case running the given instructions in a loop, an operation being one instruction.
+     * When recompiling, the next event is always HORIZON_CYCLES cycles away
+     */
+    private static Harness.Case cpuCase(Assembler body, boolean recompiling) {
+        Assembler.Program p = body.program();
+        byte[] rom = new byte[MBC0.ROM_SIZE];
+        int start = 0x100;
+        for (int i = 0; i < p.bytes(); i++) {
+            rom[start + i] = (byte) p.rom().read(i);
+        }
+
+        // Jumps back to the start of the loop
+        int end = start + p.bytes();
+        rom[end] = (byte) JP_N16.encoding;
+        rom[end + 1] = (byte) start;
+        rom[end + 2] = (byte) (start >>> 8);
+        // Subroutine called by the branch mix
+        rom[0x200] = (byte) RET.encoding;
+        // Sets up the stack in work ram, then jumps to the loop
+        rom[0] = (byte) LD_SP_N16.encoding;
+        rom[1] = (byte) 0xF0;
+        rom[2] = (byte) 0xDF;
+        rom[3] = (byte) JP_N16.encoding;
+        rom[4] = (byte) start;
+        rom[5] = (byte) (start >>> 8);
+
+        Bus bus = new Bus();
+        Cpu cpu = new Cpu();
+        bus.attach(new MBC0(new Rom(rom)), 0, MBC0.ROM_SIZE);
+        Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
+        new RamController(workRam, AddressMap.WORK_RAM_START).attachTo(bus);
+        cpu.attachTo(bus);
+        cpu.setRecompiling(recompiling);
+
+        long[] cycle = { 0 };
+        runInstructions(cpu, cycle, 2);
+
+        return n -> {
+            runInstructions(cpu, cycle, n);
+            return cpu.executedInstructions();
+        };
+    }
+
+    private static void runInstructions(Cpu cpu, long[] cycle, long instructions) {
+        long target = cpu.executedInstructions() + instructions;
+        long c = cycle[0];
+        while (cpu.executedInstructions() < target) {
+            c = cpu.nextEventCycle(c);
+            cpu.setEventHorizon(c + HORIZON_CYCLES);
+            cpu.cycle(c);
+            c++;
+        }
+        cycle[0] = c;
+    }
+
+    /* Alu */
+
+    private static void aluBenchmarks(Harness h) {
+        h.add("alu.add", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.add(i & 0xFF, (i >>> 8) & 0xFF, (i & 0x10000) != 0);
+            return s;
+        });
+        h.add("alu.add16L", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.add16L(i & 0xFFFF, (i * 31) & 0xFFFF);
+            return s;
+        });
+        h.add("alu.add16H", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.add16H(i & 0xFFFF, (i * 31) & 0xFFFF);
+            return s;
+        });
+        h.add("alu.sub", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.sub(i & 0xFF, (i >>> 8) & 0xFF, (i & 0x10000) != 0);
+            return s;
+        });
+        h.add("alu.bcdAdjust", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.bcdAdjust(i & 0xFF, (i & 0x100) != 0, (i & 0x200) != 0, (i & 0x400) != 0);
+            return s;
+        });
+        h.add("alu.and", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.and(i & 0xFF, (i >>> 8) & 0xFF);
+            return s;
+        });
+        h.add("alu.or", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.or(i & 0xFF, (i >>> 8) & 0xFF);
+            return s;
+        });
+        h.add("alu.xor", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.xor(i & 0xFF, (i >>> 8) & 0xFF);
+            return s;
+        });
+        h.add("alu.shiftLeft", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.shiftLeft(i & 0xFF);
+            return s;
+        });
+        h.add("alu.shiftRightA", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.shiftRightA(i & 0xFF);
+            return s;
+        });
+        h.add("alu.shiftRightL", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.shiftRightL(i & 0xFF);
+            return s;
+        });
+        h.add("alu.rotate", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.rotate((i & 0x100) != 0 ? Alu.RotDir.LEFT : Alu.RotDir.RIGHT, i & 0xFF);
+            return s;
+        });
+        h.add("alu.rotateThroughCarry", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.rotate((i & 0x100) != 0 ? Alu.RotDir.LEFT : Alu.RotDir.RIGHT, i & 0xFF, (i & 0x200) != 0);
+            return s;
+        });
+        h.add("alu.swap", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.swap(i & 0xFF);
+            return s;
+        });
+        h.add("alu.testBit", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.testBit(i & 0xFF, (i >>> 8) & 0x7);
+            return s;
+        });
+        h.add("alu.maskZNHC", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.maskZNHC((i & 1) != 0, (i & 2) != 0, (i & 4) != 0, (i & 8) != 0);
+            return s;
+        });
+        h.add("alu.unpack", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += Alu.unpackValue(i & 0xFFFF) + Alu.unpackFlags(i & 0xFFFF);
+            return s;
+        });
+    }
+
+    /* BitVector */
+
+    private static void bitVectorBenchmarks(Harness h) {
+        Random rng = new Random(2);
+        BitVector[] vectors = new BitVector[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            vectors[i] = randomVector(rng, LINE_SIZE);
+        }
+
+        h.add("bitVector.and", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].and(vectors[(i + 1) & INPUT_MASK]).hashCode();
+            return s;
+        });
+        h.add("bitVector.or", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].or(vectors[(i + 1) & INPUT_MASK]).hashCode();
+            return s;
+        });
+        h.add("bitVector.not", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].not().hashCode();
+            return s;
+        });
+        h.add("bitVector.shift", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].shift((i % 97) - 48).hashCode();
+            return s;
+        });
+        h.add("bitVector.extractWrapped", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].extractWrapped(i % 256 - 64, 160).hashCode();
+            return s;
+        });
+        h.add("bitVector.extractZeroExtended", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].extractZeroExtended(i % 256 - 64, 160).hashCode();
+            return s;
+        });
+
+        MutableBitVector line = new MutableBitVector(LINE_SIZE);
+        MutableBitVector lcdLine = new MutableBitVector(LcdController.LCD_WIDTH);
+        h.add("bitVector.andInPlace", n -> {
+            line.set(vectors[0]);
+            for (int i = 0; i < n; i++) line.andInPlace(vectors[i & INPUT_MASK]);
+            return line.testBit(0) ? 1 : 0;
+        });
+        h.add("bitVector.orInto", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].orInto(vectors[(i + 1) & INPUT_MASK], line).testBit(i & 0xFF) ? 1 : 0;
+            return s;
+        });
+        h.add("bitVector.notInto", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].notInto(line).testBit(i & 0xFF) ? 1 : 0;
+            return s;
+        });
+        h.add("bitVector.shiftInto", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].shiftInto((i % 97) - 48, line).testBit(i & 0xFF) ? 1 : 0;
+            return s;
+        });
+        h.add("bitVector.extractWrappedInto", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += vectors[i & INPUT_MASK].extractWrappedInto(i % 256 - 64, lcdLine).testBit(i % 160) ? 1 : 0;
+            return s;
+        });
+    }
+
+    /* LcdImageLine */
+
+    private static void imageLineBenchmarks(Harness h) {
+        Random rng = new Random(3);
+        LcdImageLine[] lines = new LcdImageLine[INPUTS];
+        BitVector[] opacities = new BitVector[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            lines[i] = new LcdImageLine(randomVector(rng, LcdController.LCD_WIDTH), randomVector(rng, LcdController.LCD_WIDTH),
+                    randomVector(rng, LcdController.LCD_WIDTH));
+            opacities[i] = randomVector(rng, LcdController.LCD_WIDTH);
+        }
+
+        h.add("lcdImageLine.mapColors", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += lines[i & INPUT_MASK].mapColors(0b00_01_11_10 ^ (i & 0xFF)).hashCode();
+            return s;
+        });
+        h.add("lcdImageLine.below", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += lines[i & INPUT_MASK].below(lines[(i + 1) & INPUT_MASK]).hashCode();
+            return s;
+        });
+        h.add("lcdImageLine.belowWithOpacity", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += lines[i & INPUT_MASK].below(lines[(i + 1) & INPUT_MASK], opacities[i & INPUT_MASK]).hashCode();
+            return s;
+        });
+        h.add("lcdImageLine.join", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += lines[i & INPUT_MASK].join(lines[(i + 1) & INPUT_MASK], i % 160).hashCode();
+            return s;
+        });
+        h.add("lcdImageLine.withSprites", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += lines[i & INPUT_MASK].withSprites(lines[(i + 1) & INPUT_MASK], lines[(i + 2) & INPUT_MASK]).hashCode();
+            return s;
+        });
+    }
+
+    /* LcdController */
+
+    private static void lcdBenchmarks(Harness h) {
+        for (LcdController.RenderMode mode : LcdController.RenderMode.values()) {
+            h.add("lcdController.frame." + mode, lcdCase(mode));
+        }
+    }
+
+    /**
+     * Builds a case drawing whole frames with random tiles and sprites, the background, the window
+     * and the sprites being enabled. An operation is a frame
+     */
+    private static Harness.Case lcdCase(LcdController.RenderMode mode) {
+        Random rng = new Random(4);
+        Cpu cpu = new Cpu();
+        Bus bus = new Bus();
+        LcdController lcd = new LcdController(cpu, mode);
+        cpu.attachTo(bus);
+        lcd.attachTo(bus);
+
+        for (int a = AddressMap.VIDEO_RAM_START; a < AddressMap.VIDEO_RAM_END; a++) {
+            bus.write(a, rng.nextInt(0x100));
+        }
+        for (int a = AddressMap.OAM_START; a < AddressMap.OAM_END; a++) {
+            bus.write(a, rng.nextInt(0x100));
+        }
+        bus.write(AddressMap.REGS_LCDC_START + 7, 0b11_10_01_00); // BGP
+        bus.write(AddressMap.REGS_LCDC_START + 8, 0b00_01_10_11); // OBP0
+        bus.write(AddressMap.REGS_LCDC_START + 10, 50);           // WY
+        bus.write(AddressMap.REGS_LCDC_START + 11, 47);           // WX
+        bus.write(AddressMap.REGS_LCDC_START, 0b1110_0011);       // LCDC
+
+        long[] cycle = { 0 };
+        return n -> {
+            long s = 0;
+            for (int f = 0; f < n; f++) {
+                long end = cycle[0] + LcdController.CYCLES_PER_FRAME;
+                long c = cycle[0];
+                while (c < end) {
+                    c = Math.min(lcd.nextEventCycle(c), end - 1);
+                    lcd.cycle(c);
+                    c++;
+                }
+                cycle[0] = end;
+                s += mode == LcdController.RenderMode.IMAGE_LINES
+                        ? lcd.currentImage().hashCode()
+                        : lcd.currentFrame().block(f % LcdController.LCD_HEIGHT, 0);
+            }
+            return s;
+        };
+    }
+
+    /* Cartridge */
+
+    private static void cartridgeBenchmarks(Harness h) throws IOException {
+        byte[] rom = new byte[MBC0.ROM_SIZE];
+        new Random(5).nextBytes(rom);
+        rom[Cartridge.MB_TYPE_ADDRESS] = Cartridge.MB_TYPE_0;
+
+        File file = File.createTempFile("gameboj", ".gb");
+        file.deleteOnExit();
+        Files.write(file.toPath(), rom);
+
+        h.add("cartridge.ofFile", n -> {
+            long s = 0;
+            try {
+                for (int i = 0; i < n; i++) s += Cartridge.ofFile(file).read(i & 0x7FFF);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return s;
+        });
+    }
+
+    /* Gui */
+
+    /**
+     * Runs the benchmarks of the user interface, which need JavaFX, if it is available
+     */
+    private static void guiBenchmarks(Harness h) {
+        try {
+            Class.forName(GUI_BENCHMARKS).getMethod("register", Harness.class).invoke(null, h);
+        } catch (ClassNotFoundException | NoClassDefFoundError e) {
+            System.out.println("gui benchmarks skipped : JavaFX is not available");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof NoClassDefFoundError) {
+                System.out.println("gui benchmarks skipped : JavaFX is not available");
+            } else {
+                throw new IllegalStateException(e.getCause());
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ch.epfl.gameboj.bits;
+
+import static ch.epfl.gameboj.bits.BitVectorTest.randomVector;
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BitPlanesTest {
+
+    private static final int[] SIZES = { 32, 64, 96, 160, 256, 320 };
+
+    @Test
+    void operationsFailForDifferentSizes() {
+        BitVector v = new BitVector(64), w = new BitVector(96);
+        MutableBitVector m = new MutableBitVector(64);
+        assertThrows(IllegalArgumentException.class, () -> BitPlanes.multiplex(v, v, w));
+        assertThrows(IllegalArgumentException.class, () -> BitPlanes.mapColorsInto(v, w, 0, m, m));
+        assertThrows(IllegalArgumentException.class, () -> BitPlanes.composeSprites(v, v, v, v, v, w));
+    }
+
+    @Test
+    void mapColorsFailsForInvalidPalette() {
+        BitVector v = new BitVector(64);
+        MutableBitVector m = new MutableBitVector(64);
+        assertThrows(IllegalArgumentException.class, () -> BitPlanes.mapColorsInto(v, v, 0x100, m, m));
+    }
+
+    @Test
+    void operationsWorkLikeBitVectorOperations() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            int size = SIZES[rng.nextInt(SIZES.length)];
+            BitVector a = randomVector(rng, size), b = randomVector(rng, size), c = randomVector(rng, size);
+            BitVector d = randomVector(rng, size), e = randomVector(rng, size), f = randomVector(rng, size);
+
+            assertEquals(a.and(c).or(b.and(c.not())), BitPlanes.multiplex(a, b, c));
+
+            BitVector lineMask = b.or(d.not());
+            BitVector behind = a.and(lineMask).or(c.and(lineMask.not()));
+            assertEquals(e.and(f).or(behind.and(f.not())), BitPlanes.composeSprites(a, b, c, d, e, f));
+
+            int palette = rng.nextInt(0x100);
+            MutableBitVector msb = new MutableBitVector(size), lsb = new MutableBitVector(size);
+            BitPlanes.mapColorsInto(a, b, palette, msb, lsb);
+            for (int bit = 0; bit < size; ++bit) {
+                int color = (a.testBit(bit) ? 0b10 : 0) | (b.testBit(bit) ? 0b01 : 0);
+                int newColor = Bits.extract(palette, 2 * color, 2);
+                assertEquals(Bits.test(newColor, 1), msb.testBit(bit));
+                assertEquals(Bits.test(newColor, 0), lsb.testBit(bit));
+            }
+        }
+    }
+
+    @Test
+    void vectorKernelWorksLikeScalarKernel() {
+        BitPlanes.Kernel vector = BitPlanes.vectorKernel();
+        if (vector == null) {
+            // The module jdk.incubator.vector is not available
+            return;
+        }
+        BitPlanes.Kernel scalar = new BitPlanes.ScalarKernel();
+
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            int length = 1 + rng.nextInt(12);
+            long[][] in = new long[6][length];
+            for (long[] blocks : in) {
+                for (int j = 0; j < length; ++j) {
+                    blocks[j] = rng.nextLong();
+                }
+            }
+            long[] expected1 = new long[length], expected2 = new long[length];
+            long[] actual1 = new long[length], actual2 = new long[length];
+
+            int palette = rng.nextInt(0x100);
+            scalar.mapColors(in[0], in[1], palette, expected1, expected2);
+            vector.mapColors(in[0], in[1], palette, actual1, actual2);
+            assertArrayEquals(expected1, actual1);
+            assertArrayEquals(expected2, actual2);
+
+            scalar.multiplex(in[0], in[1], in[2], expected1);
+            vector.multiplex(in[0], in[1], in[2], actual1);
+            assertArrayEquals(expected1, actual1);
+
+            scalar.composeSprites(in[0], in[1], in[2], in[3], in[4], in[5], expected1);
+            vector.composeSprites(in[0], in[1], in[2], in[3], in[4], in[5], actual1);
+            assertArrayEquals(expected1, actual1);
+        }
+    }
+}
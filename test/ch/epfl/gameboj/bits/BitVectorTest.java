@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -241,4 +242,17 @@ public class BitVectorTest {
         return String.format("%" + hex.length()*4 + "s", new BigInteger(hex, 16).toString(2)).replace(' ', '0');
     }
 
+    /**
+     * @param rng : the random number generator
+     * @param size : the size of the vector, a multiple of 8
+     * @return a vector of random bits
+     */
+    public static BitVector randomVector(Random rng, int size) {
+        BitVector.Builder b = new BitVector.Builder(size);
+        for (int i = 0; i < size / Byte.SIZE; ++i) {
+            b.setByte(i, rng.nextInt(0x100));
+        }
+        return b.build();
+    }
+
 }
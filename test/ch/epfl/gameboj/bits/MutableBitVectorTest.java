@@ -0,0 +1,110 @@
+package ch.epfl.gameboj.bits;
+
+import static ch.epfl.gameboj.bits.BitVectorTest.randomVector;
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MutableBitVectorTest {
+
+    private static final int[] SIZES = { 32, 64, 96, 160, 256, 320 };
+
+    @Test
+    void constructorFailsForInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new MutableBitVector(0));
+        assertThrows(IllegalArgumentException.class, () -> new MutableBitVector(-32));
+        assertThrows(IllegalArgumentException.class, () -> new MutableBitVector(33));
+    }
+
+    @Test
+    void operationsFailForDifferentSizes() {
+        BitVector v = new BitVector(64);
+        MutableBitVector m = new MutableBitVector(96);
+        assertThrows(IllegalArgumentException.class, () -> m.set(v));
+        assertThrows(IllegalArgumentException.class, () -> m.andInPlace(v));
+        assertThrows(IllegalArgumentException.class, () -> m.orInPlace(new MutableBitVector(64)));
+        assertThrows(IllegalArgumentException.class, () -> v.notInto(m));
+        assertThrows(IllegalArgumentException.class, () -> v.andInto(v, m));
+        assertThrows(IllegalArgumentException.class, () -> v.shiftInto(3, m));
+    }
+
+    @Test
+    void testBitFailsForInvalidIndex() {
+        MutableBitVector m = new MutableBitVector(96);
+        assertThrows(IndexOutOfBoundsException.class, () -> m.testBit(96));
+        assertThrows(IndexOutOfBoundsException.class, () -> m.testBit(-1));
+    }
+
+    @Test
+    void notKeepsTheBitsBeyondTheSizeCleared() {
+        MutableBitVector m = new MutableBitVector(96).notInPlace();
+        assertEquals(new BitVector(96, true), m.toBitVector());
+        assertEquals(new BitVector(96, true), new BitVector(96).notInto(new MutableBitVector(96)).toBitVector());
+    }
+
+    @Test
+    void toBitVectorIsNotModifiedByLaterOperations() {
+        MutableBitVector m = new MutableBitVector(64);
+        BitVector v = m.toBitVector();
+        m.notInPlace();
+        assertFalse(v.testBit(0));
+        assertTrue(m.testBit(0));
+    }
+
+    @Test
+    void operationsReturnTheirDestination() {
+        BitVector v = new BitVector(64);
+        MutableBitVector m = new MutableBitVector(64);
+        assertSame(m, m.set(v).notInPlace().andInPlace(v).orInPlace(m));
+        assertSame(m, v.orInto(v, m));
+        assertSame(m, v.extractWrappedInto(3, m));
+    }
+
+    @Test
+    void operationsWorkLikeImmutableOnes() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            int size = SIZES[rng.nextInt(SIZES.length)];
+            BitVector v1 = randomVector(rng, size), v2 = randomVector(rng, size);
+            MutableBitVector m = new MutableBitVector(size);
+
+            assertEquals(v1.not(), v1.notInto(m).toBitVector());
+            assertEquals(v1.and(v2), v1.andInto(v2, m).toBitVector());
+            assertEquals(v1.or(v2), v1.orInto(v2, m).toBitVector());
+            assertEquals(v1.and(v2), m.set(v1).andInPlace(v2).toBitVector());
+            assertEquals(v1.or(v2), m.set(v1).orInPlace(v2).toBitVector());
+            assertEquals(v1.not().or(v2), m.set(v1).notInPlace().orInPlace(v2).toBitVector());
+
+            int distance = rng.nextInt(2 * size + 1) - size;
+            assertEquals(v1.shift(distance), v1.shiftInto(distance, m).toBitVector());
+        }
+    }
+
+    @Test
+    void extractionsMatchBitByBitExtraction() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            BitVector v = randomVector(rng, SIZES[rng.nextInt(SIZES.length)]);
+            int size = SIZES[rng.nextInt(SIZES.length)];
+            int start = rng.nextInt(4 * v.size()) - 2 * v.size();
+
+            BitVector wrapped = v.extractWrappedInto(start, new MutableBitVector(size)).toBitVector();
+            BitVector zeroExtended = v.extractZeroExtendedInto(start, new MutableBitVector(size)).toBitVector();
+            for (int b = 0; b < size; ++b) {
+                int index = start + b;
+                assertEquals(v.testBit(Math.floorMod(index, v.size())), wrapped.testBit(b));
+                assertEquals(0 <= index && index < v.size() && v.testBit(index), zeroExtended.testBit(b));
+            }
+            assertEquals(wrapped, v.extractWrapped(start, size));
+            assertEquals(zeroExtended, v.extractZeroExtended(start, size));
+        }
+    }
+}
@@ -158,4 +158,39 @@ public final class TimerTest implements ComponentTest {
             assertEquals(t.read(0xFF05), tma);
         }
     }
+    
+    @Test
+    void registersAreTheSameWhenCycledOnlyAtSomeCycles() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            Timer t1 = newComponent(), t2 = newComponent();
+            int tac = 0b100 | rng.nextInt(4);
+            t1.write(0xFF07, tac);
+            t2.write(0xFF07, tac);
+            for (int c = 0; c < 5000; ++c) {
+                t1.cycle(c);
+                if (rng.nextInt(50) == 0) {
+                    t2.cycle(c);
+                    assertEquals(t1.read(0xFF04), t2.read(0xFF04));
+                    assertEquals(t1.read(0xFF05), t2.read(0xFF05));
+                }
+            }
+        }
+    }
+    
+    @Test
+    void nextEventCycleIsTheCycleOfTheNextOverflow() {
+        Timer t = newComponent();
+        assertEquals(Long.MAX_VALUE, t.nextEventCycle(0));
+        t.write(0xFF07, 0b101);
+        t.write(0xFF05, 0xFE);
+        // TIMA is incremented every 4 cycles, and overflows at its second increment
+        assertEquals(7, t.nextEventCycle(0));
+        for (int c = 0; c < 7; ++c)
+            t.cycle(c);
+        assertEquals(0xFF, t.read(0xFF05));
+        t.cycle(7);
+        assertEquals(0, t.read(0xFF05));
+        assertEquals(7 + 256 * 4, t.nextEventCycle(8));
+    }
 }
@@ -0,0 +1,163 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.memory.Rom;
+
+class BatterySaverTest {
+    private static final int RAM_SIZE = 0x2000;
+    private static final long LONG_INTERVAL = 1_000_000;
+
+    @Test
+    void constructorFailsForCartridgeWithoutRam() throws IOException {
+        Cartridge c = Cartridge.ofRom(new Rom(new byte[0x8000]));
+        assertThrows(IllegalArgumentException.class,
+                () -> new BatterySaver(c, saveFile(), LONG_INTERVAL));
+    }
+
+    @Test
+    void flushWritesTheRamOnlyAfterItChanged() throws IOException {
+        Cartridge c = cartridgeWithRam();
+        Path save = saveFile();
+
+        try (BatterySaver saver = new BatterySaver(c, save, LONG_INTERVAL)) {
+            saver.flush();
+            assertFalse(Files.exists(save));
+
+            c.write(0xA000, 0x12);
+            c.write(0xBFFF, 0x34);
+            saver.flush();
+            assertArrayEquals(c.readWholeRam(), Files.readAllBytes(save));
+
+            Files.delete(save);
+            saver.flush();
+            assertFalse(Files.exists(save));
+        }
+    }
+
+    @Test
+    void closeWritesTheLastChanges() throws IOException {
+        Cartridge c = cartridgeWithRam();
+        Path save = saveFile();
+
+        BatterySaver saver = new BatterySaver(c, save, LONG_INTERVAL);
+        c.write(0xA123, 0xAB);
+        saver.close();
+
+        byte[] saved = Files.readAllBytes(save);
+        assertEquals(RAM_SIZE, saved.length);
+        assertEquals((byte) 0xAB, saved[0x123]);
+    }
+
+    @Test
+    void ramIsWrittenPeriodically() throws IOException, InterruptedException {
+        Cartridge c = cartridgeWithRam();
+        Path save = saveFile();
+
+        BatterySaver saver = new BatterySaver(c, save, 10);
+        try {
+            c.write(0xA042, 0x42);
+            for (int i = 0; i < 500 && !Files.exists(save); ++i)
+                Thread.sleep(10);
+            assertTrue(Files.exists(save));
+            assertEquals(0x42, Files.readAllBytes(save)[0x42]);
+        } finally {
+            saver.close();
+        }
+    }
+
+    @Test
+    void flushKeepsThePermissionsOfTheSaveFile() throws IOException {
+        Cartridge c = cartridgeWithRam();
+        Path save = saveFile();
+        Files.write(save, new byte[RAM_SIZE]);
+        if (Files.getFileAttributeView(save, PosixFileAttributeView.class) == null)
+            return;
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(save, permissions);
+
+        try (BatterySaver saver = new BatterySaver(c, save, LONG_INTERVAL)) {
+            c.write(0xA000, 1);
+            saver.flush();
+            assertEquals(1, Files.readAllBytes(save)[0]);
+            assertEquals(permissions, Files.getPosixFilePermissions(save));
+        }
+    }
+
+    @Test
+    void loadStateOnlyMarksChangedPagesDirty() {
+        Cartridge c = cartridgeWithRam();
+        byte[] image = new byte[RAM_SIZE];
+        c.write(0xA400, 7);
+        c.copyDirtyRam(image);
+
+        ByteBuffer state = ByteBuffer.allocate(2 * RAM_SIZE);
+        c.saveState(state);
+        state.flip();
+        c.loadState(state);
+        assertFalse(state.hasRemaining());
+        assertFalse(c.copyDirtyRam(image));
+
+        c.write(0xA400, 8);
+        c.write(0xA500, 9);
+        c.copyDirtyRam(image);
+        state.rewind();
+        c.loadState(state);
+        image[0x401] = 5;
+        image[0x600] = 6;
+        assertTrue(c.copyDirtyRam(image));
+        assertEquals(7, image[0x400]);
+        assertEquals(0, image[0x500]);
+        // Only the pages restored by the load are copied again
+        assertEquals(0, image[0x401]);
+        assertEquals(6, image[0x600]);
+    }
+
+    @Test
+    void copyDirtyRamOnlyCopiesWrittenPages() {
+        Cartridge c = cartridgeWithRam();
+        byte[] image = new byte[RAM_SIZE];
+        assertFalse(c.copyDirtyRam(image));
+
+        image[0x300] = 9;
+        c.write(0xA000, 1);
+        c.write(0xA1FF, 2);
+        assertTrue(c.copyDirtyRam(image));
+        assertEquals(1, image[0]);
+        assertEquals(2, image[0x1FF]);
+        // The page of this byte was not written : the image keeps its value
+        assertEquals(9, image[0x300]);
+
+        assertFalse(c.copyDirtyRam(image));
+    }
+
+    private static Cartridge cartridgeWithRam() {
+        byte[] romData = new byte[0x8000];
+        romData[Cartridge.MB_TYPE_ADDRESS] = 3;
+        romData[Cartridge.RAM_SIZE_ADDRESS] = 2;
+        Cartridge c = Cartridge.ofRom(new Rom(romData));
+        c.write(0x0000, 0xA);
+        return c;
+    }
+
+    private static Path saveFile() throws IOException {
+        Path dir = Files.createTempDirectory("TestSave_");
+        dir.toFile().deleteOnExit();
+        return dir.resolve("game.sav");
+    }
+}
@@ -0,0 +1,68 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+class GBSaverTest {
+    private static final int RAM_SIZE = 0x2000;
+
+    @Test
+    void mappedRamIsWrittenToTheSaveFile() throws IOException {
+        Path dir = tempDir();
+        File save = dir.resolve("game.sav").toFile();
+
+        GBSaver saver = new GBSaver(true);
+        Cartridge c = saver.load(romFile(dir), Optional.of(save));
+        assertEquals(RAM_SIZE, save.length());
+
+        c.write(0x0000, 0xA);
+        c.write(0xA010, 0x5A);
+        saver.save();
+        assertEquals(0x5A, Files.readAllBytes(save.toPath())[0x10]);
+
+        Cartridge reloaded = new GBSaver(true).load(romFile(dir), Optional.of(save));
+        reloaded.write(0x0000, 0xA);
+        assertEquals(0x5A, reloaded.read(0xA010));
+    }
+
+    @Test
+    void backgroundSavesAreReloaded() throws IOException {
+        Path dir = tempDir();
+        File save = dir.resolve("game.sav").toFile();
+
+        GBSaver saver = new GBSaver();
+        Cartridge c = saver.load(romFile(dir), Optional.of(save));
+        assertFalse(save.exists());
+
+        c.write(0x0000, 0xA);
+        c.write(0xBF00, 0x33);
+        saver.save();
+
+        Cartridge reloaded = new GBSaver().load(romFile(dir), Optional.of(save));
+        reloaded.write(0x0000, 0xA);
+        assertEquals(0x33, reloaded.read(0xBF00));
+    }
+
+    private static File romFile(Path dir) throws IOException {
+        byte[] romData = new byte[0x8000];
+        romData[Cartridge.MB_TYPE_ADDRESS] = 3;
+        romData[Cartridge.RAM_SIZE_ADDRESS] = 2;
+        Path rom = dir.resolve("game.gb");
+        Files.write(rom, romData);
+        return rom.toFile();
+    }
+
+    private static Path tempDir() throws IOException {
+        Path dir = Files.createTempDirectory("TestSave_");
+        dir.toFile().deleteOnExit();
+        return dir;
+    }
+}
@@ -0,0 +1,49 @@
+package ch.epfl.gameboj.component.cartridge;
+
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.memory.Rom;
+
+public final class MBC1Test {
+    private static final int ROM_SIZE = 0x80000;
+    private static final int RAM_SIZE = 0x8000;
+
+    @Test
+    void loadedStateRestoresRegistersAndRam() {
+        Random rng = newRandom();
+        byte[] romData = new byte[ROM_SIZE];
+        rng.nextBytes(romData);
+        Rom rom = new Rom(romData);
+
+        MBC1 mbc = new MBC1(rom, RAM_SIZE);
+        mbc.write(0x0000, 0xA);
+        for (int a = 0xA000; a < 0xC000; ++a)
+            mbc.write(a, rng.nextInt(0x100));
+        mbc.write(0x2000, 0x13);
+        mbc.write(0x4000, 0x2);
+        mbc.write(0x6000, 0x1);
+        for (int a = 0xA000; a < 0xC000; ++a)
+            mbc.write(a, rng.nextInt(0x100));
+
+        ByteBuffer buffer = ByteBuffer.allocate(RAM_SIZE + 16);
+        mbc.saveState(buffer);
+        buffer.flip();
+
+        MBC1 restored = new MBC1(rom, RAM_SIZE);
+        restored.loadState(buffer);
+        assertEquals(0, buffer.remaining());
+
+        for (int bank = 0; bank < 4; ++bank) {
+            mbc.write(0x4000, bank);
+            restored.write(0x4000, bank);
+            for (int a = 0; a < 0xC000; ++a)
+                assertEquals(mbc.read(a), restored.read(a), String.format("at address 0x%04x", a));
+        }
+    }
+}
@@ -51,6 +51,12 @@ public final class Assembler {
         return new Program(s.toByteArray(), cycles);
     }
     
+    public Assembler copyTo(byte[] data, int address) {
+        byte[] bytes = s.toByteArray();
+        System.arraycopy(bytes, 0, data, address, bytes.length);
+        return this;
+    }
+    
     public static class Program {
         private final int cycles, bytesCount;
         private final Component rom;
@@ -0,0 +1,117 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+
+class CpuDecodeCacheTest {
+
+
+    private Bus bus;
+    private Cpu cpu;
+    private long cycle;
+
+    private void newCpu(int address, int... code) {
+        bus = new Bus();
+        cpu = new Cpu();
+        Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
+        new RamController(new Ram(AddressMap.WORK_RAM_START), 0).attachTo(bus);
+        new RamController(workRam, AddressMap.WORK_RAM_START).attachTo(bus);
+        new RamController(workRam, AddressMap.ECHO_RAM_START, AddressMap.ECHO_RAM_END).attachTo(bus);
+        cpu.attachTo(bus);
+        cycle = 0;
+
+        if (address != 0) {
+            // JP address
+            load(0, 0xC3, address & 0xFF, address >>> 8);
+        }
+        load(address, code);
+    }
+
+    private void load(int address, int... code) {
+        for (int i = 0; i < code.length; ++i)
+            bus.write(address + i, code[i]);
+    }
+
+    private void runInstructions(long n) {
+        long target = cpu.executedInstructions() + n;
+        while (cpu.executedInstructions() < target)
+            cpu.cycle(cycle++);
+    }
+
+    private int a() {
+        return cpu._testGetPcSpAFBCDEHL()[2];
+    }
+
+    /**
+     * A loop which stores A, incremented, in the operand of its first instruction "LD A, n8"
+     */
+    private static int[] selfModifyingLoop(int address) {
+        int operand = address + 1;
+        return new int[] {
+                0x3E, 0x01,                                 // LD A, 1
+                0x3C,                                       // INC A
+                0xEA, operand & 0xFF, operand >>> 8,        // LD (operand), A
+                0xC3, address & 0xFF, address >>> 8 };      // JP address
+    }
+
+    @Test
+    void writesToDecodedCodeInWorkRamAreSeen() {
+        newCpu(0xC000, selfModifyingLoop(0xC000));
+        runInstructions(1 + 4 + 2);
+        assertEquals(3, a());
+        runInstructions(2 + 4 * 10);
+        assertEquals(13, a());
+    }
+
+    @Test
+    void writesToDecodedCodeInRomAreaAreSeen() {
+        newCpu(0x0150, selfModifyingLoop(0x0150));
+        runInstructions(1 + 4 * 5 + 2);
+        assertEquals(7, a());
+    }
+
+    @Test
+    void writesToTheRomAreaKeepingItsMappingKeepDecodedCode() {
+        newCpu(0x0150, selfModifyingLoop(0x0150));
+        // The mapping claims that the contents of the rom area never change
+        cpu.setCodeMapping(half -> 0);
+        runInstructions(1 + 4 * 5 + 2);
+        assertEquals(2, a());
+    }
+
+    @Test
+    void writesToTheRomAreaChangingItsMappingAreSeen() {
+        newCpu(0x0150, selfModifyingLoop(0x0150));
+        cpu.setCodeMapping(half -> half == 0 ? bus.read(0x0151) : 0);
+        runInstructions(1 + 4 * 5 + 2);
+        assertEquals(7, a());
+    }
+
+    @Test
+    void writesToDecodedCodeThroughEchoRamAreSeen() {
+        newCpu(0xC100, selfModifyingLoop(0xC100));
+        // Writes the operand of "LD A, n8" through the echo ram instead
+        load(0xC104, 0x01, 0xE1);
+        runInstructions(1 + 4 + 2);
+        assertEquals(3, a());
+    }
+
+    @Test
+    void writesOfOtherComponentsToHighRamAreSeen() {
+        newCpu(0xFF80,
+                0x3E, 0x01,     // LD A, 1
+                0x18, 0xFC);    // JR -4
+        runInstructions(1 + 2);
+        assertEquals(1, a());
+
+        bus.write(0xFF81, 0x42);
+        runInstructions(2);
+        assertEquals(0x42, a());
+    }
+}
@@ -0,0 +1,205 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.S6GameBoyTest;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+import ch.epfl.gameboj.component.memory.Rom;
+
+class LazyFlagsTest {
+
+    private static final int PROGRAM_SIZE = 600;
+    private static final int FULL_STATE_PERIOD = 16;
+
+    // The instructions reading or writing the flags, which don't write to memory outside of the stack
+    private static final Set<Opcode.Family> FAMILIES = EnumSet.of(
+            Opcode.Family.ADD_A_R8, Opcode.Family.ADD_A_N8, Opcode.Family.ADD_A_HLR,
+            Opcode.Family.SUB_A_R8, Opcode.Family.SUB_A_N8, Opcode.Family.SUB_A_HLR,
+            Opcode.Family.CP_A_R8, Opcode.Family.CP_A_N8, Opcode.Family.CP_A_HLR,
+            Opcode.Family.AND_A_R8, Opcode.Family.AND_A_N8, Opcode.Family.AND_A_HLR,
+            Opcode.Family.OR_A_R8, Opcode.Family.OR_A_N8, Opcode.Family.OR_A_HLR,
+            Opcode.Family.XOR_A_R8, Opcode.Family.XOR_A_N8, Opcode.Family.XOR_A_HLR,
+            Opcode.Family.INC_R8, Opcode.Family.DEC_R8, Opcode.Family.INC_R16SP, Opcode.Family.ADD_HL_R16SP,
+            Opcode.Family.ROTCA, Opcode.Family.ROTA, Opcode.Family.ROTC_R8, Opcode.Family.ROT_R8,
+            Opcode.Family.SWAP_R8, Opcode.Family.SLA_R8, Opcode.Family.SRA_R8, Opcode.Family.SRL_R8,
+            Opcode.Family.BIT_U3_R8, Opcode.Family.BIT_U3_HLR, Opcode.Family.DAA, Opcode.Family.CPL,
+            Opcode.Family.SCCF, Opcode.Family.LD_R8_N8, Opcode.Family.JR_CC_E8, Opcode.Family.JP_CC_N16,
+            Opcode.Family.PUSH_R16);
+
+    private static final Opcode[] OPCODES = Arrays.stream(Opcode.values())
+            .filter(o -> FAMILIES.contains(o.family))
+            .filter(o -> o != Opcode.INC_SP)
+            .toArray(Opcode[]::new);
+    private static final Opcode[] POPS = { Opcode.POP_BC, Opcode.POP_DE, Opcode.POP_HL, Opcode.POP_AF };
+
+    /**
+     * A cpu whose rom area is a ram
+     */
+    private static final class Machine {
+        final Bus bus = new Bus();
+        final Cpu cpu = new Cpu();
+        long cycle = 0;
+
+        Machine(boolean lazyFlags, int... code) {
+            new RamController(new Ram(AddressMap.CARTRIDGE_ROM_SIZE), 0).attachTo(bus);
+            new RamController(new Ram(AddressMap.WORK_RAM_SIZE), AddressMap.WORK_RAM_START).attachTo(bus);
+            cpu.attachTo(bus);
+            cpu.setLazyFlags(lazyFlags);
+
+            for (int i = 0; i < code.length; ++i)
+                bus.write(i, code[i]);
+        }
+
+        void runInstruction() {
+            cycle = cpu.nextEventCycle(cycle);
+            cpu.cycle(cycle);
+            cycle += 1;
+        }
+    }
+
+    private static void assertRunsLikeEagerFlags(int instructions, int... code) {
+        Machine eager = new Machine(false, code);
+        Machine lazy = new Machine(true, code);
+        for (int i = 1; i <= instructions; ++i) {
+            eager.runInstruction();
+            lazy.runInstruction();
+
+            // The cycles reveal the conditional jumps taken without reading the flags, which would
+            // compute those of the lazy cpu after every instruction
+            assertEquals(eager.cpu.nextEventCycle(eager.cycle), lazy.cpu.nextEventCycle(lazy.cycle));
+            if (i % FULL_STATE_PERIOD == 0) {
+                assertArrayEquals(eager.cpu._testGetPcSpAFBCDEHL(), lazy.cpu._testGetPcSpAFBCDEHL());
+            }
+        }
+        assertArrayEquals(eager.cpu._testGetPcSpAFBCDEHL(), lazy.cpu._testGetPcSpAFBCDEHL());
+    }
+
+    @Test
+    void pendingFlagsAreComputedWhenPushed() {
+        Machine m = new Machine(true,
+                0x31, 0xF0, 0xDF,   // LD SP, 0xDFF0
+                0x3E, 0x0F,         // LD A, 0x0F
+                0xC6, 0xF1,         // ADD A, 0xF1
+                0xF5,               // PUSH AF
+                0xC1,               // POP BC
+                0x3D,               // DEC A
+                0xF5,               // PUSH AF
+                0xD1);              // POP DE
+        for (int i = 0; i < 5; ++i)
+            m.runInstruction();
+        assertEquals(0xB0, m.cpu._testGetPcSpAFBCDEHL()[5]);
+
+        for (int i = 0; i < 3; ++i)
+            m.runInstruction();
+        assertEquals(0x70, m.cpu._testGetPcSpAFBCDEHL()[7]);
+    }
+
+    @Test
+    void conditionsReadFlagsOfPendingOperations() {
+        assertRunsLikeEagerFlags(200,
+                0x06, 0x05,         // LD B, 5
+                0x05,               // DEC B
+                0x20, 0xFD,         // JR NZ, -3
+                0x3E, 0xF0,         // LD A, 0xF0
+                0xC6, 0x20,         // ADD A, 0x20
+                0x38, 0x01,         // JR C, 1
+                0x00,               // NOP
+                0xFE, 0x20,         // CP A, 0x20
+                0x30, 0x01,         // JR NC, 1
+                0x3C,               // INC A
+                0x37,               // SCF
+                0x3C,               // INC A
+                0x38, 0x01,         // JR C, 1
+                0x00,               // NOP
+                0xA7,               // AND A, A
+                0xDA, 0x00, 0x00,   // JP C, 0
+                0xCE, 0x01,         // ADC A, 1
+                0x27,               // DAA
+                0xC3, 0x00, 0x00);  // JP 0
+    }
+
+    @Test
+    void randomProgramsRunLikeEagerFlags() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            int[] program = randomProgram(rng);
+            assertRunsLikeEagerFlags(PROGRAM_SIZE / 2, program);
+        }
+    }
+
+    @Test
+    void blarggsTestsGiveTheSameResultsWithEagerFlags() throws IOException {
+        for (int r = 0; r < S6GameBoyTest.blarggRomCount(); ++r) {
+            byte[] rom = S6GameBoyTest.blarggRom(r);
+            GameBoy eager = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+            GameBoy lazy = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+            eager.cpu().setLazyFlags(false);
+            StringBuilder eagerOutput = RecompilerTest.recordSerial(eager);
+            StringBuilder lazyOutput = RecompilerTest.recordSerial(lazy);
+
+            for (int f = 1; f <= RecompilerTest.BLARGG_FRAMES[r]; ++f) {
+                eager.runUntil((long) f * LcdController.CYCLES_PER_FRAME);
+                lazy.runUntil((long) f * LcdController.CYCLES_PER_FRAME);
+                assertArrayEquals(eager.cpu()._testGetPcSpAFBCDEHL(), lazy.cpu()._testGetPcSpAFBCDEHL());
+            }
+
+            assertEquals(eagerOutput.toString(), lazyOutput.toString());
+            assertTrue(lazyOutput.toString().endsWith("Passed\n"), lazyOutput.toString());
+        }
+    }
+
+    /**
+     * Generates a program of random instructions using the flags, whose conditional jumps go to the
+     * next instruction, every push being followed by a pop
+     */
+    private static int[] randomProgram(Random rng) {
+        List<Integer> code = new ArrayList<>(List.of(
+                0x31, 0xF0, 0xDF,       // LD SP, 0xDFF0
+                0x21, 0x00, 0xC0));     // LD HL, 0xC000
+
+        while (code.size() < PROGRAM_SIZE) {
+            Opcode o = OPCODES[rng.nextInt(OPCODES.length)];
+            if (o.kind == Opcode.Kind.PREFIXED)
+                code.add(0xCB);
+            code.add(o.encoding);
+
+            if (o.family == Opcode.Family.JR_CC_E8) {
+                code.add(0);
+            } else if (o.family == Opcode.Family.JP_CC_N16) {
+                int next = code.size() + 2;
+                code.add(next & 0xFF);
+                code.add(next >>> 8);
+            } else if (o.family == Opcode.Family.PUSH_R16) {
+                code.add(POPS[rng.nextInt(POPS.length)].encoding);
+            } else {
+                int operandBytes = o.totalBytes - (o.kind == Opcode.Kind.PREFIXED ? 2 : 1);
+                for (int b = 0; b < operandBytes; ++b)
+                    code.add(rng.nextInt(0x100));
+            }
+        }
+
+        code.add(0x18);     // JR -2
+        code.add(0xFE);
+        return code.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,247 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.S6GameBoyTest;
+import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+import ch.epfl.gameboj.component.memory.Rom;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+class RecompilerTest {
+
+    static final int[] BLARGG_FRAMES = { 300, 300, 300, 600, 600, 300, 300, 600, 1200, 1200, 1800, 300 };
+
+    /**
+     * A cpu whose rom area is a ram, and a component counting the writes to the serial register
+     */
+    private static final class Machine {
+        final Bus bus = new Bus();
+        final Cpu cpu = new Cpu();
+        int serialWrites = 0;
+        long cycle = 0;
+
+        Machine(boolean recompiling, int... code) {
+            new RamController(new Ram(AddressMap.CARTRIDGE_ROM_SIZE), 0).attachTo(bus);
+            new RamController(new Ram(AddressMap.WORK_RAM_SIZE), AddressMap.WORK_RAM_START).attachTo(bus);
+            new Component() {
+                @Override
+                public int read(int address) {
+                    return NO_DATA;
+                }
+
+                @Override
+                public void write(int address, int data) {
+                    if (address == AddressMap.REG_SB)
+                        serialWrites++;
+                }
+            }.attachTo(bus);
+            cpu.attachTo(bus);
+            if (recompiling)
+                cpu.setRecompiler(new Recompiler(1));
+
+            for (int i = 0; i < code.length; ++i)
+                bus.write(i, code[i]);
+        }
+
+        /**
+         * Runs the cpu like the gameboy does, no other component having anything to do before the end
+         */
+        void runUntil(long end) {
+            while (cycle < end) {
+                long next = Math.min(cpu.nextEventCycle(cycle), end - 1);
+                cpu.setEventHorizon(end);
+                cpu.cycle(next);
+                cycle = next + 1;
+            }
+        }
+    }
+
+    private static void assertSameState(Machine expected, Machine actual) {
+        assertArrayEquals(expected.cpu._testGetPcSpAFBCDEHL(), actual.cpu._testGetPcSpAFBCDEHL());
+        assertEquals(expected.cpu.executedInstructions(), actual.cpu.executedInstructions());
+        assertEquals(expected.cpu.nextEventCycle(expected.cycle), actual.cpu.nextEventCycle(actual.cycle));
+        assertEquals(expected.serialWrites, actual.serialWrites);
+    }
+
+    private static void assertRunsLikeInterpreter(long[] ends, int... code) {
+        Machine interpreted = new Machine(false, code);
+        Machine recompiled = new Machine(true, code);
+        for (long end : ends) {
+            interpreted.runUntil(end);
+            recompiled.runUntil(end);
+            assertSameState(interpreted, recompiled);
+        }
+    }
+
+    @Test
+    void constructorFailsForInvalidThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> new Recompiler(0));
+    }
+
+    @Test
+    void blocksRunAheadUpToTheEventHorizon() {
+        Machine m = new Machine(true,
+                0x3E, 0x00,     // LD A, 0
+                0x3C,           // INC A
+                0x18, 0xFD);    // JR -3
+
+        m.cpu.setEventHorizon(1000);
+        m.cpu.cycle(0);
+        long next = m.cpu.nextEventCycle(1);
+        assertTrue(1000 <= next && next < 1003, Long.toString(next));
+
+        assertRunsLikeInterpreter(new long[] { 1000, 1001, 5000 },
+                0x3E, 0x00,     // LD A, 0
+                0x3C,           // INC A
+                0x18, 0xFD);    // JR -3
+    }
+
+    @Test
+    void blocksStopBeforeAccessesToRegisters() {
+        Machine m = new Machine(true,
+                0x3E, 0x05,     // LD A, 5
+                0x3C,           // INC A
+                0xE0, 0x01,     // LDH (SB), A
+                0x18, 0xFB);    // JR -5
+        m.cpu.setEventHorizon(1000);
+        m.cpu.cycle(0);
+        assertEquals(0, m.serialWrites);
+        assertEquals(3, m.cpu._testGetPcSpAFBCDEHL()[0]);
+        assertEquals(3, m.cpu.nextEventCycle(1));
+
+        assertRunsLikeInterpreter(new long[] { 3, 4, 100, 5000 },
+                0x3E, 0x05,     // LD A, 5
+                0x3C,           // INC A
+                0xE0, 0x01,     // LDH (SB), A
+                0x18, 0xFB);    // JR -5
+    }
+
+    @Test
+    void writesToTheRomAreaDropCompiledBlocks() {
+        assertRunsLikeInterpreter(new long[] { 10, 100, 1000, 10000 },
+                0x3E, 0x01,             // LD A, 1
+                0x3C,                   // INC A
+                0xEA, 0x01, 0x00,       // LD (1), A
+                0x06, 0x10,             // LD B, 16
+                0x05,                   // DEC B
+                0x20, 0xFD,             // JR NZ, -3
+                0xC3, 0x00, 0x00);      // JP 0
+    }
+
+    @Test
+    void compiledInstructionsRunLikeInterpreter() {
+        assertRunsLikeInterpreter(new long[] { 100, 1000, 10000, 100000 },
+                0x31, 0xF0, 0xDF,       // LD SP, 0xDFF0
+                0x21, 0x00, 0xC0,       // LD HL, 0xC000
+                0x06, 0x40,             // LD B, 64
+                0x78,                   // LD A, B
+                0x8E,                   // ADC A, (HL)
+                0x77,                   // LD (HL), A
+                0x4F,                   // LD C, A
+                0x91,                   // SUB A, C
+                0x99,                   // SBC A, C
+                0xCE, 0x07,             // ADC A, 7
+                0xDE, 0x03,             // SBC A, 3
+                0xA1,                   // AND A, C
+                0xB0,                   // OR A, B
+                0xA8,                   // XOR A, B
+                0xBE,                   // CP A, (HL)
+                0xE6, 0x3C,             // AND A, 0x3C
+                0x36, 0x5A,             // LD (HL), 0x5A
+                0x86,                   // ADD A, (HL)
+                0x96,                   // SUB A, (HL)
+                0x9E,                   // SBC A, (HL)
+                0xA6,                   // AND A, (HL)
+                0xB6,                   // OR A, (HL)
+                0xAE,                   // XOR A, (HL)
+                0x56,                   // LD D, (HL)
+                0x1C,                   // INC E
+                0x2C,                   // INC L
+                0x38, 0x02,             // JR C, +2
+                0x14,                   // INC D
+                0x00,                   // NOP
+                0xDA, 0x2B, 0x00,       // JP C, 0x002B
+                0x15,                   // DEC D
+                0x30, 0x01,             // 0x002B : JR NC, +1
+                0x1D,                   // DEC E
+                0xCA, 0x32, 0x00,       // JP Z, 0x0032
+                0x00,                   // NOP
+                0xC2, 0x36, 0x00,       // 0x0032 : JP NZ, 0x0036
+                0x00,                   // NOP
+                0x05,                   // 0x0036 : DEC B
+                0x20, 0xCF,             // JR NZ, -49
+                0x21, 0x01, 0xFF,       // LD HL, 0xFF01
+                0x77,                   // LD (HL), A
+                0x21, 0x00, 0xC0,       // LD HL, 0xC000
+                0xC3, 0x06, 0x00);      // JP 6
+    }
+
+    @Test
+    void callsAndStackAccessesRunLikeInterpreter() {
+        assertRunsLikeInterpreter(new long[] { 50, 500, 5000 },
+                0x31, 0xF0, 0xDF,       // LD SP, 0xDFF0
+                0x21, 0x00, 0xC0,       // LD HL, 0xC000
+                0xCD, 0x10, 0x00,       // CALL 0x0010
+                0x18, 0xFB,             // JR -5
+                0, 0, 0, 0, 0, 0,
+                0x34,                   // 0x0010 : INC (HL)
+                0x7E,                   // LD A, (HL)
+                0xC5,                   // PUSH BC
+                0xC1,                   // POP BC
+                0xE0, 0x01,             // LDH (SB), A
+                0xC9);                  // RET
+    }
+
+    @Test
+    void blarggsTestsGiveTheSameResultsWhenRecompiled() throws IOException {
+        for (int r = 0; r < S6GameBoyTest.blarggRomCount(); ++r) {
+            byte[] rom = S6GameBoyTest.blarggRom(r);
+            GameBoy interpreted = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+            GameBoy recompiled = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+            recompiled.cpu().setRecompiler(new Recompiler(16));
+            StringBuilder interpretedOutput = recordSerial(interpreted);
+            StringBuilder recompiledOutput = recordSerial(recompiled);
+
+            for (int f = 1; f <= BLARGG_FRAMES[r]; ++f) {
+                interpreted.runUntil((long) f * LcdController.CYCLES_PER_FRAME);
+                recompiled.runUntil((long) f * LcdController.CYCLES_PER_FRAME);
+                assertArrayEquals(interpreted.cpu()._testGetPcSpAFBCDEHL(), recompiled.cpu()._testGetPcSpAFBCDEHL());
+                assertEquals(interpreted.cpu().executedInstructions(), recompiled.cpu().executedInstructions());
+            }
+
+            assertEquals(interpretedOutput.toString(), recompiledOutput.toString());
+            assertTrue(recompiledOutput.toString().endsWith("Passed\n"), recompiledOutput.toString());
+            assertEquals(interpreted.lcdController().currentFrame(), recompiled.lcdController().currentFrame());
+        }
+    }
+
+    static StringBuilder recordSerial(GameBoy gb) {
+        StringBuilder output = new StringBuilder();
+        new Component() {
+            @Override
+            public int read(int address) {
+                return NO_DATA;
+            }
+
+            @Override
+            public void write(int address, int data) {
+                if (address == AddressMap.REG_SB)
+                    output.append((char) data);
+            }
+        }.attachTo(gb.bus());
+        return output;
+    }
+}
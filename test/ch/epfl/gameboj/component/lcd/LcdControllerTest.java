@@ -0,0 +1,103 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.cpu.Cpu;
+import ch.epfl.gameboj.component.lcd.LcdController.RenderMode;
+
+class LcdControllerTest {
+
+    private static final int REG_LCDC = AddressMap.REGS_LCDC_START;
+    private static final int REG_SCY = REG_LCDC + 2, REG_SCX = REG_LCDC + 3;
+    private static final int REG_BGP = REG_LCDC + 7, REG_OBP0 = REG_LCDC + 8, REG_OBP1 = REG_LCDC + 9;
+    private static final int REG_WY = REG_LCDC + 10, REG_WX = REG_LCDC + 11;
+
+    private static final int FRAME_CYCLES = 17_556;
+
+    @Test
+    void constructorFailsForNullArguments() {
+        assertThrows(NullPointerException.class, () -> new LcdController(null));
+        assertThrows(NullPointerException.class, () -> new LcdController(new Cpu(), null));
+    }
+
+    @Test
+    void currentImageIsInitiallyBlank() {
+        LcdController lcd = new LcdController(new Cpu());
+        LcdImage image = lcd.currentImage();
+        for (int y = 0; y < LcdController.LCD_HEIGHT; ++y) {
+            for (int x = 0; x < LcdController.LCD_WIDTH; ++x) {
+                assertEquals(0, image.get(x, y));
+                assertEquals(0, lcd.currentFrame().get(x, y));
+            }
+        }
+    }
+
+    @Test
+    void renderModesDrawTheSamePixels() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS / 4; ++i) {
+            LcdController lines = newLcdController(RenderMode.IMAGE_LINES);
+            LcdController frameBuffer = newLcdController(RenderMode.FRAME_BUFFER);
+
+            for (int a = AddressMap.VIDEO_RAM_START; a < AddressMap.VIDEO_RAM_END; ++a)
+                writeBoth(lines, frameBuffer, a, rng.nextInt(0x100));
+            for (int a = AddressMap.OAM_START; a < AddressMap.OAM_END; ++a) {
+                // Half of the sprites are on the screen
+                int spriteByte = (a - AddressMap.OAM_START) % 4;
+                int data = spriteByte < 2 && rng.nextBoolean() ? 8 + rng.nextInt(160) : rng.nextInt(0x100);
+                writeBoth(lines, frameBuffer, a, data);
+            }
+            for (int r : new int[] { REG_SCY, REG_SCX, REG_BGP, REG_OBP0, REG_OBP1, REG_WY })
+                writeBoth(lines, frameBuffer, r, rng.nextInt(0x100));
+            writeBoth(lines, frameBuffer, REG_WX, rng.nextInt(170));
+            writeBoth(lines, frameBuffer, REG_LCDC, 0x80 | rng.nextInt(0x80));
+
+            for (long c = 0; c < FRAME_CYCLES; ++c) {
+                lines.cycle(c);
+                frameBuffer.cycle(c);
+            }
+            assertSamePixels(lines, frameBuffer);
+
+            // Changes the tiles once they have been drawn
+            for (int j = 0; j < 0x400; ++j)
+                writeBoth(lines, frameBuffer, AddressMap.VIDEO_RAM_START + rng.nextInt(0x1800), rng.nextInt(0x100));
+            for (long c = FRAME_CYCLES; c < 2 * FRAME_CYCLES; ++c) {
+                lines.cycle(c);
+                frameBuffer.cycle(c);
+            }
+            assertSamePixels(lines, frameBuffer);
+        }
+    }
+
+    private static void assertSamePixels(LcdController lines, LcdController frameBuffer) {
+        LcdImage expected = lines.currentImage();
+        LcdImage actual = frameBuffer.currentImage();
+        for (int y = 0; y < LcdController.LCD_HEIGHT; ++y) {
+            for (int x = 0; x < LcdController.LCD_WIDTH; ++x) {
+                assertEquals(expected.get(x, y), actual.get(x, y));
+                assertEquals(expected.get(x, y), frameBuffer.currentFrame().get(x, y));
+                assertEquals(expected.get(x, y), lines.currentFrame().get(x, y));
+            }
+        }
+    }
+
+    private static LcdController newLcdController(RenderMode mode) {
+        LcdController lcd = new LcdController(new Cpu(), mode);
+        lcd.attachTo(new Bus());
+        return lcd;
+    }
+
+    private static void writeBoth(LcdController l1, LcdController l2, int address, int data) {
+        l1.write(address, data);
+        l2.write(address, data);
+    }
+}
@@ -0,0 +1,105 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LcdFrameBufferTest {
+
+    @Test
+    void constructorFailsForInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new LcdFrameBuffer(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new LcdFrameBuffer(33, 10));
+        assertThrows(IllegalArgumentException.class, () -> new LcdFrameBuffer(32, 0));
+    }
+
+    @Test
+    void getFailsForInvalidIndex() {
+        LcdFrameBuffer fb = new LcdFrameBuffer(64, 10);
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.get(64, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.get(-1, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.get(0, 10));
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.get(0, -1));
+    }
+
+    @Test
+    void setLineFailsForInvalidArguments() {
+        LcdFrameBuffer fb = new LcdFrameBuffer(64, 10);
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.setLine(10, new byte[64]));
+        assertThrows(IllegalArgumentException.class, () -> fb.setLine(0, new byte[63]));
+        assertThrows(IllegalArgumentException.class, () -> fb.setLine(0, new LcdImageLine.Builder(32).build()));
+    }
+
+    @Test
+    void setLineAndGetWorkOnRandomValues() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            LcdFrameBuffer fb = new LcdFrameBuffer(96, 3);
+            byte[][] colors = new byte[3][96];
+            for (int y = 0; y < 3; ++y) {
+                for (int x = 0; x < 96; ++x)
+                    colors[y][x] = (byte) rng.nextInt(4);
+                fb.setLine(y, colors[y]);
+            }
+            for (int y = 0; y < 3; ++y)
+                for (int x = 0; x < 96; ++x)
+                    assertEquals(colors[y][x], fb.get(x, y));
+        }
+    }
+
+    @Test
+    void blockPacksPixelsFromTheLeastSignificantBits() {
+        LcdFrameBuffer fb = new LcdFrameBuffer(64, 2);
+        byte[] colors = new byte[64];
+        colors[32] = 0b11;
+        colors[33] = 0b01;
+        colors[63] = 0b10;
+        fb.setLine(1, colors);
+
+        assertEquals(0, fb.block(0, 1));
+        assertEquals(0, fb.block(1, 0));
+        assertEquals(0x8000_0000_0000_0007L, fb.block(1, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.block(1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> fb.block(2, 0));
+    }
+
+    @Test
+    void setLineWithImageLineAndToImageKeepPixels() {
+        Random rng = newRandom();
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            LcdImageLine.Builder lb = new LcdImageLine.Builder(64);
+            for (int b = 0; b < 8; ++b)
+                lb.setBytes(b, rng.nextInt(0x100), rng.nextInt(0x100));
+            LcdImageLine line = lb.build();
+
+            LcdFrameBuffer fb = new LcdFrameBuffer(64, 2);
+            fb.setLine(1, line);
+            LcdImage image = fb.toImage();
+
+            for (int x = 0; x < 64; ++x) {
+                int expected = (line.msb().testBit(x) ? 0b10 : 0) | (line.lsb().testBit(x) ? 0b01 : 0);
+                assertEquals(expected, fb.get(x, 1));
+                assertEquals(expected, image.get(x, 1));
+                assertEquals(0, image.get(x, 0));
+            }
+        }
+    }
+
+    @Test
+    void copyFromCopiesAllPixels() {
+        LcdFrameBuffer fb1 = new LcdFrameBuffer(32, 2), fb2 = new LcdFrameBuffer(32, 2);
+        byte[] colors = new byte[32];
+        for (int x = 0; x < 32; ++x)
+            colors[x] = (byte) (x % 4);
+        fb1.setLine(1, colors);
+        fb2.copyFrom(fb1);
+        for (int x = 0; x < 32; ++x)
+            assertEquals(x % 4, fb2.get(x, 1));
+        assertThrows(IllegalArgumentException.class, () -> fb2.copyFrom(new LcdFrameBuffer(64, 2)));
+    }
+}
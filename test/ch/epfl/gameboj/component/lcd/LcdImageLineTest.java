@@ -118,6 +118,18 @@ class LcdImageLineTest {
 	    assertEquals(below, below.below(new LcdImageLine(ZERO, ZERO, ZERO)));
 	}
 	
+	@Test
+	void withSpritesWorksLikeBelow() {
+	    LcdImageLine line = new LcdImageLine(MSB, LSB, OP);
+	    LcdImageLine bgSprites = new LcdImageLine(repeat(0x93), repeat(0x5D), repeat(0x0F));
+	    LcdImageLine fgSprites = new LcdImageLine(repeat(0x3C), repeat(0xA6), repeat(0x81));
+	    
+	    LcdImageLine expected = bgSprites.below(line, OP.or(bgSprites.opacity().not())).below(fgSprites);
+	    assertEquals(expected, line.withSprites(bgSprites, fgSprites));
+	    assertThrows(IllegalArgumentException.class,
+	            () -> line.withSprites(bgSprites, new LcdImageLine(new BitVector(64), new BitVector(64), new BitVector(64))));
+	}
+	
 	@Test
 	@SuppressWarnings("unlikely-arg-type")
 	void equalsWorksForKnownValues() {
@@ -0,0 +1,127 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.memory.Ram;
+
+class SpriteIndexTest {
+
+    @Test
+    void constructorFailsWhenOamIsNull() {
+        assertThrows(NullPointerException.class, () -> new SpriteIndex(null));
+    }
+
+    @Test
+    void linesWithoutSpritesAreEmpty() {
+        SpriteIndex index = new SpriteIndex(new Ram(AddressMap.OAM_RAM_SIZE));
+        for (int line = 0; line < LcdController.LCD_HEIGHT; ++line) {
+            assertEquals(0, index.count(line, false));
+            assertEquals(0, index.count(line, true));
+        }
+    }
+
+    @Test
+    void spritesAreSortedByXAndSplitByPriority() {
+        Ram oam = new Ram(AddressMap.OAM_RAM_SIZE);
+        SpriteIndex index = new SpriteIndex(oam);
+        write(index, oam, 0, 20, 50, 0x80);
+        write(index, oam, 1, 20, 30, 0);
+        write(index, oam, 2, 24, 30, 0);
+        write(index, oam, 3, 16, 10, 0x80);
+
+        assertArrayEquals(new int[] { 1 }, sprites(index, 4, false));
+        assertArrayEquals(new int[] { 3, 0 }, sprites(index, 4, true));
+        assertArrayEquals(new int[] { 1, 2 }, sprites(index, 9, false));
+        assertArrayEquals(new int[] { 2 }, sprites(index, 12, false));
+    }
+
+    @Test
+    void onlyTheFirstTenSpritesOfALineAreSelected() {
+        Ram oam = new Ram(AddressMap.OAM_RAM_SIZE);
+        SpriteIndex index = new SpriteIndex(oam);
+        for (int s = 0; s < 12; ++s) {
+            write(index, oam, s, 16, 100 - s, 0);
+        }
+
+        assertArrayEquals(new int[] { 9, 8, 7, 6, 5, 4, 3, 2, 1, 0 }, sprites(index, 0, false));
+    }
+
+    @Test
+    void heightChangeInvalidatesAllLines() {
+        Ram oam = new Ram(AddressMap.OAM_RAM_SIZE);
+        SpriteIndex index = new SpriteIndex(oam);
+        write(index, oam, 5, 16, 8, 0);
+        assertEquals(0, index.count(12, false));
+
+        index.setSpritesHeight(16);
+        assertArrayEquals(new int[] { 5 }, sprites(index, 12, false));
+    }
+
+    @Test
+    void indexMatchesFullSelectionAfterRandomWrites() {
+        Random rng = newRandom();
+        Ram oam = new Ram(AddressMap.OAM_RAM_SIZE);
+        SpriteIndex index = new SpriteIndex(oam);
+        int height = 8;
+        for (int i = 0; i < 20 * RANDOM_ITERATIONS; ++i) {
+            if (rng.nextInt(50) == 0) {
+                height = rng.nextBoolean() ? 8 : 16;
+                index.setSpritesHeight(height);
+            }
+            int address = rng.nextInt(AddressMap.OAM_RAM_SIZE);
+            // Keeps most sprites on screen, so that lines are crowded
+            int data = address % 4 == 0 ? 16 + rng.nextInt(40) : rng.nextInt(0x100);
+            index.invalidate(address, data);
+            oam.write(address, data);
+
+            for (int line = 0; line < 64; ++line) {
+                for (boolean behind : new boolean[] { false, true }) {
+                    assertArrayEquals(expectedSprites(oam, height, line, behind), sprites(index, line, behind));
+                }
+            }
+        }
+    }
+
+    private static void write(SpriteIndex index, Ram oam, int sprite, int y, int x, int attributes) {
+        int[] bytes = { y, x, 0, attributes };
+        for (int i = 0; i < bytes.length; ++i) {
+            index.invalidate(4 * sprite + i, bytes[i]);
+            oam.write(4 * sprite + i, bytes[i]);
+        }
+    }
+
+    private static int[] sprites(SpriteIndex index, int line, boolean behind) {
+        int[] sprites = new int[index.count(line, behind)];
+        for (int i = 0; i < sprites.length; ++i) {
+            sprites[i] = index.sprite(line, behind, i);
+        }
+        return sprites;
+    }
+
+    private static int[] expectedSprites(Ram oam, int height, int line, boolean behind) {
+        List<Integer> selected = new ArrayList<>();
+        for (int s = 0; s < 40 && selected.size() < 10; ++s) {
+            int distance = line - (oam.read(4 * s) - 16);
+            if (0 <= distance && distance < height) {
+                selected.add(s);
+            }
+        }
+        selected.sort(Comparator.comparingInt((Integer s) -> oam.read(4 * s + 1)).thenComparingInt(s -> s));
+        return selected.stream()
+                .filter(s -> ((oam.read(4 * s + 3) & 0x80) != 0) == behind)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+}
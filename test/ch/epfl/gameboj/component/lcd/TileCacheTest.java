@@ -0,0 +1,74 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.test.TestRandomizer.RANDOM_ITERATIONS;
+import static ch.epfl.test.TestRandomizer.newRandom;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+
+class TileCacheTest {
+
+    @Test
+    void constructorFailsWhenVideoRamIsNull() {
+        assertThrows(NullPointerException.class, () -> new TileCache(null));
+    }
+
+    @Test
+    void lineInterleavesColorsFromLeftToRight() {
+        RamController vRam = newVideoRam();
+        TileCache cache = new TileCache(vRam);
+        vRam.write(0x8012, 0b1000_0001); // lsb
+        vRam.write(0x8013, 0b1100_0000); // msb
+
+        assertEquals(0b01_00_00_00_00_00_10_11, cache.line(0x8012));
+    }
+
+    @Test
+    void lineWorksOnRandomValues() {
+        Random rng = newRandom();
+        RamController vRam = newVideoRam();
+        TileCache cache = new TileCache(vRam);
+        for (int i = 0; i < RANDOM_ITERATIONS; ++i) {
+            int address = 0x8000 + 2 * rng.nextInt(384 * 8);
+            int lsb = rng.nextInt(0x100), msb = rng.nextInt(0x100);
+            vRam.write(address, lsb);
+            vRam.write(address + 1, msb);
+            cache.invalidate(address);
+
+            int line = cache.line(address);
+            for (int p = 0; p < 8; ++p) {
+                int expected = (Bits.extract(msb, 7 - p, 1) << 1) | Bits.extract(lsb, 7 - p, 1);
+                assertEquals(expected, Bits.extract(line, 2 * p, 2));
+            }
+        }
+    }
+
+    @Test
+    void lineIsOnlyUpdatedWhenInvalidated() {
+        RamController vRam = newVideoRam();
+        TileCache cache = new TileCache(vRam);
+        assertEquals(0, cache.line(0x8FFE));
+
+        vRam.write(0x8FF1, 0xFF);
+        assertEquals(0, cache.line(0x8FFE));
+
+        cache.invalidate(0x8FF1);
+        assertEquals(0, cache.line(0x8FFE));
+        assertEquals(0xAAAA, cache.line(0x8FF0));
+
+        // Background maps are not cached
+        cache.invalidate(AddressMap.BG_DISPLAY_DATA[0]);
+    }
+
+    private static RamController newVideoRam() {
+        return new RamController(new Ram(AddressMap.VIDEO_RAM_SIZE), AddressMap.VIDEO_RAM_START);
+    }
+}
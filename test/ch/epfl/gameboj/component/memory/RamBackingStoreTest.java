@@ -0,0 +1,90 @@
+package ch.epfl.gameboj.component.memory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class RamBackingStoreTest {
+
+    @Test
+    void constructorFailsForReadOnlyStore() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new Ram(ByteBuffer.allocate(4).asReadOnlyBuffer()));
+    }
+
+    @Test
+    void ramWritesToItsStore() {
+        ByteBuffer store = ByteBuffer.allocate(8);
+        store.position(2);
+        Ram ram = new Ram(store);
+
+        assertEquals(6, ram.size());
+        ram.write(0, 0xAB);
+        ram.write(5, 0x01);
+        assertEquals((byte) 0xAB, store.get(2));
+        assertEquals(1, store.get(7));
+
+        store.put(3, (byte) 0x42);
+        assertEquals(0x42, ram.read(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> ram.write(6, 0));
+    }
+
+    @Test
+    void ofFileCreatesAndExtendsTheFile() throws IOException {
+        Path file = tempFile();
+        Files.write(file, new byte[] { 1, 2 });
+
+        Ram ram = Ram.ofFile(file, 16);
+        assertEquals(16, ram.size());
+        assertEquals(2, ram.read(1));
+        assertEquals(0, ram.read(15));
+        assertEquals(16, Files.size(file));
+    }
+
+    @Test
+    void ofFileWritesGoToTheFile() throws IOException {
+        Path file = tempFile();
+        Ram ram = Ram.ofFile(file, 4);
+        ram.write(0, 0xFF);
+        ram.write(3, 0x12);
+        ram.force();
+
+        assertArrayEquals(new byte[] { (byte) 0xFF, 0, 0, 0x12 }, Files.readAllBytes(file));
+        assertEquals(0xFF, Ram.ofFile(file, 4).read(0));
+    }
+
+    @Test
+    void stateRoundTripsAndFailsForSmallBuffers() {
+        Ram ram = new Ram(4);
+        ram.copyFrom(new byte[] { 1, 2, 3, 4 }, 0, 0, 4);
+
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        buffer.put((byte) 9);
+        ram.saveState(buffer);
+        assertEquals(0, buffer.remaining());
+        assertThrows(BufferOverflowException.class, () -> ram.saveState(buffer));
+
+        Ram restored = new Ram(4);
+        buffer.position(1);
+        restored.loadState(buffer);
+        byte[] contents = new byte[4];
+        restored.copyTo(0, contents, 0, 4);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, contents);
+        assertThrows(BufferUnderflowException.class, () -> restored.loadState(buffer));
+    }
+
+    private static Path tempFile() throws IOException {
+        Path file = Files.createTempFile("TestRam_", ".sav");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,120 @@
+package ch.epfl.gameboj.component.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+
+class RomCacheTest {
+
+    @Test
+    void ofFailsForNonExistentFile() {
+        assertThrows(IOException.class, () -> RomCache.of(Path.of("____\\\\....////____")));
+    }
+
+    @Test
+    void ofReturnsTheContentsOfTheFile() throws IOException {
+        byte[] data = { 1, 2, (byte) 0xFF, 0 };
+        Rom rom = RomCache.of(tempFile(data));
+
+        assertEquals(data.length, rom.size());
+        for (int i = 0; i < data.length; ++i)
+            assertEquals(Byte.toUnsignedInt(data[i]), rom.read(i));
+        assertThrows(IndexOutOfBoundsException.class, () -> rom.read(data.length));
+    }
+
+    @Test
+    void ofSharesTheRomOfAFile() throws IOException {
+        Path file = tempFile(new byte[0x8000]);
+        assertSame(RomCache.of(file), RomCache.of(file));
+    }
+
+    @Test
+    void ofReloadsAReplacedFile() throws IOException {
+        Path file = tempFile(new byte[] { 1, 2, 3 });
+        Rom before = RomCache.of(file);
+
+        Files.move(tempFile(new byte[] { 1, 2, 4 }), file, StandardCopyOption.REPLACE_EXISTING);
+        Rom after = RomCache.of(file);
+
+        assertNotSame(before, after);
+        assertEquals(3, before.read(2));
+        assertEquals(4, after.read(2));
+    }
+
+    @Test
+    void ofReloadsAFileModifiedInPlace() throws IOException {
+        Path file = tempFile(new byte[] { 1, 2, 3 });
+        Rom before = RomCache.of(file);
+        FileTime loaded = Files.getLastModifiedTime(file);
+
+        Files.write(file, new byte[] { 1, 2, 4 });
+        Files.setLastModifiedTime(file, FileTime.fromMillis(loaded.toMillis() + 1000));
+        Rom after = RomCache.of(file);
+
+        assertNotSame(before, after);
+        assertEquals(3, before.read(2));
+        assertEquals(4, after.read(2));
+    }
+
+    @Test
+    void ofReloadsAFileRewrittenWithTheSameAttributes() throws IOException {
+        Path file = tempFile(new byte[] { 1, 2, 3 });
+        Rom before = RomCache.of(file);
+        FileTime loaded = Files.getLastModifiedTime(file);
+
+        Files.write(file, new byte[] { 1, 2, 4 });
+        Files.setLastModifiedTime(file, loaded);
+        Rom after = RomCache.of(file);
+
+        assertNotSame(before, after);
+        assertEquals(3, before.read(2));
+        assertEquals(4, after.read(2));
+        assertSame(after, RomCache.of(file));
+    }
+
+    @Test
+    void romsStayValidWhenTheFileIsTruncated() throws IOException {
+        Path file = tempFile(new byte[0x8000]);
+        Rom rom = RomCache.of(file);
+
+        Files.write(file, new byte[0]);
+        assertEquals(0x8000, rom.size());
+        assertEquals(0, rom.read(0x7FFF));
+        assertEquals(0, RomCache.of(file).size());
+    }
+
+    @Test
+    void cacheKeepsTheLastLoadedRoms() throws IOException {
+        Path first = tempFile(new byte[] { 1 });
+        Rom rom = RomCache.of(first);
+        for (int i = 0; i < RomCache.MAX_ROMS; ++i)
+            RomCache.of(tempFile(new byte[] { 2 }));
+
+        assertNotSame(rom, RomCache.of(first));
+    }
+
+    @Test
+    void clearKeepsLoadedRomsValid() throws IOException {
+        Path file = tempFile(new byte[] { 7 });
+        Rom before = RomCache.of(file);
+        RomCache.clear();
+
+        assertEquals(7, before.read(0));
+        assertNotSame(before, RomCache.of(file));
+    }
+
+    private static Path tempFile(byte[] data) throws IOException {
+        Path file = Files.createTempFile("TestROM_", ".gb");
+        file.toFile().deleteOnExit();
+        return Files.write(file, data);
+    }
+}
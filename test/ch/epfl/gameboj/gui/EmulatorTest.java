@@ -0,0 +1,34 @@
+package ch.epfl.gameboj.gui;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.component.cartridge.CartridgeTest;
+
+class EmulatorTest {
+
+    @Test
+    void constructorFailsWithNullGameBoy() {
+        assertThrows(NullPointerException.class, () -> new Emulator(null));
+    }
+
+    @Test
+    void emulatorRunsGameBoyAndPublishesFramesUntilStopped() throws InterruptedException {
+        GameBoy gb = new GameBoy(CartridgeTest.cartridgeWithData(new byte[0x8000]));
+        Emulator emulator = new Emulator(gb);
+        emulator.start();
+        assertThrows(IllegalStateException.class, () -> emulator.start());
+
+        Thread.sleep(100);
+        emulator.stop();
+
+        long cycles = gb.cycles();
+        assertTrue(cycles > 0);
+        assertTrue(emulator.frames().update());
+        Thread.sleep(20);
+        assertTrue(cycles == gb.cycles());
+    }
+}
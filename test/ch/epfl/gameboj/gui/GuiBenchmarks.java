@@ -0,0 +1,44 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Random;
+
+import ch.epfl.gameboj.bench.Harness;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+import ch.epfl.gameboj.component.lcd.LcdImageLine;
+
+/**
+ * Microbenchmarks of the user interface, run by MicroBenchmarks when JavaFX is available
+ *
+ * @author Sylvain Kuchen (282380)
+ * @author Luca Bataillard (282152)
+ */
+public final class GuiBenchmarks {
+
+    /**
+     * Adds the benchmarks of the user interface to a harness
+     * @param h : the harness
+     */
+    public static void register(Harness h) {
+        Random rng = new Random(6);
+        LcdImage[] images = { randomImage(rng), randomImage(rng) };
+
+        h.add("imageConverter.convert", n -> {
+            long s = 0;
+            for (int i = 0; i < n; i++) s += ImageConverter.convert(images[i & 1]).hashCode();
+            return s;
+        });
+    }
+
+    private static LcdImage randomImage(Random rng) {
+        LcdImage.Builder b = new LcdImage.Builder(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
+        for (int y = 0; y < LcdController.LCD_HEIGHT; y++) {
+            LcdImageLine.Builder lb = new LcdImageLine.Builder(LcdController.LCD_WIDTH);
+            for (int i = 0; i < LcdController.LCD_WIDTH / Byte.SIZE; i++) {
+                lb.setBytes(i, rng.nextInt(0x100), rng.nextInt(0x100));
+            }
+            b.setLine(y, lb.build());
+        }
+        return b.build();
+    }
+}
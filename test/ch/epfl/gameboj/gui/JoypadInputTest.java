@@ -0,0 +1,53 @@
+package ch.epfl.gameboj.gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.cpu.Cpu;
+
+class JoypadInputTest {
+
+    private static final int P1 = AddressMap.REG_P1;
+
+    @Test
+    void keysAreOnlyAppliedToJoypadOnRequest() {
+        Joypad j = new Joypad(new Cpu());
+        j.write(P1, 0b1110_1111); // first row selected
+        JoypadInput input = new JoypadInput();
+
+        input.keyPressed(Key.LEFT);
+        assertEquals(0b1110_1111, j.read(P1));
+
+        input.applyTo(j);
+        assertEquals(0b1110_1101, j.read(P1));
+    }
+
+    @Test
+    void changesAreAppliedInOrder() {
+        Joypad j = new Joypad(new Cpu());
+        j.write(P1, 0b1101_1111); // second row selected
+        JoypadInput input = new JoypadInput();
+
+        input.keyPressed(Key.A);
+        input.keyPressed(Key.START);
+        input.keyReleased(Key.A);
+        input.applyTo(j);
+        assertEquals(0b1101_0111, j.read(P1));
+
+        input.keyReleased(Key.START);
+        input.keyPressed(Key.START);
+        input.applyTo(j);
+        assertEquals(0b1101_0111, j.read(P1));
+    }
+
+    @Test
+    void applyToFailsWithNullJoypad() {
+        assertThrows(NullPointerException.class, () -> new JoypadInput().applyTo(null));
+        assertThrows(NullPointerException.class, () -> new JoypadInput().keyPressed(null));
+    }
+}
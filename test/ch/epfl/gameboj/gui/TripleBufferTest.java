@@ -0,0 +1,69 @@
+package ch.epfl.gameboj.gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TripleBufferTest {
+
+    @Test
+    void constructorFailsWhenFactoryCreatesNull() {
+        assertThrows(NullPointerException.class, () -> new TripleBuffer<int[]>(null));
+        assertThrows(NullPointerException.class, () -> new TripleBuffer<int[]>(() -> null));
+    }
+
+    @Test
+    void updateIsFalseUntilPublished() {
+        TripleBuffer<int[]> tb = new TripleBuffer<>(() -> new int[1]);
+        assertFalse(tb.update());
+        tb.back()[0] = 1;
+        tb.publish();
+        assertTrue(tb.update());
+        assertEquals(1, tb.front()[0]);
+        assertFalse(tb.update());
+        assertEquals(1, tb.front()[0]);
+    }
+
+    @Test
+    void frontIsTheLastPublishedBuffer() {
+        TripleBuffer<int[]> tb = new TripleBuffer<>(() -> new int[1]);
+        for (int i = 1; i <= 10; ++i) {
+            tb.back()[0] = i;
+            tb.publish();
+        }
+        assertTrue(tb.update());
+        assertEquals(10, tb.front()[0]);
+        assertNotSame(tb.front(), tb.back());
+    }
+
+    @Test
+    void consumerSeesIncreasingValuesWhileProducerPublishes() throws InterruptedException {
+        TripleBuffer<int[]> tb = new TripleBuffer<>(() -> new int[2]);
+        int count = 200_000;
+
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= count; ++i) {
+                int[] b = tb.back();
+                b[0] = i;
+                b[1] = -i;
+                tb.publish();
+            }
+        });
+        producer.start();
+
+        int last = 0;
+        while (last < count) {
+            if (tb.update()) {
+                int[] b = tb.front();
+                assertTrue(b[0] > last);
+                assertEquals(-b[0], b[1]);
+                last = b[0];
+            }
+        }
+        producer.join();
+    }
+}
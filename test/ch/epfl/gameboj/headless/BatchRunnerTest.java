@@ -0,0 +1,99 @@
+package ch.epfl.gameboj.headless;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.S6GameBoyTest;
+import ch.epfl.gameboj.component.memory.RomCache;
+
+class BatchRunnerTest {
+
+    private static final int FRAMES = 300;
+
+    @Test
+    void constructorFailsForInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchRunner(0));
+    }
+
+    @Test
+    void parallelResultsEqualSequentialResults() throws IOException {
+        List<BatchRunner.Job> jobs = jobs(3, 2);
+
+        List<BatchRunner.Result> sequential;
+        try (BatchRunner runner = new BatchRunner(1)) {
+            sequential = runner.run(jobs);
+        }
+        List<BatchRunner.Result> parallel;
+        try (BatchRunner runner = new BatchRunner(4)) {
+            parallel = runner.run(jobs);
+        }
+
+        assertEquals(jobs.size(), parallel.size());
+        for (int i = 0; i < jobs.size(); ++i) {
+            BatchRunner.Result s = sequential.get(i);
+            BatchRunner.Result p = parallel.get(i);
+            assertEquals(s.name(), p.name());
+            assertEquals(s.serialOutput(), p.serialOutput(), p.name());
+            assertEquals(s.frameHash(), p.frameHash(), p.name());
+            assertEquals(s.cycles(), p.cycles(), p.name());
+            assertEquals(s.instructions(), p.instructions(), p.name());
+        }
+    }
+
+    @Test
+    void instancesOfTheSameRomGiveTheSameResults() throws IOException {
+        List<BatchRunner.Result> results;
+        try (BatchRunner runner = new BatchRunner(2)) {
+            results = runner.run(jobs(1, 3));
+        }
+
+        for (BatchRunner.Result r : results) {
+            assertTrue(r.serialOutput().startsWith("01-special"), r.serialOutput());
+            assertEquals(results.get(0).serialOutput(), r.serialOutput());
+            assertEquals(results.get(0).frameHash(), r.frameHash());
+            assertEquals((long) FRAMES * 17_556, r.cycles());
+        }
+    }
+
+    @Test
+    void jobsOfLoadedRomsGiveTheSameResultsAsJobsOfBytes() throws IOException {
+        byte[] data = S6GameBoyTest.blarggRom(0);
+        Path file = Files.createTempFile("TestROM_", ".gb");
+        file.toFile().deleteOnExit();
+        Files.write(file, data);
+
+        List<BatchRunner.Result> results;
+        try (BatchRunner runner = new BatchRunner(2)) {
+            results = runner.run(List.of(
+                    new BatchRunner.Job("bytes", data, FRAMES, InputScript.EMPTY),
+                    new BatchRunner.Job("file", RomCache.of(file), FRAMES, InputScript.EMPTY)));
+        }
+
+        assertEquals(results.get(0).serialOutput(), results.get(1).serialOutput());
+        assertEquals(results.get(0).frameHash(), results.get(1).frameHash());
+        assertEquals(results.get(0).instructions(), results.get(1).instructions());
+    }
+
+    /**
+     * @return the jobs running each of the first given Blargg roms the given number of times,
+     * each instance having its own copy of the rom
+     */
+    private static List<BatchRunner.Job> jobs(int roms, int instances) throws IOException {
+        List<BatchRunner.Job> jobs = new ArrayList<>();
+        for (int r = 0; r < roms; ++r) {
+            for (int i = 0; i < instances; ++i) {
+                jobs.add(new BatchRunner.Job(r + "#" + i, S6GameBoyTest.blarggRom(r), FRAMES, InputScript.EMPTY));
+            }
+        }
+        return jobs;
+    }
+}
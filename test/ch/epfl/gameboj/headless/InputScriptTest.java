@@ -0,0 +1,79 @@
+package ch.epfl.gameboj.headless;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.cpu.Cpu;
+
+class InputScriptTest {
+
+    @Test
+    void parseIgnoresBlankLinesAndComments() {
+        InputScript s = InputScript.parse(List.of("", "# start the game", "  10 press START ", "12 release start"));
+        assertEquals(2, s.size());
+    }
+
+    @Test
+    void parseDoesNotDependOnTheDefaultLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            InputScript s = InputScript.parse(List.of("\t1 press right", "2 RELEASE right"));
+            assertEquals(2, s.size());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    void parseFailsForInvalidLines() {
+        for (String line : new String[] { "10 press", "x press A", "10 push A", "10 press Z", "-1 press A" }) {
+            assertThrows(IllegalArgumentException.class, () -> InputScript.parse(List.of(line)));
+        }
+    }
+
+    @Test
+    void applyToOnlyAppliesTheEventsOfTheFrame() {
+        InputScript s = InputScript.parse(List.of(
+                "5 release A",
+                "2 press A",
+                "2 press RIGHT",
+                "7 release RIGHT"));
+        Joypad joypad = new Joypad(new Cpu());
+
+        boolean[] rightPressed = { false, false, true, true, true, true, true, false };
+        boolean[] aPressed = { false, false, true, true, true, false, false, false };
+        for (int f = 0; f < 8; ++f) {
+            s.applyTo(joypad, f);
+            assertEquals(rightPressed[f], isPressed(joypad, 0xEF), "at frame " + f);
+            assertEquals(aPressed[f], isPressed(joypad, 0xDF), "at frame " + f);
+        }
+    }
+
+    @Test
+    void applyToDoesNothingAfterTheLastEvent() {
+        InputScript s = InputScript.parse(List.of("0 press A"));
+        Joypad joypad = new Joypad(new Cpu());
+        s.applyTo(joypad, 0);
+        joypad.keyReleased(Joypad.Key.A);
+        s.applyTo(joypad, 1);
+        assertFalse(isPressed(joypad, 0xDF));
+        assertEquals(0, InputScript.EMPTY.size());
+    }
+
+    /**
+     * @return whether the key of column 0 of the row selected by given value of P1 is pressed
+     */
+    private static boolean isPressed(Joypad joypad, int selection) {
+        joypad.write(AddressMap.REG_P1, selection);
+        return (joypad.read(AddressMap.REG_P1) & 1) == 0;
+    }
+}